@@ -0,0 +1,23 @@
+#!/bin/sh
+# Generates WorkSample.jsa, an AppCDS archive of the classes the dictionary loads, next to WorkSample.jar.
+# The dictionary script launches with it, which saves parsing and verifying those classes on every launch.
+# Needs JDK 13 or later, run it again whenever WorkSample.jar or the JDK changes.
+set -e
+
+dir=$(cd "$(dirname "$0")" && pwd)
+data=$(mktemp)
+rm -f "$data" "$dir/WorkSample.jsa"
+
+# a first run saves a dictionary, so that the archived run also loads one. Builds without -c ignore it and read
+# the console instead, so stdin is closed to make them exit rather than wait.
+if ! java -jar "$dir/WorkSample.jar" --data "$data" -c "ADD key member" < /dev/null 2> /dev/null | grep -q Added; then
+    rm -f "$data"
+    echo "$dir/WorkSample.jar does not support --data and -c, rebuild it from src first" >&2
+    exit 1
+fi
+java -XX:ArchiveClassesAtExit="$dir/WorkSample.jsa" -jar "$dir/WorkSample.jar" --data "$data" \
+    -c "ADD key other" -c "MEMBERS key" -c "MEMBEREXISTS key member" -c "KEYS" -c "ITEMS" \
+    -c "REMOVE key other" -c "HELP" < /dev/null > /dev/null
+
+rm -f "$data"
+echo "Generated $dir/WorkSample.jsa"
@@ -0,0 +1,361 @@
+package com.spreetail;
+
+import static com.spreetail.DictionaryHandler.PREFIX;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded command queue in front of the dictionary, so that a producer submitting commands faster than they
+ * are applied gets backpressure instead of an ever growing backlog.
+ *
+ * Every client has its own queue and its commands run one at a time in the order they were submitted, so a
+ * client always sees its own writes. Priority only decides between clients: a client whose next command is a
+ * read is served before a client whose next command is a write, so interactive queries are not stuck behind
+ * an ingest job. After READ_BURST reads in a row a waiting write is served, so writes are never starved.
+ *
+ * Queue depth, rejections and the time commands wait before they start are reported by stats().
+ */
+class AdmissionController implements AutoCloseable {
+
+    static final String ERROR_QUEUE_FULL = PREFIX + "ERROR, command queue is full.";
+    static final String ERROR_RATE_LIMITED = PREFIX + "ERROR, client rate limit exceeded.";
+    static final String ERROR_CLOSED = PREFIX + "ERROR, command queue is closed.";
+
+    static final int DEFAULT_CAPACITY = 1024;
+    static final int READ_BURST = 8;
+
+    /**
+     * What happens to a command submitted while the queue is full, or above the rate of its client.
+     * - BLOCK: the submitter waits until the queue has room.
+     * - SHED: the command is rejected with ERROR_QUEUE_FULL.
+     * - RATE_LIMIT: every client gets a token bucket, commands above its rate are rejected with
+     *   ERROR_RATE_LIMITED, and a full queue blocks as with BLOCK.
+     */
+    enum Policy {
+        BLOCK,
+        SHED,
+        RATE_LIMIT
+    }
+
+    enum Priority {
+        READ,
+        WRITE
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final double tokensPerNano;
+    private final double burst;
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition ready = lock.newCondition();
+    private final Map<String, Client> clients = new HashMap<>();
+    private final Deque<Client> readReady = new ArrayDeque<>();
+    private final Deque<Client> writeReady = new ArrayDeque<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private int depth;
+    private int peakDepth;
+    private int readStreak;
+    private boolean closed;
+    private long admitted;
+    private long shed;
+    private long rateLimited;
+    private long completed;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private final long[] waitHistogram = new long[64];
+
+    /**
+     * Creates a controller running commands on the given number of worker threads.
+     * @param capacity most commands waiting to start, across all clients.
+     * @param policy what happens to a command that does not fit.
+     * @param ratePerSecond commands per second allowed to each client, used by RATE_LIMIT.
+     * @param burst commands a client may submit at once before its rate applies, used by RATE_LIMIT.
+     * @param threads number of worker threads.
+     */
+    AdmissionController(final int capacity, final Policy policy, final double ratePerSecond, final int burst,
+                        final int threads) {
+        this(capacity, policy, ratePerSecond, burst, threads, System::nanoTime);
+    }
+
+    AdmissionController(final int capacity, final Policy policy, final double ratePerSecond, final int burst,
+                        final int threads, final LongSupplier clock) {
+        if (capacity <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or threads " + threads);
+        }
+        if (policy == Policy.RATE_LIMIT && (ratePerSecond <= 0 || burst <= 0)) {
+            throw new IllegalArgumentException("Invalid rate " + ratePerSecond + " or burst " + burst);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.clock = clock;
+
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread(this::work, "admission-worker");
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a command of the given client.
+     * @param client identifies the submitter, commands of one client run in submission order.
+     * @param priority READ for queries, WRITE for commands that change or scan the whole dictionary.
+     * @param command command to be run.
+     * @return future completed once the command has run.
+     * @throws DictionaryException if the command is rejected by the policy or the controller is closed.
+     */
+    CompletableFuture<Void> submit(final String client, final Priority priority, final Runnable command)
+            throws DictionaryException {
+        final Pending pending = new Pending(priority, command);
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new DictionaryException(ERROR_CLOSED);
+            }
+
+            if (policy == Policy.RATE_LIMIT && !client(client).take(clock.getAsLong())) {
+                rateLimited++;
+                throw new DictionaryException(ERROR_RATE_LIMITED);
+            }
+
+            while (depth >= capacity) {
+                if (policy == Policy.SHED) {
+                    shed++;
+                    throw new DictionaryException(ERROR_QUEUE_FULL);
+                }
+                notFull.awaitUninterruptibly();
+                if (closed) {
+                    throw new DictionaryException(ERROR_CLOSED);
+                }
+            }
+
+            // looked up after waiting, an idle client may have been retired in the meantime
+            final Client owner = client(client);
+            pending.submitted = clock.getAsLong();
+            owner.queue.add(pending);
+            depth++;
+            peakDepth = Math.max(peakDepth, depth);
+            admitted++;
+            if (!owner.running && owner.queue.size() == 1) {
+                schedule(owner);
+            }
+            return pending.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of commands waiting to start.
+     * @return queue depth.
+     */
+    int depth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the queue depth, rejection and wait-time counters, one line each. Wait percentiles are the
+     * upper bounds of power-of-two histogram buckets.
+     * @return lines describing the state of the queue.
+     */
+    List<String> stats() {
+        lock.lock();
+        try {
+            final long started = Arrays.stream(waitHistogram).sum();
+            return Arrays.asList(
+                    "admission policy: " + policy,
+                    "admission queue depth: " + depth,
+                    "admission queue peak depth: " + peakDepth,
+                    "admission queue capacity: " + capacity,
+                    "admission admitted: " + admitted,
+                    "admission completed: " + completed,
+                    "admission shed: " + shed,
+                    "admission rate limited: " + rateLimited,
+                    "admission wait mean (us): " + (started == 0 ? 0 : totalWaitNanos / started / 1000),
+                    "admission wait p50 (us): " + waitPercentile(started, 0.50) / 1000,
+                    "admission wait p99 (us): " + waitPercentile(started, 0.99) / 1000,
+                    "admission wait max (us): " + maxWaitNanos / 1000);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting commands, runs the commands already queued and stops the workers.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            ready.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (final Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Client client;
+            final Pending pending;
+
+            lock.lock();
+            try {
+                while (readReady.isEmpty() && writeReady.isEmpty()) {
+                    if (closed) {
+                        return;
+                    }
+                    ready.awaitUninterruptibly();
+                }
+
+                if (!readReady.isEmpty() && (writeReady.isEmpty() || readStreak < READ_BURST)) {
+                    client = readReady.poll();
+                    readStreak++;
+                } else {
+                    client = writeReady.poll();
+                    readStreak = 0;
+                }
+                pending = client.queue.poll();
+                client.running = true;
+                depth--;
+                notFull.signal();
+                recordWait(clock.getAsLong() - pending.submitted);
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                pending.command.run();
+                pending.future.complete(null);
+            } catch (final RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+
+            lock.lock();
+            try {
+                completed++;
+                client.running = false;
+                if (!client.queue.isEmpty()) {
+                    schedule(client);
+                } else if (policy != Policy.RATE_LIMIT || client.refilled(clock.getAsLong())) {
+                    clients.values().remove(client);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Client client(final String client) {
+        return clients.computeIfAbsent(client, c -> new Client(burst, clock.getAsLong()));
+    }
+
+    /**
+     * Makes a client with queued commands eligible to run, by the priority of its next command.
+     */
+    private void schedule(final Client client) {
+        (client.queue.peek().priority == Priority.READ ? readReady : writeReady).add(client);
+        ready.signal();
+    }
+
+    private void recordWait(final long waitNanos) {
+        final long wait = Math.max(0, waitNanos);
+        totalWaitNanos += wait;
+        maxWaitNanos = Math.max(maxWaitNanos, wait);
+        waitHistogram[63 - Long.numberOfLeadingZeros(Math.max(1, wait))]++;
+    }
+
+    private long waitPercentile(final long started, final double percentile) {
+        final long rank = (long) Math.ceil(started * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < waitHistogram.length; bucket++) {
+            seen += waitHistogram[bucket];
+            if (seen >= rank && seen > 0) {
+                return Math.min(maxWaitNanos, (2L << bucket) - 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A command waiting in the queue of its client.
+     */
+    private static final class Pending {
+
+        private final Priority priority;
+        private final Runnable command;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private long submitted;
+
+        private Pending(final Priority priority, final Runnable command) {
+            this.priority = priority;
+            this.command = command;
+        }
+    }
+
+    /**
+     * The queued commands of one client and its token bucket.
+     */
+    private final class Client {
+
+        private final Queue<Pending> queue = new ArrayDeque<>();
+        private boolean running;
+        private double tokens;
+        private long refilledAt;
+
+        private Client(final double tokens, final long now) {
+            this.tokens = tokens;
+            this.refilledAt = now;
+        }
+
+        /**
+         * Takes a token if one is available, after adding the tokens earned since the last refill.
+         */
+        private boolean take(final long now) {
+            refill(now);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private boolean refilled(final long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(final long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.spreetail;
+
+import static com.spreetail.DictionaryHandler.PREFIX;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the keys or members of a typed dictionary to and from the text of commands and the bytes of
+ * dictionary files. Null is passed through unchanged so that the dictionary can report it.
+ */
+interface Codec<T> {
+
+    String ERROR_INVALID_VALUE = PREFIX + "ERROR, invalid value for type ";
+
+    /**
+     * Plain strings, stored as UTF-8.
+     */
+    Codec<String> STRING = new Codec<String>() {
+        @Override
+        public String name() {
+            return "string";
+        }
+
+        @Override
+        public String parse(final String text) {
+            return text;
+        }
+
+        @Override
+        public byte[] encode(final String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(final byte[] bytes, final int offset, final int length) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Signed 64-bit integers, stored as 8 big-endian bytes.
+     */
+    Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public String name() {
+            return "long";
+        }
+
+        @Override
+        public Long parse(final String text) throws DictionaryException {
+            if (text == null) {
+                return null;
+            }
+            try {
+                return Long.parseLong(text);
+            } catch (final NumberFormatException e) {
+                throw new DictionaryException(ERROR_INVALID_VALUE + name() + ": " + text);
+            }
+        }
+
+        @Override
+        public byte[] encode(final Long value) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+        }
+
+        @Override
+        public Long decode(final byte[] bytes, final int offset, final int length) throws DictionaryException {
+            if (length != Long.BYTES) {
+                throw new DictionaryException(ERROR_INVALID_VALUE + name());
+            }
+            return ByteBuffer.wrap(bytes, offset, length).getLong();
+        }
+    };
+
+    /**
+     * Returns the codec with the given name.
+     * @param name name of a built-in codec, "string" or "long".
+     * @return codec with the name.
+     * @throws IllegalArgumentException if there is no codec with the name.
+     */
+    static Codec<?> forName(final String name) {
+        switch (name) {
+            case "string":
+                return STRING;
+            case "long":
+                return LONG;
+            default:
+                throw new IllegalArgumentException("Unknown type " + name);
+        }
+    }
+
+    /**
+     * Returns the name identifying the type, stored in dictionary files.
+     * @return name of the codec.
+     */
+    String name();
+
+    /**
+     * Parses a value from the text of a command.
+     * @param text text entered by the user, may be null.
+     * @return parsed value, null if the text is null.
+     * @throws DictionaryException if the text is not a valid value.
+     */
+    T parse(String text) throws DictionaryException;
+
+    /**
+     * Formats a value for output.
+     * @param value value to be formatted.
+     * @return text of the value.
+     */
+    default String format(final T value) {
+        return String.valueOf(value);
+    }
+
+    /**
+     * Encodes a value for a dictionary file.
+     * @param value value to be encoded, not null.
+     * @return bytes of the value.
+     */
+    byte[] encode(T value);
+
+    /**
+     * Decodes a value written by encode.
+     * @param bytes buffer holding the value.
+     * @param offset offset of the value in the buffer.
+     * @param length length of the value.
+     * @return decoded value.
+     * @throws DictionaryException if the bytes are not a valid value.
+     */
+    T decode(byte[] bytes, int offset, int length) throws DictionaryException;
+}
@@ -0,0 +1,864 @@
+package com.spreetail;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-structured store on local disk for the cold keys of a MultiValueDictionary, which spills keys it has not
+ * used for a while into it and promotes them back when they are used again.
+ *
+ * Every spill writes an immutable segment file holding the spilled keys sorted by their encoded bytes:
+ * - record: varint key length, key bytes, varlong version, varint member count, then every member as a varint
+ *   length and its bytes. A record without members is a tombstone, hiding the key in older segments.
+ * - the segment keeps in memory the key and offset of every INDEX_INTERVAL-th record, and a Bloom filter of
+ *   its keys. A lookup skips the segments whose filter rules the key out, bisects the sparse index of the
+ *   others and reads the records between two index entries in one positional read.
+ * Segments are searched newest first, so a key spilled again shadows its older records. A promoted key is
+ * remembered in memory until the next spill writes its tombstone.
+ *
+ * Spills create segments of level 0. When FANOUT segments share a level, a background thread merges them
+ * into one segment of the next level, keeping the newest record of each key and dropping tombstones once no
+ * older segment remains, so every record is rewritten about once per level (size-tiered compaction).
+ *
+ * Lookups take no lock and may run on any number of threads; spills and promotions must be serialized by
+ * the dictionary. The store extends the heap rather than persisting the dictionary: segments left by a
+ * previous process are deleted when the store is opened.
+ */
+final class ColdStore<K, V> implements Closeable {
+
+    static final int INDEX_INTERVAL = 16;
+    static final int FANOUT = 4;
+    static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int READ_ATTEMPTS = 3;
+
+    private final Path directory;
+    private final Codec<K> keyCodec;
+    private final Codec<V> memberCodec;
+    private final Set<K> promoted = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextSegment = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile List<Segment> segments = Collections.emptyList();
+
+    private volatile long keys;
+    private volatile long members;
+    private volatile long spilledKeys;
+    private volatile long promotedKeys;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder filterSkips = new LongAdder();
+    private final LongAdder diskReads = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final AtomicLong bytesSpilled = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private long lastStatsNanos = System.nanoTime();
+    private long lastSpilledKeys;
+    private long lastPromotedKeys;
+
+    /**
+     * Opens a store in the given directory, creating it if needed and deleting the segments found in it.
+     * @param directory directory of the segment files.
+     * @param keyCodec codec of the keys.
+     * @param memberCodec codec of the members.
+     * @throws IOException if the directory cannot be created or cleaned.
+     */
+    ColdStore(final Path directory, final Codec<K> keyCodec, final Codec<V> memberCodec) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.keyCodec = keyCodec;
+        this.memberCodec = memberCodec;
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (final Path path : stale) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Writes the given keys to a new segment, together with the tombstones of the keys promoted since the
+     * last spill. The caller drops the keys from memory once this returns.
+     * @param spilled keys to be spilled with their members, none of them already in the store.
+     * @throws IOException if the segment cannot be written, the store is unchanged in that case.
+     */
+    void spill(final Map<K, MemberSet<V>> spilled) throws IOException {
+        final List<Raw> records = new ArrayList<>(spilled.size() + promoted.size());
+        long spilledMembers = 0;
+        for (final Map.Entry<K, MemberSet<V>> entry : spilled.entrySet()) {
+            final byte[][] encoded = new byte[entry.getValue().size()][];
+            int i = 0;
+            for (final V member : entry.getValue()) {
+                encoded[i++] = memberCodec.encode(member);
+            }
+            records.add(new Raw(keyCodec.encode(entry.getKey()), entry.getValue().version, encoded));
+            spilledMembers += encoded.length;
+        }
+        final List<K> tombstones = new ArrayList<>(promoted);
+        for (final K key : tombstones) {
+            if (!spilled.containsKey(key)) {
+                records.add(new Raw(keyCodec.encode(key), 0, new byte[0][]));
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        records.sort((a, b) -> compare(a.key, b.key));
+
+        final Segment segment;
+        try {
+            segment = write(records.iterator(), records.size(), 0);
+        } catch (final IOException e) {
+            errors.incrementAndGet();
+            throw e;
+        }
+        synchronized (this) {
+            final List<Segment> updated = new ArrayList<>(segments.size() + 1);
+            updated.add(segment);
+            updated.addAll(segments);
+            segments = Collections.unmodifiableList(updated);
+        }
+        promoted.removeAll(tombstones);
+        keys += spilled.size();
+        members += spilledMembers;
+        spilledKeys += spilled.size();
+        bytesSpilled.addAndGet(segment.size);
+        bytesWritten.addAndGet(segment.size);
+        compactInBackground();
+    }
+
+    /**
+     * Removes a key from the store for promotion, returning its members.
+     * @param key key to be promoted.
+     * @return the record of the key, or null if the key is not in the store.
+     * @throws IOException if the segments cannot be read.
+     */
+    Record<V> promote(final K key) throws IOException {
+        final Record<V> record = get(key);
+        if (record != null) {
+            promoted.add(key);
+            keys--;
+            members -= record.members.size();
+            promotedKeys++;
+        }
+        return record;
+    }
+
+    /**
+     * Returns the members of a key without promoting it.
+     * @param key key to be looked up.
+     * @return the record of the key, or null if the key is not in the store.
+     * @throws IOException if the segments cannot be read.
+     */
+    Record<V> get(final K key) throws IOException {
+        lookups.increment();
+        if (promoted.contains(key) || keys == 0) {
+            return null;
+        }
+
+        final byte[] encoded = keyCodec.encode(key);
+        final long hash = MembershipFilter.mix(Arrays.hashCode(encoded));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                for (final Segment segment : segments) {
+                    final Raw raw = segment.find(encoded, hash);
+                    if (raw != null) {
+                        return raw.isTombstone() ? null : decode(raw);
+                    }
+                }
+                return null;
+            } catch (final ClosedChannelException e) {
+                // the segment was merged away by a compaction meanwhile, search the new segments
+                if (attempt == READ_ATTEMPTS) {
+                    errors.incrementAndGet();
+                    throw e;
+                }
+            } catch (final IOException e) {
+                errors.incrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Calls the visitor with every key of the store and its members, in the order of their encoded bytes.
+     * @param visitor visitor of the keys.
+     * @throws IOException if the segments cannot be read.
+     */
+    void forEach(final Visitor<K, V> visitor) throws IOException {
+        scan(visitor, true);
+    }
+
+    /**
+     * Calls the visitor with every key of the store, without decoding its members.
+     * @param visitor visitor of the keys, given null members.
+     * @throws IOException if the segments cannot be read.
+     */
+    void forEachKey(final Visitor<K, V> visitor) throws IOException {
+        scan(visitor, false);
+    }
+
+    /**
+     * Deletes every segment, forgetting all keys.
+     */
+    synchronized void clear() {
+        retire(segments);
+        segments = Collections.emptyList();
+        promoted.clear();
+        keys = 0;
+        members = 0;
+    }
+
+    /**
+     * Deletes every segment. The store is empty but still usable afterwards.
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    long keyCount() {
+        return keys;
+    }
+
+    long memberCount() {
+        return members;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the counters of the store, one line each. Rates are averaged since the previous call.
+     * @param hotKeys number of keys in memory.
+     * @return lines describing the store.
+     */
+    synchronized List<String> stats(final int hotKeys) {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(1e-9, (now - lastStatsNanos) / 1e9);
+        final long spilled = spilledKeys;
+        final long promotions = promotedKeys;
+        final long lookupCount = lookups.sum();
+        final long spilledBytes = bytesSpilled.get();
+        long size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size;
+        }
+
+        final List<String> lines = Arrays.asList(
+                "tier hot keys: " + hotKeys,
+                "tier cold keys: " + keys + ", members: " + members,
+                "tier segments: " + segments.size() + ", bytes: " + size,
+                String.format(Locale.ROOT, "tier spilled keys: %d, %.1f/s", spilled,
+                        (spilled - lastSpilledKeys) / seconds),
+                String.format(Locale.ROOT, "tier promoted keys: %d, %.1f/s", promotions,
+                        (promotions - lastPromotedKeys) / seconds),
+                String.format(Locale.ROOT, "tier lookups: %d, filter skips: %d, disk reads per lookup: %.3f,"
+                                + " bytes read per lookup: %.1f", lookupCount, filterSkips.sum(),
+                        lookupCount == 0 ? 0 : (double) diskReads.sum() / lookupCount,
+                        lookupCount == 0 ? 0 : (double) bytesRead.sum() / lookupCount),
+                String.format(Locale.ROOT, "tier bytes written: %d, bytes per spilled key: %.1f,"
+                                + " write amplification: %.2f", bytesWritten.get(),
+                        spilled == 0 ? 0 : (double) spilledBytes / spilled,
+                        spilledBytes == 0 ? 0 : (double) bytesWritten.get() / spilledBytes),
+                "tier compactions: " + compactions.get() + ", errors: " + errors.get());
+        lastStatsNanos = now;
+        lastSpilledKeys = spilled;
+        lastPromotedKeys = promotions;
+        return lines;
+    }
+
+    /**
+     * Merges segments sharing a level, if any do, on a background thread.
+     */
+    private void compactInBackground() {
+        if (compactionRun(segments) == null || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        final Thread compactor = new Thread(() -> {
+            try {
+                while (compact()) {
+                    // merge the next level filled by this merge
+                }
+            } catch (final IOException e) {
+                errors.incrementAndGet();
+            } finally {
+                compacting.set(false);
+            }
+        }, "cold-store-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Merges the segments of the lowest level holding at least FANOUT segments.
+     * @return boolean representing if a merge was done.
+     * @throws IOException if the segments cannot be read or the merged one written, the store is unchanged.
+     */
+    boolean compact() throws IOException {
+        final List<Segment> snapshot = segments;
+        final List<Segment> run = compactionRun(snapshot);
+        if (run == null) {
+            return false;
+        }
+
+        // tombstones only hide records of older segments, which a merge reaching the oldest one leaves none of
+        final boolean oldest = run.get(run.size() - 1) == snapshot.get(snapshot.size() - 1);
+        long records = 0;
+        for (final Segment segment : run) {
+            records += segment.records;
+        }
+
+        final Segment merged;
+        try (MergeIterator merge = new MergeIterator(paths(run))) {
+            final Iterator<Raw> live = new Iterator<Raw>() {
+                private Raw next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Raw next() {
+                    final Raw current = next;
+                    next = advance();
+                    return current;
+                }
+
+                private Raw advance() {
+                    try {
+                        Raw raw;
+                        while ((raw = merge.next()) != null && oldest && raw.isTombstone()) {
+                            // dropped
+                        }
+                        return raw;
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            merged = write(live, (int) Math.min(Integer.MAX_VALUE, records), run.get(0).level + 1);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        synchronized (this) {
+            final List<Segment> current = segments;
+            if (!current.containsAll(run)) {
+                // cleared meanwhile
+                retire(Collections.singletonList(merged));
+                return false;
+            }
+            final List<Segment> updated = new ArrayList<>(current.size() - run.size() + 1);
+            for (final Segment segment : current) {
+                if (segment == run.get(0)) {
+                    updated.add(merged);
+                } else if (!run.contains(segment)) {
+                    updated.add(segment);
+                }
+            }
+            segments = Collections.unmodifiableList(updated);
+            retire(run);
+        }
+        compactions.incrementAndGet();
+        bytesWritten.addAndGet(merged.size);
+        return true;
+    }
+
+    /**
+     * Returns the segments of the lowest level holding at least FANOUT of them. Levels never increase from
+     * older to newer segments, so they are contiguous.
+     */
+    private List<Segment> compactionRun(final List<Segment> segments) {
+        int from = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            if (i == segments.size() || segments.get(i).level != segments.get(from).level) {
+                if (i - from >= FANOUT) {
+                    return segments.subList(from, i);
+                }
+                from = i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes sorted records to a new segment file of the given level.
+     */
+    private Segment write(final Iterator<Raw> records, final int expectedRecords, final int level)
+            throws IOException {
+        final Path path = directory.resolve(String.format(Locale.ROOT, "%016d%s",
+                nextSegment.getAndIncrement(), SEGMENT_SUFFIX));
+        final BloomFilter filter = new BloomFilter(Math.max(1, expectedRecords));
+        final List<byte[]> indexKeys = new ArrayList<>();
+        final List<Long> indexOffsets = new ArrayList<>();
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        long offset = 0;
+        int count = 0;
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE)) {
+            while (records.hasNext()) {
+                final Raw raw = records.next();
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(raw.key);
+                    indexOffsets.add(offset);
+                }
+                filter.add(MembershipFilter.mix(Arrays.hashCode(raw.key)));
+                record.reset();
+                raw.writeTo(record);
+                record.writeTo(out);
+                offset += record.size();
+                count++;
+            }
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        final long[] offsets = new long[indexOffsets.size() + 1];
+        for (int i = 0; i < indexOffsets.size(); i++) {
+            offsets[i] = indexOffsets.get(i);
+        }
+        offsets[indexOffsets.size()] = offset;
+        return new Segment(path, level, indexKeys.toArray(new byte[0][]), offsets, filter, count, offset);
+    }
+
+    private List<Path> paths(final List<Segment> segments) {
+        final List<Path> paths = new ArrayList<>(segments.size());
+        for (final Segment segment : segments) {
+            paths.add(segment.path);
+        }
+        return paths;
+    }
+
+    private void scan(final Visitor<K, V> visitor, final boolean withMembers) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            final MergeIterator merge;
+            try {
+                merge = new MergeIterator(paths(segments));
+            } catch (final NoSuchFileException e) {
+                // a segment was merged away by a compaction meanwhile, scan the new segments
+                if (attempt == READ_ATTEMPTS) {
+                    throw e;
+                }
+                continue;
+            }
+
+            try {
+                Raw raw;
+                while ((raw = merge.next()) != null) {
+                    if (raw.isTombstone()) {
+                        continue;
+                    }
+                    final K key = decode(keyCodec, raw.key);
+                    if (!promoted.contains(key)) {
+                        visitor.visit(key, withMembers ? decode(raw).members : null);
+                    }
+                }
+                return;
+            } finally {
+                merge.close();
+            }
+        }
+    }
+
+    private Record<V> decode(final Raw raw) throws IOException {
+        final List<V> decoded = new ArrayList<>(raw.members.length);
+        for (final byte[] member : raw.members) {
+            decoded.add(decode(memberCodec, member));
+        }
+        return new Record<>(Collections.unmodifiableList(decoded), raw.version);
+    }
+
+    private static <T> T decode(final Codec<T> codec, final byte[] bytes) throws IOException {
+        try {
+            return codec.decode(bytes, 0, bytes.length);
+        } catch (final DictionaryException de) {
+            throw new IOException("corrupt segment", de);
+        }
+    }
+
+    /**
+     * Closes and deletes segments no longer in the list. Lookups still reading them fail with a
+     * ClosedChannelException and search the new list.
+     */
+    private void retire(final List<Segment> retired) {
+        for (final Segment segment : retired) {
+            segment.retire();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (final IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Compares encoded keys as unsigned bytes, the order of the records in a segment.
+     */
+    static int compare(final byte[] a, final byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            final int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * The members of a cold key, in insertion order, and the version it had when spilled.
+     */
+    static final class Record<V> {
+
+        private final List<V> members;
+        private final long version;
+
+        Record(final List<V> members, final long version) {
+            this.members = members;
+            this.version = version;
+        }
+
+        List<V> members() {
+            return members;
+        }
+
+        long version() {
+            return version;
+        }
+    }
+
+    /**
+     * Receives the keys of a scan.
+     */
+    interface Visitor<K, V> {
+        void visit(K key, List<V> members);
+    }
+
+    /**
+     * One immutable segment file with its sparse index and Bloom filter.
+     */
+    private final class Segment {
+
+        private final Path path;
+        private final int level;
+        private final byte[][] indexKeys;
+        private final long[] indexOffsets;
+        private final BloomFilter filter;
+        private final int records;
+        private final long size;
+        private volatile FileChannel channel;
+        private volatile boolean retired;
+
+        private Segment(final Path path, final int level, final byte[][] indexKeys, final long[] indexOffsets,
+                        final BloomFilter filter, final int records, final long size) throws IOException {
+            this.path = path;
+            this.level = level;
+            this.indexKeys = indexKeys;
+            this.indexOffsets = indexOffsets;
+            this.filter = filter;
+            this.records = records;
+            this.size = size;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        /**
+         * Returns the record of the key in this segment, a tombstone if the key was promoted, or null if the
+         * segment has no record of the key.
+         */
+        private Raw find(final byte[] key, final long hash) throws IOException {
+            if (!filter.mightContain(hash)) {
+                filterSkips.increment();
+                return null;
+            }
+
+            int low = 0;
+            int high = indexKeys.length - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (compare(indexKeys[middle], key) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (high < 0) {
+                return null;
+            }
+
+            final byte[] block = new byte[(int) (indexOffsets[high + 1] - indexOffsets[high])];
+            read(ByteBuffer.wrap(block), indexOffsets[high]);
+            diskReads.increment();
+            bytesRead.add(block.length);
+
+            final InputStream in = new ByteArrayInputStream(block);
+            Raw raw;
+            while ((raw = Raw.readFrom(in)) != null) {
+                final int order = compare(raw.key, key);
+                if (order == 0) {
+                    return raw;
+                }
+                if (order > 0) {
+                    break;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads the buffer fully from the given position. The channel is reopened if an interrupted reader
+         * closed it, since FileChannel closes on interrupt.
+         */
+        private void read(final ByteBuffer buffer, final long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                try {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("truncated segment " + path);
+                    }
+                } catch (final ClosedChannelException e) {
+                    if (retired) {
+                        throw e;
+                    }
+                    reopen();
+                }
+            }
+        }
+
+        private synchronized void reopen() throws IOException {
+            if (!channel.isOpen() && !retired) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+        }
+
+        private synchronized void retire() {
+            retired = true;
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reads several segments in key order at once, returning the newest record of every key.
+     */
+    private static final class MergeIterator implements Closeable {
+
+        private final List<InputStream> inputs = new ArrayList<>();
+        private final PriorityQueue<Cursor> cursors = new PriorityQueue<>((a, b) -> {
+            final int order = compare(a.current.key, b.current.key);
+            return order != 0 ? order : Integer.compare(a.age, b.age);
+        });
+
+        /**
+         * @param segments files of the segments to be merged, newest first.
+         */
+        private MergeIterator(final List<Path> segments) throws IOException {
+            try {
+                for (int age = 0; age < segments.size(); age++) {
+                    final InputStream in = new BufferedInputStream(Files.newInputStream(segments.get(age)),
+                            BUFFER_SIZE);
+                    inputs.add(in);
+                    final Cursor cursor = new Cursor(in, age);
+                    if (cursor.advance()) {
+                        cursors.add(cursor);
+                    }
+                }
+            } catch (final IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the newest record of the next key, or null once every segment is read.
+         */
+        private Raw next() throws IOException {
+            final Cursor newest = cursors.poll();
+            if (newest == null) {
+                return null;
+            }
+            final Raw raw = newest.current;
+            while (!cursors.isEmpty() && compare(cursors.peek().current.key, raw.key) == 0) {
+                final Cursor shadowed = cursors.poll();
+                if (shadowed.advance()) {
+                    cursors.add(shadowed);
+                }
+            }
+            if (newest.advance()) {
+                cursors.add(newest);
+            }
+            return raw;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (final InputStream in : inputs) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private static final class Cursor {
+
+            private final InputStream in;
+            private final int age;
+            private Raw current;
+
+            private Cursor(final InputStream in, final int age) {
+                this.in = in;
+                this.age = age;
+            }
+
+            private boolean advance() throws IOException {
+                current = Raw.readFrom(in);
+                return current != null;
+            }
+        }
+    }
+
+    /**
+     * A record as stored, with its key and members still encoded.
+     */
+    private static final class Raw {
+
+        private final byte[] key;
+        private final long version;
+        private final byte[][] members;
+
+        private Raw(final byte[] key, final long version, final byte[][] members) {
+            this.key = key;
+            this.version = version;
+            this.members = members;
+        }
+
+        private boolean isTombstone() {
+            return members.length == 0;
+        }
+
+        private void writeTo(final OutputStream out) throws IOException {
+            writeVarint(out, key.length);
+            out.write(key);
+            writeVarint(out, version);
+            writeVarint(out, members.length);
+            for (final byte[] member : members) {
+                writeVarint(out, member.length);
+                out.write(member);
+            }
+        }
+
+        /**
+         * Reads the next record, or returns null at the end of the stream.
+         */
+        private static Raw readFrom(final InputStream in) throws IOException {
+            final int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            final byte[] key = readBytes(in, (int) readVarint(in, first));
+            final long version = readVarint(in, in.read());
+            final byte[][] members = new byte[(int) readVarint(in, in.read())][];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = readBytes(in, (int) readVarint(in, in.read()));
+            }
+            return new Raw(key, version, members);
+        }
+
+        private static void writeVarint(final OutputStream out, long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        private static long readVarint(final InputStream in, int b) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (b < 0) {
+                    throw new EOFException("truncated segment");
+                }
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                b = in.read();
+            }
+            throw new IOException("corrupt segment");
+        }
+
+        private static byte[] readBytes(final InputStream in, final int length) throws IOException {
+            if (length < 0) {
+                throw new IOException("corrupt segment");
+            }
+            final byte[] bytes = new byte[length];
+            for (int read = 0; read < length; ) {
+                final int chunk = in.read(bytes, read, length - read);
+                if (chunk < 0) {
+                    throw new EOFException("truncated segment");
+                }
+                read += chunk;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Bloom filter of the keys of a segment, one bit per position, probed with double hashing.
+     */
+    private static final class BloomFilter {
+
+        private final long[] bits;
+        private final long size;
+        private final int hashes;
+
+        private BloomFilter(final int expectedKeys) {
+            final double optimal = -expectedKeys * Math.log(BLOOM_FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+            size = Math.max(64, (long) Math.ceil(optimal));
+            bits = new long[(int) ((size + 63) >>> 6)];
+            hashes = Math.max(1, (int) Math.round(optimal / expectedKeys * Math.log(2)));
+        }
+
+        private void add(final long hash) {
+            for (int i = 0; i < hashes; i++) {
+                final long index = index(hash, i);
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+        }
+
+        private boolean mightContain(final long hash) {
+            for (int i = 0; i < hashes; i++) {
+                final long index = index(hash, i);
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long index(final long hash, final int i) {
+            final int combined = (int) hash + i * (int) (hash >>> 32);
+            return (combined & Integer.MAX_VALUE) % size;
+        }
+    }
+}
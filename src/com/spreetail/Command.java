@@ -12,8 +12,32 @@ public enum Command {
     CLEAR,
     KEYEXISTS,
     MEMBEREXISTS,
+    MEMBERSEXIST,
     ALLMEMBERS,
     ITEMS,
+    COUNT,
+    CARD,
+    DISTINCTMEMBERS,
+    INCRBY,
+    TOP,
+    RANGEBYSCORE,
+    VERSION,
+    REPLACE,
+    ADDIFABSENTKEY,
+    EXPORT,
+    IMPORT,
+    MULTI,
+    EXEC,
+    DISCARD,
+    WATCH,
+    SEARCH,
+    INDEX,
+    FREEZE,
+    THAW,
+    HOTKEYS,
+    STATS,
+    SUBSCRIBE,
+    UNSUBSCRIBE,
     HELP,
     EXIT
 }
@@ -0,0 +1,210 @@
+package com.spreetail;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Runs commands concurrently while keeping the order of commands on the same key.
+ * Every key with pending commands owns a mailbox that is drained by one task at a time, so commands
+ * on one key run in the order they were dispatched and commands on different keys run in parallel.
+ * Commands without a key (KEYS, CLEAR, ITEMS...) act as a barrier: they wait until every mailbox
+ * is drained and then run on the dispatching thread, while every other dispatch, keyed or not, waits for
+ * them to finish. A barrier stops new keyed commands as soon as it is dispatched, so a stream of keyed
+ * commands cannot starve it.
+ * Mailbox drains run on virtual threads when the JVM supports them, otherwise on a platform thread pool.
+ */
+class CommandDispatcher implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Object quiescence = new Object();
+    private long inFlight;
+    private boolean barrier;
+
+    CommandDispatcher(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a dispatcher running on virtual threads when available, otherwise on one platform thread per core.
+     * @return new dispatcher.
+     */
+    static CommandDispatcher create() {
+        return new CommandDispatcher(newVirtualThreadExecutor());
+    }
+
+    /**
+     * Creates a dispatcher running on a fixed pool of platform threads.
+     * @param threads number of platform threads.
+     * @return new dispatcher.
+     */
+    static CommandDispatcher platform(final int threads) {
+        return new CommandDispatcher(newPlatformExecutor(threads));
+    }
+
+    /**
+     * Dispatches a command on the given key.
+     * @param key key the command operates on, or null for commands that operate on the whole dictionary.
+     * @param command command to be run.
+     * @return future completed once the command has run, exceptionally with anything the command threw,
+     * errors included, so that neither its caller nor the mailbox of the key is left waiting.
+     */
+    CompletableFuture<Void> dispatch(final String key, final Runnable command) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final Runnable task = () -> {
+            try {
+                command.run();
+                future.complete(null);
+            } catch (final Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+
+        if (key == null) {
+            synchronized (quiescence) {
+                boolean interrupted = false;
+                while (barrier) {
+                    interrupted |= awaitChange();
+                }
+                barrier = true;
+                while (inFlight > 0) {
+                    interrupted |= awaitChange();
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                task.run();
+            } finally {
+                synchronized (quiescence) {
+                    barrier = false;
+                    quiescence.notifyAll();
+                }
+            }
+            return future;
+        }
+
+        synchronized (quiescence) {
+            boolean interrupted = false;
+            while (barrier) {
+                interrupted |= awaitChange();
+            }
+            inFlight++;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final boolean[] created = new boolean[1];
+        final Mailbox mailbox = mailboxes.compute(key, (k, existing) -> {
+            final Mailbox target = existing != null ? existing : new Mailbox(k);
+            created[0] = existing == null;
+            target.commands.add(task);
+            return target;
+        });
+
+        if (created[0]) {
+            executor.execute(mailbox::drain);
+        }
+        return future;
+    }
+
+    /**
+     * Blocks until every dispatched keyed command has run.
+     */
+    void awaitQuiescence() {
+        synchronized (quiescence) {
+            while (inFlight > 0) {
+                try {
+                    quiescence.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the dispatcher state to change, must be called while holding the quiescence monitor. The
+     * wait is not cut short by an interrupt, which would let a command past the barrier.
+     * @return boolean representing if the thread was interrupted while waiting.
+     */
+    private boolean awaitChange() {
+        try {
+            quiescence.wait();
+            return false;
+        } catch (final InterruptedException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        awaitQuiescence();
+        executor.shutdown();
+    }
+
+    private void completed() {
+        synchronized (quiescence) {
+            if (--inFlight == 0) {
+                quiescence.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor reflectively, the jar still targets Java 8.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return newPlatformExecutor(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor(final int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "dictionary-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The pending commands of one key. The mailbox removes itself from the map once it is empty,
+     * inside compute so that a command dispatched concurrently either lands in this mailbox before it
+     * retires or in a new mailbox after it has.
+     */
+    private final class Mailbox {
+
+        private final String key;
+        private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+
+        private Mailbox(final String key) {
+            this.key = key;
+        }
+
+        private void drain() {
+            while (true) {
+                final Runnable command = commands.poll();
+                if (command == null) {
+                    if (mailboxes.compute(key, (k, m) -> m.commands.isEmpty() ? null : m) == null) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    command.run();
+                } finally {
+                    completed();
+                }
+            }
+        }
+    }
+}
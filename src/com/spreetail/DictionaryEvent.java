@@ -0,0 +1,33 @@
+package com.spreetail;
+
+/**
+ * A single mutation applied to the MultiValueDictionary, as published on its mutation stream.
+ * The type is one of ADD, REMOVE, REMOVEALL, CLEAR or INCRBY; key is null for CLEAR and member is
+ * only set for ADD, REMOVE and INCRBY.
+ */
+final class DictionaryEvent<K, V> {
+
+    final long sequence;
+    final Command type;
+    final K key;
+    final V member;
+
+    DictionaryEvent(final long sequence, final Command type, final K key, final V member) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.member = member;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(type.name());
+        if (key != null) {
+            builder.append(' ').append(key);
+        }
+        if (member != null) {
+            builder.append(": ").append(member);
+        }
+        return builder.toString();
+    }
+}
@@ -5,6 +5,8 @@ package com.spreetail;
  */
 class DictionaryException extends Exception {
 
+    private static final long serialVersionUID = 1L;
+
      DictionaryException(final String message) {
         super(message);
     }
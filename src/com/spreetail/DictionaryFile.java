@@ -0,0 +1,509 @@
+package com.spreetail;
+
+import static com.spreetail.DictionaryHandler.PREFIX;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary dump and restore of a MultiValueDictionary, used by EXPORT and IMPORT.
+ *
+ * The file is a header followed by independent blocks of about BLOCK_SIZE bytes, ended by an empty block:
+ * - header: magic "MVD1", flags byte (bit 0 set when blocks are deflated), then the key and member codec names
+ *   as length-prefixed ASCII. A file is only imported into a dictionary of the same types.
+ * - block: int raw length, int stored length, stored bytes (deflated when the flag is set).
+ * A block stores its keys column-wise, all lengths and counts as unsigned varints:
+ * - key count, then every key as length-prefixed bytes of the key codec.
+ * - the member count of every key.
+ * - the block's member dictionary: distinct member count, then every distinct member as length-prefixed bytes
+ *   of the member codec.
+ * - every member of every key as its index in the member dictionary.
+ * Members repeat across keys far more than keys do, so only the members are dictionary-encoded. The members of a
+ * key too large for one block are split across consecutive blocks, each repeating the key.
+ * Blocks are staged in a direct buffer and written to a FileChannel in large writes. EXPORT writes a temporary
+ * file next to the target and moves it over the target once complete, so a failed export leaves the previous
+ * file in place. IMPORT checks every length against the rest of the file and MAX_BLOCK_LENGTH before
+ * allocating for it, and EXPORT never writes a block IMPORT would reject.
+ */
+final class DictionaryFile {
+
+    static final String ERROR_CORRUPT_FILE = PREFIX + "ERROR, corrupt dictionary file.";
+
+    static final int BLOCK_SIZE = 1 << 20;
+    static final int BUFFER_SIZE = 4 << 20;
+    /**
+     * Largest block accepted by IMPORT. Blocks close at BLOCK_SIZE, so only a block holding a single huge key or
+     * member comes near it, and EXPORT fails rather than write a larger one.
+     */
+    static final int MAX_BLOCK_LENGTH = 1 << 30;
+
+    private static final byte[] MAGIC = {'M', 'V', 'D', '1'};
+    private static final int FLAG_DEFLATE = 1;
+    private static final int BLOCK_HEADER = 8;
+    /**
+     * Deflate expands data by at most about 1032 times, so a longer raw length is corrupt.
+     */
+    private static final int MAX_INFLATE_RATIO = 1032;
+
+    private DictionaryFile() {
+    }
+
+    /**
+     * Writes a consistent snapshot of the dictionary to the given file, replacing it atomically.
+     * @param dictionary dictionary to be exported.
+     * @param keyCodec codec of the keys.
+     * @param memberCodec codec of the members.
+     * @param path file to be written.
+     * @param deflate boolean representing if blocks are compressed.
+     * @return number of key-member pairs written.
+     * @throws IOException if the file cannot be written or a key or member is longer than MAX_BLOCK_LENGTH,
+     * the file is unchanged in that case.
+     */
+    static <K, V> long export(final MultiValueDictionary<K, V> dictionary, final Codec<K> keyCodec,
+                              final Codec<V> memberCodec, final Path path, final boolean deflate) throws IOException {
+        final Object event = FlightRecorderEvents.beginPersistence();
+        final Map<K, List<V>> items = dictionary.items();
+        final Path directory = path.toAbsolutePath().getParent();
+        final Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        final long members;
+        final long size;
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                members = write(channel, items, keyCodec, memberCodec, deflate);
+                size = channel.size();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        FlightRecorderEvents.endPersistence(event, Command.EXPORT, path.toString(), members, size);
+        return members;
+    }
+
+    /**
+     * Writes the header and the blocks of the given items to the channel.
+     * @return number of key-member pairs written.
+     */
+    private static <K, V> long write(final FileChannel channel, final Map<K, List<V>> items, final Codec<K> keyCodec,
+                                     final Codec<V> memberCodec, final boolean deflate) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.put(MAGIC).put((byte) (deflate ? FLAG_DEFLATE : 0));
+        putName(buffer, keyCodec.name());
+        putName(buffer, memberCodec.name());
+
+        final BlockWriter<K, V> block = new BlockWriter<>(keyCodec, memberCodec);
+        final Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+        long members = 0;
+
+        try {
+            for (final Map.Entry<K, List<V>> entry : items.entrySet()) {
+                final List<V> keyMembers = entry.getValue();
+                int next = 0;
+                do {
+                    next = block.add(entry.getKey(), keyMembers, next);
+                    if (block.estimatedSize() >= BLOCK_SIZE) {
+                        writeBlock(channel, buffer, block.encode(), deflater);
+                        block.reset();
+                    }
+                } while (next < keyMembers.size());
+                members += keyMembers.size();
+            }
+            if (!block.isEmpty()) {
+                writeBlock(channel, buffer, block.encode(), deflater);
+            }
+            writeBlock(channel, buffer, new Bytes(), null);
+            flush(channel, buffer);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Adds every key-member pair of the given file to the dictionary. Pairs that already exist are skipped.
+     * The whole file is read and decoded before anything is added, and the pairs are then added atomically,
+     * so a truncated or corrupt file leaves the dictionary unchanged.
+     * @param dictionary dictionary the pairs are added to.
+     * @param keyCodec codec of the keys, must match the file.
+     * @param memberCodec codec of the members, must match the file.
+     * @param path file to be read.
+     * @return number of key-member pairs added.
+     * @throws IOException if the file cannot be read, is not a dictionary file or holds other types.
+     * @throws DictionaryException if the file is corrupt or a pair cannot be added.
+     */
+    static <K, V> long importInto(final MultiValueDictionary<K, V> dictionary, final Codec<K> keyCodec,
+                                  final Codec<V> memberCodec, final Path path) throws IOException, DictionaryException {
+        final Object event = FlightRecorderEvents.beginPersistence();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+
+            final byte[] magic = new byte[MAGIC.length];
+            fill(channel, buffer, MAGIC.length + 1);
+            buffer.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("not a dictionary file");
+            }
+            final boolean deflated = (buffer.get() & FLAG_DEFLATE) != 0;
+            final String types = getName(channel, buffer) + ":" + getName(channel, buffer);
+            if (!types.equals(keyCodec.name() + ":" + memberCodec.name())) {
+                throw new IOException("dictionary file holds " + types);
+            }
+            final Inflater inflater = deflated ? new Inflater() : null;
+
+            final List<K> keys = new ArrayList<>();
+            final List<List<V>> members = new ArrayList<>();
+            try {
+                while (true) {
+                    fill(channel, buffer, BLOCK_HEADER);
+                    final int rawLength = buffer.getInt();
+                    final int storedLength = buffer.getInt();
+                    if (rawLength == 0) {
+                        break;
+                    }
+
+                    final long remaining = channel.size() - channel.position() + buffer.remaining();
+                    if (rawLength < 0 || rawLength > MAX_BLOCK_LENGTH || storedLength <= 0
+                            || storedLength > remaining
+                            || (inflater == null ? rawLength != storedLength
+                                                 : rawLength > (long) storedLength * MAX_INFLATE_RATIO)) {
+                        throw new DictionaryException(ERROR_CORRUPT_FILE);
+                    }
+
+                    final byte[] stored = new byte[storedLength];
+                    for (int read = 0; read < storedLength; ) {
+                        fill(channel, buffer, 1);
+                        final int chunk = Math.min(buffer.remaining(), storedLength - read);
+                        buffer.get(stored, read, chunk);
+                        read += chunk;
+                    }
+
+                    final byte[] raw = inflater == null ? stored : inflate(inflater, stored, rawLength);
+                    readBlock(keyCodec, memberCodec, new BlockReader(raw), keys, members);
+                }
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+
+            final long added = dictionary.atomically(() -> {
+                long count = 0;
+                for (int i = 0; i < keys.size(); i++) {
+                    for (final V member : members.get(i)) {
+                        if (!dictionary.containsMember(keys.get(i), member)) {
+                            dictionary.add(keys.get(i), member);
+                            count++;
+                        }
+                    }
+                }
+                return count;
+            });
+            FlightRecorderEvents.endPersistence(event, Command.IMPORT, path.toString(), added, channel.size());
+            return added;
+        }
+    }
+
+    /**
+     * Decodes the keys of a block and their members, appending them to the given lists.
+     */
+    private static <K, V> void readBlock(final Codec<K> keyCodec, final Codec<V> memberCodec, final BlockReader block,
+                                         final List<K> keys, final List<List<V>> keyMembers)
+            throws DictionaryException {
+        final int keyCount = block.readCount();
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(block.read(keyCodec));
+        }
+        final int[] counts = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            counts[i] = block.readCount();
+        }
+        final int memberCount = block.readCount();
+        final List<V> members = new ArrayList<>(memberCount);
+        for (int i = 0; i < memberCount; i++) {
+            members.add(block.read(memberCodec));
+        }
+
+        for (int i = 0; i < keyCount; i++) {
+            final List<V> list = new ArrayList<>(counts[i]);
+            for (int j = 0; j < counts[i]; j++) {
+                final int index = block.readVarint();
+                if (index < 0 || index >= memberCount) {
+                    throw new DictionaryException(ERROR_CORRUPT_FILE);
+                }
+                list.add(members.get(index));
+            }
+            keyMembers.add(list);
+        }
+    }
+
+    private static void putName(final ByteBuffer buffer, final String name) {
+        final byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        buffer.put((byte) bytes.length).put(bytes);
+    }
+
+    private static String getName(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        fill(channel, buffer, 1);
+        final int length = buffer.get() & 0xff;
+        fill(channel, buffer, length);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static void writeBlock(final FileChannel channel, final ByteBuffer buffer, final Bytes raw,
+                                   final Deflater deflater) throws IOException {
+        if (raw.length > MAX_BLOCK_LENGTH) {
+            throw new IOException("dictionary block of " + raw.length + " bytes is too long to be imported");
+        }
+        final Bytes stored = deflater == null || raw.length == 0 ? raw : deflate(deflater, raw);
+
+        if (buffer.remaining() < BLOCK_HEADER) {
+            flush(channel, buffer);
+        }
+        buffer.putInt(raw.length).putInt(stored.length);
+
+        for (int written = 0; written < stored.length; ) {
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer);
+            }
+            final int chunk = Math.min(buffer.remaining(), stored.length - written);
+            buffer.put(stored.bytes, written, chunk);
+            written += chunk;
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Makes at least the given number of bytes readable in the buffer, refilling it from the channel.
+     */
+    private static void fill(final FileChannel channel, final ByteBuffer buffer, final int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("truncated dictionary file");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static Bytes deflate(final Deflater deflater, final Bytes raw) {
+        deflater.reset();
+        deflater.setInput(raw.bytes, 0, raw.length);
+        deflater.finish();
+
+        final Bytes stored = new Bytes();
+        while (!deflater.finished()) {
+            stored.ensure(raw.length / 2 + 64);
+            stored.length += deflater.deflate(stored.bytes, stored.length, stored.bytes.length - stored.length);
+        }
+        return stored;
+    }
+
+    private static byte[] inflate(final Inflater inflater, final byte[] stored, final int rawLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored);
+        final byte[] raw = new byte[rawLength];
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                final int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("corrupt dictionary block");
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException("corrupt dictionary block", e);
+        }
+        return raw;
+    }
+
+    /**
+     * Collects the keys of one block and encodes them column-wise.
+     */
+    private static final class BlockWriter<K, V> {
+
+        private final Codec<K> keyCodec;
+        private final Codec<V> memberCodec;
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<List<V>> members = new ArrayList<>();
+        private final Map<V, Integer> dictionary = new LinkedHashMap<>();
+        private final List<byte[]> encodedMembers = new ArrayList<>();
+        private long estimatedSize;
+
+        BlockWriter(final Codec<K> keyCodec, final Codec<V> memberCodec) {
+            this.keyCodec = keyCodec;
+            this.memberCodec = memberCodec;
+        }
+
+        /**
+         * Adds a key with its members from the given index on, stopping once the block reaches BLOCK_SIZE.
+         * At least one member is added.
+         * @return index of the first member not added, the member count if all were.
+         */
+        int add(final K key, final List<V> keyMembers, final int from) {
+            final byte[] encodedKey = keyCodec.encode(key);
+            keys.add(encodedKey);
+            estimatedSize += encodedKey.length + 2;
+            int next = from;
+            do {
+                final V member = keyMembers.get(next++);
+                if (dictionary.putIfAbsent(member, dictionary.size()) == null) {
+                    final byte[] encodedMember = memberCodec.encode(member);
+                    encodedMembers.add(encodedMember);
+                    estimatedSize += encodedMember.length + 2;
+                }
+                estimatedSize += 2;
+            } while (next < keyMembers.size() && estimatedSize < BLOCK_SIZE);
+            members.add(keyMembers.subList(from, next));
+            return next;
+        }
+
+        long estimatedSize() {
+            return estimatedSize;
+        }
+
+        boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        void reset() {
+            keys.clear();
+            members.clear();
+            dictionary.clear();
+            encodedMembers.clear();
+            estimatedSize = 0;
+        }
+
+        Bytes encode() {
+            final Bytes bytes = new Bytes();
+            bytes.writeVarint(keys.size());
+            for (final byte[] key : keys) {
+                bytes.writeBytes(key);
+            }
+            for (final List<V> keyMembers : members) {
+                bytes.writeVarint(keyMembers.size());
+            }
+            bytes.writeVarint(encodedMembers.size());
+            for (final byte[] member : encodedMembers) {
+                bytes.writeBytes(member);
+            }
+            for (final List<V> keyMembers : members) {
+                for (final V member : keyMembers) {
+                    bytes.writeVarint(dictionary.get(member));
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Reads the varints and values of a decoded block.
+     */
+    private static final class BlockReader {
+
+        private final byte[] bytes;
+        private int position;
+
+        BlockReader(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readVarint() throws DictionaryException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new DictionaryException(ERROR_CORRUPT_FILE);
+                }
+                final byte b = bytes[position++];
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new DictionaryException(ERROR_CORRUPT_FILE);
+        }
+
+        /**
+         * Reads a count of items that each take at least one byte, so a count larger than the rest of the
+         * block is corrupt and never sizes an allocation.
+         */
+        int readCount() throws DictionaryException {
+            final int count = readVarint();
+            if (count < 0 || count > bytes.length - position) {
+                throw new DictionaryException(ERROR_CORRUPT_FILE);
+            }
+            return count;
+        }
+
+        <T> T read(final Codec<T> codec) throws DictionaryException {
+            final int length = readVarint();
+            if (length < 0 || length > bytes.length - position) {
+                throw new DictionaryException(ERROR_CORRUPT_FILE);
+            }
+            final T value = codec.decode(bytes, position, length);
+            position += length;
+            return value;
+        }
+    }
+
+    /**
+     * Growable byte array used to encode blocks.
+     */
+    private static final class Bytes {
+
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        void ensure(final int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeBytes(final byte[] encoded) {
+            writeVarint(encoded.length);
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+    }
+}
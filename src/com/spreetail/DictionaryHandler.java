@@ -2,31 +2,126 @@ package com.spreetail;
 
 import static com.spreetail.Command.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The CommandHandler class is designed to handle all of the different commands used
  * to perform actions on the MultiValueDictionary.
+ * Keys and members are parsed from and formatted to the text of commands by the codecs of the dictionary.
+ * The transaction and the subscriptions belong to the client running the commands: every client gets its own
+ * handler from client(), sharing the dictionary with the others.
  */
-class DictionaryHandler {
+class DictionaryHandler<K, V> {
 
     static final String PREFIX = ") ";
     static final String ADDED = PREFIX + "Added";
     static final String REMOVED = PREFIX + "Removed";
     static final String CLEARED = PREFIX + "Cleared";
     static final String EMPTY_SET = PREFIX + "Empty Set";
+    static final String SUBSCRIBED = PREFIX + "Subscribed";
+    static final String UNSUBSCRIBED = PREFIX + "Unsubscribed";
+    static final String EVENT = PREFIX + "EVENT ";
+    static final String OK = PREFIX + "OK";
+    static final String QUEUED = PREFIX + "Queued";
+    static final String DISCARDED = PREFIX + "Discarded";
+    static final String ERROR_NESTED_MULTI = PREFIX + "ERROR, MULTI calls can not be nested.";
+    static final String ERROR_NOT_IN_MULTI = PREFIX + "ERROR, command requires MULTI.";
+    static final String ERROR_WATCH_IN_MULTI = PREFIX + "ERROR, WATCH inside MULTI is not allowed.";
+    static final String EXPORTED = PREFIX + "Exported ";
+    static final String IMPORTED = PREFIX + "Imported ";
+    static final String FROZEN = PREFIX + "Frozen";
+    static final String INDEXING = PREFIX + "Indexing";
+    static final String THAWED = PREFIX + "Thawed";
+    static final String ERROR_IO = PREFIX + "ERROR, ";
+    static final String ERROR_INVALID_COUNT = PREFIX + "ERROR, count must be a positive integer.";
+    static final String ERROR_INVALID_VERSION = PREFIX + "ERROR, version must be a non-negative integer.";
+    static final String SCORE = "SCORE";
     static final String ERROR_INVALID_ARGUMENTS = "ERROR, invalid number of arguments for ";
 
-    private final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+    private final MultiValueDictionary<K, V> dictionary;
+    private final Codec<K> keyCodec;
+    private final Codec<V> memberCodec;
+    private final MutationStream.OverflowPolicy overflowPolicy;
+    private final Map<String, DictionaryHandler<K, V>> clients;
+    private final List<MutationStream<K, V>.Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private volatile Transaction<K, V> transaction;
+    private volatile boolean queuing;
+    private volatile AdmissionController admissionController;
+
+    DictionaryHandler(final Codec<K> keyCodec, final Codec<V> memberCodec) {
+        this(new MultiValueDictionary<>(), keyCodec, memberCodec);
+    }
+
+    DictionaryHandler(final MultiValueDictionary<K, V> dictionary, final Codec<K> keyCodec,
+                      final Codec<V> memberCodec) {
+        this(dictionary, keyCodec, memberCodec, MutationStream.OverflowPolicy.DROP);
+    }
+
+    DictionaryHandler(final MultiValueDictionary<K, V> dictionary, final Codec<K> keyCodec,
+                      final Codec<V> memberCodec, final MutationStream.OverflowPolicy overflowPolicy) {
+        this.dictionary = dictionary;
+        this.keyCodec = keyCodec;
+        this.memberCodec = memberCodec;
+        this.overflowPolicy = overflowPolicy;
+        this.clients = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates the handler of a client, sharing the dictionary and the other clients of the given handler.
+     */
+    private DictionaryHandler(final DictionaryHandler<K, V> shared) {
+        this.dictionary = shared.dictionary;
+        this.keyCodec = shared.keyCodec;
+        this.memberCodec = shared.memberCodec;
+        this.overflowPolicy = shared.overflowPolicy;
+        this.clients = shared.clients;
+        this.admissionController = shared.admissionController;
+    }
+
+    /**
+     * Returns the handler running the commands of the given client, creating it on its first command. The
+     * MULTI, WATCH and SUBSCRIBE state of a client is its own, so clients whose commands interleave never
+     * queue into or discard each other's transactions. The commands of one client must run one at a time.
+     * @param client name of the client.
+     * @return handler of the client.
+     */
+    DictionaryHandler<K, V> client(final String client) {
+        return clients.computeIfAbsent(client, name -> new DictionaryHandler<>(this));
+    }
+
+    /**
+     * Sets the admission controller whose queue metrics are reported by STATS, for this handler and its clients.
+     * @param admissionController controller in front of this handler, or null if commands are not queued.
+     */
+    void setAdmissionController(final AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        for (final DictionaryHandler<K, V> client : clients.values()) {
+            client.admissionController = admissionController;
+        }
+    }
 
     void handleAdd(final String[] userData) {
-        if (!validArguments(userData.length, 3, ADD)) {
+        final boolean scored = userData.length == 5 && SCORE.equals(userData[3]);
+        if (!scored && !validArguments(userData.length, 3, ADD)) {
             return;
         }
 
         try {
-            dictionary.add(userData[1], userData[2]);
+            if (scored) {
+                dictionary.add(keyCodec.parse(userData[1]), memberCodec.parse(userData[2]), parseScore(userData[4]));
+            } else {
+                dictionary.add(keyCodec.parse(userData[1]), memberCodec.parse(userData[2]));
+            }
             System.out.println(ADDED);
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
@@ -39,7 +134,7 @@ class DictionaryHandler {
         }
 
         try {
-            dictionary.remove(userData[1], userData[2]);
+            dictionary.remove(keyCodec.parse(userData[1]), memberCodec.parse(userData[2]));
             System.out.println(REMOVED);
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
@@ -52,7 +147,7 @@ class DictionaryHandler {
         }
 
         try {
-            dictionary.removeAll(userData[1]);
+            dictionary.removeAll(keyCodec.parse(userData[1]));
             System.out.println(REMOVED);
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
@@ -64,14 +159,14 @@ class DictionaryHandler {
             return;
         }
 
-        final List<String> keys = dictionary.keys();
+        final List<K> keys = dictionary.keys();
         if (keys.isEmpty()) {
             System.out.println(EMPTY_SET);
             return;
         }
 
         for (int i = 0; i < keys.size(); i++) {
-            System.out.println(i+1 + PREFIX + keys.get(i));
+            System.out.println(i+1 + PREFIX + keyCodec.format(keys.get(i)));
         }
     }
 
@@ -81,7 +176,7 @@ class DictionaryHandler {
         }
 
         try {
-            final List<String> members = dictionary.members(userData[1]);
+            final List<V> members = dictionary.members(keyCodec.parse(userData[1]));
 
             if (members.isEmpty()) {
                 System.out.println(EMPTY_SET);
@@ -89,7 +184,7 @@ class DictionaryHandler {
             }
 
             for (int i = 0; i < members.size(); i++) {
-                System.out.println(i+1 + PREFIX + members.get(i));
+                System.out.println(i+1 + PREFIX + memberCodec.format(members.get(i)));
             }
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
@@ -97,9 +192,15 @@ class DictionaryHandler {
     }
 
     void handleClear(final String[] userData) {
-        if (validArguments(userData.length, 1, CLEAR)) {
+        if (!validArguments(userData.length, 1, CLEAR)) {
+            return;
+        }
+
+        try {
             dictionary.clear();
             System.out.println(CLEARED);
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
         }
     }
 
@@ -109,7 +210,7 @@ class DictionaryHandler {
         }
 
         try {
-            System.out.println(PREFIX + dictionary.keyExists(userData[1]));
+            System.out.println(PREFIX + dictionary.keyExists(keyCodec.parse(userData[1])));
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
         }
@@ -121,7 +222,23 @@ class DictionaryHandler {
         }
 
         try {
-            System.out.println(PREFIX + dictionary.memberExists(userData[1], userData[2]));
+            System.out.println(PREFIX + dictionary.memberExists(keyCodec.parse(userData[1]), memberCodec.parse(userData[2])));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleMembersExist(final String[] userData) {
+        if (!validMinimumArguments(userData.length, 3, MEMBERSEXIST)) {
+            return;
+        }
+
+        try {
+            final List<V> members = parseMembers(userData, 2);
+            final BitSet exist = dictionary.membersExist(keyCodec.parse(userData[1]), members);
+            for (int i = 0; i < members.size(); i++) {
+                System.out.println(i+1 + PREFIX + exist.get(i));
+            }
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
         }
@@ -132,7 +249,7 @@ class DictionaryHandler {
             return;
         }
 
-        final List<String> members = dictionary.allMembers();
+        final List<V> members = dictionary.allMembers();
 
         if (members.isEmpty()) {
             System.out.println(EMPTY_SET);
@@ -140,7 +257,7 @@ class DictionaryHandler {
         }
 
         for (int i = 0; i < members.size(); i++) {
-            System.out.println(i+1 + PREFIX + members.get(i));
+            System.out.println(i+1 + PREFIX + memberCodec.format(members.get(i)));
         }
     }
 
@@ -149,7 +266,7 @@ class DictionaryHandler {
             return;
         }
 
-        final Map<String, List<String>> items = dictionary.items();
+        final Map<K, List<V>> items = dictionary.items();
 
         if (items.isEmpty()) {
             System.out.println(EMPTY_SET);
@@ -157,18 +274,534 @@ class DictionaryHandler {
         }
 
         int i = 1;
+        for (final Map.Entry<K, List<V>> entry : items.entrySet()) {
+            for (final V member : entry.getValue()) {
+                System.out.println(i + PREFIX + keyCodec.format(entry.getKey()) + ": " + memberCodec.format(member));
+                i++;
+            }
+        }
+    }
+
+    void handleCount(final String[] userData) {
+        if (!validArguments(userData.length, 1, COUNT)) {
+            return;
+        }
+
+        System.out.println(1 + PREFIX + "keys: " + dictionary.keyCount());
+        System.out.println(2 + PREFIX + "members: " + dictionary.memberCount());
+
+        final long[] histogram = dictionary.keySizeHistogram();
+        int line = 3;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            if (histogram[bucket] > 0) {
+                final long from = 1L << bucket;
+                final long to = (1L << (bucket + 1)) - 1;
+                final String size = from == to ? String.valueOf(from) : from + "-" + to;
+                System.out.println(line++ + PREFIX + "keys with " + size + " members: " + histogram[bucket]);
+            }
+        }
+    }
+
+    void handleCard(final String[] userData) {
+        if (!validArguments(userData.length, 2, CARD)) {
+            return;
+        }
+
         try {
-            for (final String key : dictionary.keys()) {
-                for (final String member : dictionary.members(key)) {
-                    System.out.println(i + PREFIX + key + ": " + member);
-                    i++;
+            System.out.println(PREFIX + dictionary.cardinality(keyCodec.parse(userData[1])));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleDistinctMembers(final String[] userData) {
+        if (validArguments(userData.length, 1, DISTINCTMEMBERS)) {
+            System.out.println(PREFIX + dictionary.distinctMembers());
+        }
+    }
+
+    void handleIncrBy(final String[] userData) {
+        if (!validArguments(userData.length, 4, INCRBY)) {
+            return;
+        }
+
+        try {
+            System.out.println(PREFIX + dictionary.incrementScore(keyCodec.parse(userData[1]),
+                    memberCodec.parse(userData[2]), parseScore(userData[3])));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleVersion(final String[] userData) {
+        if (!validArguments(userData.length, 2, VERSION)) {
+            return;
+        }
+
+        try {
+            System.out.println(PREFIX + dictionary.version(keyCodec.parse(userData[1])));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleReplace(final String[] userData) {
+        if (!validMinimumArguments(userData.length, 4, REPLACE)) {
+            return;
+        }
+
+        try {
+            final long version;
+            try {
+                version = Long.parseLong(userData[2]);
+            } catch (final NumberFormatException e) {
+                throw new DictionaryException(ERROR_INVALID_VERSION);
+            }
+            if (version < 0) {
+                throw new DictionaryException(ERROR_INVALID_VERSION);
+            }
+            System.out.println(PREFIX + dictionary.replace(keyCodec.parse(userData[1]), version,
+                    parseMembers(userData, 3)));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleAddIfAbsentKey(final String[] userData) {
+        if (!validMinimumArguments(userData.length, 3, ADDIFABSENTKEY)) {
+            return;
+        }
+
+        try {
+            System.out.println(PREFIX + dictionary.addIfAbsentKey(keyCodec.parse(userData[1]),
+                    parseMembers(userData, 2)));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleTop(final String[] userData) {
+        if (!validArguments(userData.length, 3, TOP)) {
+            return;
+        }
+
+        try {
+            final int count;
+            try {
+                count = Integer.parseInt(userData[2]);
+            } catch (final NumberFormatException e) {
+                throw new DictionaryException(ERROR_INVALID_COUNT);
+            }
+            if (count <= 0) {
+                throw new DictionaryException(ERROR_INVALID_COUNT);
+            }
+            printScored(dictionary.top(keyCodec.parse(userData[1]), count));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleRangeByScore(final String[] userData) {
+        if (!validArguments(userData.length, 4, RANGEBYSCORE)) {
+            return;
+        }
+
+        try {
+            printScored(dictionary.rangeByScore(keyCodec.parse(userData[1]), parseScore(userData[2]),
+                    parseScore(userData[3])));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleSubscribe(final String[] userData) {
+        if (userData.length != 1 && !validArguments(userData.length, 2, SUBSCRIBE)) {
+            return;
+        }
+
+        final String prefix = userData.length == 2 ? userData[1] : "";
+        subscriptions.add(dictionary.mutations().subscribe(key -> keyCodec.format(key).startsWith(prefix),
+                new DictionaryListener<K, V>() {
+                    @Override
+                    public void onEvent(final DictionaryEvent<K, V> event) {
+                        System.out.println(EVENT + event);
+                    }
+
+                    @Override
+                    public void onDropped(final long count) {
+                        System.out.println(EVENT + "DROPPED " + count);
+                    }
+                }, overflowPolicy));
+        System.out.println(SUBSCRIBED);
+    }
+
+    void handleUnsubscribe(final String[] userData) {
+        if (!validArguments(userData.length, 1, UNSUBSCRIBE)) {
+            return;
+        }
+
+        for (final MutationStream<K, V>.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+        System.out.println(UNSUBSCRIBED);
+    }
+
+    void handleWatch(final String[] userData) {
+        if (!validArguments(userData.length, 2, WATCH)) {
+            return;
+        }
+        if (queuing) {
+            System.out.println(ERROR_WATCH_IN_MULTI);
+            return;
+        }
+
+        try {
+            if (transaction == null) {
+                transaction = new Transaction<>();
+            }
+            transaction.watch(dictionary, keyCodec.parse(userData[1]));
+            System.out.println(OK);
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleMulti(final String[] userData) {
+        if (!validArguments(userData.length, 1, MULTI)) {
+            return;
+        }
+        if (queuing) {
+            System.out.println(ERROR_NESTED_MULTI);
+            return;
+        }
+
+        if (transaction == null) {
+            transaction = new Transaction<>();
+        }
+        queuing = true;
+        System.out.println(OK);
+    }
+
+    void handleExec(final String[] userData) {
+        if (!validArguments(userData.length, 1, EXEC)) {
+            return;
+        }
+        if (!queuing) {
+            System.out.println(ERROR_NOT_IN_MULTI);
+            return;
+        }
+
+        try {
+            final List<Command> applied = transaction.exec(dictionary);
+
+            if (applied.isEmpty()) {
+                System.out.println(EMPTY_SET);
+            }
+            for (int i = 0; i < applied.size(); i++) {
+                final Command command = applied.get(i);
+                System.out.println(i+1 + (command == ADD ? ADDED : command == CLEAR ? CLEARED : REMOVED));
+            }
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        } finally {
+            transaction = null;
+            queuing = false;
+        }
+    }
+
+    void handleDiscard(final String[] userData) {
+        if (!validArguments(userData.length, 1, DISCARD)) {
+            return;
+        }
+        if (!queuing) {
+            System.out.println(ERROR_NOT_IN_MULTI);
+            return;
+        }
+
+        transaction = null;
+        queuing = false;
+        System.out.println(DISCARDED);
+    }
+
+    /**
+     * Returns a boolean representing if commands are currently being queued by MULTI.
+     * @return boolean representing if a transaction is open.
+     */
+    boolean inTransaction() {
+        return queuing;
+    }
+
+    /**
+     * Queues the command into the open transaction instead of running it. Transaction control commands,
+     * HELP and EXIT are never queued.
+     * @param userData string array containing the data entered by the user.
+     * @return boolean representing if the command was consumed by the transaction.
+     */
+    boolean queue(final String[] userData) {
+        if (!queuing) {
+            return false;
+        }
+
+        final Command command = valueOf(userData[0]);
+        switch (command) {
+            case ADD:
+            case REMOVE:
+                if (validArguments(userData.length, 3, command)) {
+                    queue(command, userData[1], userData[2]);
+                }
+                return true;
+            case REMOVEALL:
+                if (validArguments(userData.length, 2, command)) {
+                    queue(command, userData[1], null);
+                }
+                return true;
+            case CLEAR:
+                if (validArguments(userData.length, 1, command)) {
+                    queue(command, null, null);
                 }
+                return true;
+            case MULTI:
+            case EXEC:
+            case DISCARD:
+            case WATCH:
+            case HELP:
+            case EXIT:
+                return false;
+            default:
+                System.out.println(Transaction.ERROR_COMMAND_NOT_QUEUEABLE);
+                return true;
+        }
+    }
+
+    private void queue(final Command command, final String key, final String member) {
+        try {
+            transaction.queue(command, keyCodec.parse(key), memberCodec.parse(member));
+            System.out.println(QUEUED);
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+    }
+
+    void handleExport(final String[] userData) {
+        if (userData.length != 3 && !validArguments(userData.length, 2, EXPORT)) {
+            return;
+        }
+
+        final boolean deflate = userData.length == 3 && "DEFLATE".equals(userData[2]);
+        try {
+            final long members = DictionaryFile.export(dictionary, keyCodec, memberCodec,
+                    Paths.get(userData[1]), deflate);
+            System.out.println(EXPORTED + members + " members");
+        } catch (final IOException | RuntimeException e) {
+            System.out.println(ERROR_IO + e.getMessage());
+        }
+    }
+
+    void handleImport(final String[] userData) {
+        if (!validArguments(userData.length, 2, IMPORT)) {
+            return;
+        }
+
+        try {
+            final long members = DictionaryFile.importInto(dictionary, keyCodec, memberCodec,
+                    Paths.get(userData[1]));
+            System.out.println(IMPORTED + members + " members");
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        } catch (final IOException | RuntimeException e) {
+            System.out.println(ERROR_IO + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the dictionary from a file written by EXPORT or save(), used by the one-shot -c mode.
+     * @param path file to be read.
+     * @throws IOException if the file cannot be read.
+     * @throws DictionaryException if the file is corrupt or holds other types.
+     */
+    void load(final Path path) throws IOException, DictionaryException {
+        DictionaryFile.importInto(dictionary, keyCodec, memberCodec, path);
+    }
+
+    /**
+     * Saves the dictionary to a file, replacing it only once the new file is complete.
+     * @param path file to be written.
+     * @throws IOException if the file cannot be written.
+     */
+    void save(final Path path) throws IOException {
+        DictionaryFile.export(dictionary, keyCodec, memberCodec, path, false);
+    }
+
+    /**
+     * Returns the number of mutations applied to the dictionary, to tell whether it must be saved.
+     * @return number of mutations since the dictionary was created.
+     */
+    long modifications() {
+        return dictionary.modifications();
+    }
+
+    /**
+     * Releases the storage of the dictionary, deleting the files of its cold store if it has one.
+     */
+    void close() {
+        dictionary.close();
+    }
+
+    void handleSearch(final String[] userData) {
+        if (!validArguments(userData.length, 2, SEARCH)) {
+            return;
+        }
+
+        try {
+            final List<Map.Entry<K, V>> results = dictionary.search(userData[1]);
+
+            if (results.isEmpty()) {
+                System.out.println(EMPTY_SET);
+                return;
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                final Map.Entry<K, V> result = results.get(i);
+                System.out.println(i+1 + PREFIX + keyCodec.format(result.getKey()) + ": "
+                        + memberCodec.format(result.getValue()));
             }
         } catch (final DictionaryException de) {
             System.out.println(de.getMessage());
         }
     }
 
+    void handleIndex(final String[] userData) {
+        if (validArguments(userData.length, 1, INDEX)) {
+            dictionary.buildSearchIndex();
+            System.out.println(INDEXING);
+        }
+    }
+
+    void handleFreeze(final String[] userData) {
+        if (userData.length != 1 && !validArguments(userData.length, 2, FREEZE)) {
+            return;
+        }
+
+        final MultiValueDictionary.FreezePolicy policy;
+        try {
+            policy = userData.length == 2
+                    ? MultiValueDictionary.FreezePolicy.valueOf(userData[1])
+                    : MultiValueDictionary.FreezePolicy.REJECT;
+        } catch (final IllegalArgumentException e) {
+            System.out.println(ERROR_INVALID_ARGUMENTS + FREEZE.name());
+            return;
+        }
+
+        dictionary.freeze(policy);
+        System.out.println(FROZEN);
+    }
+
+    void handleThaw(final String[] userData) {
+        if (validArguments(userData.length, 1, THAW)) {
+            dictionary.thaw();
+            System.out.println(THAWED);
+        }
+    }
+
+    void handleHotKeys(final String[] userData) {
+        if (!validArguments(userData.length, 1, HOTKEYS)) {
+            return;
+        }
+
+        final List<Map.Entry<K, Long>> hotKeys = dictionary.hotKeys().hotKeys();
+        if (hotKeys.isEmpty()) {
+            System.out.println(EMPTY_SET);
+            return;
+        }
+
+        for (int i = 0; i < hotKeys.size(); i++) {
+            System.out.println(i+1 + PREFIX + keyCodec.format(hotKeys.get(i).getKey()) + ": "
+                    + hotKeys.get(i).getValue());
+        }
+    }
+
+    void handleStats(final String[] userData) {
+        if (!validArguments(userData.length, 1, STATS)) {
+            return;
+        }
+
+        final List<String> stats = new ArrayList<>();
+
+        final MembershipFilter<K, V> filter = dictionary.filter();
+        if (filter != null) {
+            stats.add("filter key negatives: " + filter.keyNegatives());
+            stats.add("filter key positives: " + filter.keyPositives());
+            stats.add("filter member negatives: " + filter.memberNegatives());
+            stats.add("filter member positives: " + filter.memberPositives());
+            stats.add("filter false positives: " + filter.falsePositives());
+        }
+
+        final TrigramIndex<K, V> searchIndex = dictionary.searchIndex();
+        if (searchIndex != null) {
+            try {
+                stats.addAll(dictionary.atomically(() -> Arrays.asList(
+                        "search index: " + (searchIndex.isReady() ? "ready" : "building"),
+                        "search index trigrams: " + searchIndex.trigramCount(),
+                        "search index members: " + searchIndex.memberCount(),
+                        "search index bytes: " + searchIndex.memoryEstimate())));
+            } catch (final DictionaryException de) {
+                System.out.println(de.getMessage());
+            }
+        }
+
+        final ReadCache<K, V> cache = dictionary.cache();
+        if (cache != null) {
+            stats.addAll(cache.stats());
+        }
+
+        final ColdStore<K, V> cold = dictionary.coldStore();
+        if (cold != null) {
+            stats.addAll(cold.stats((int) (dictionary.keyCount() - cold.keyCount())));
+        }
+
+        if (admissionController != null) {
+            stats.addAll(admissionController.stats());
+        }
+
+        if (stats.isEmpty()) {
+            System.out.println(EMPTY_SET);
+            return;
+        }
+
+        for (int i = 0; i < stats.size(); i++) {
+            System.out.println(i+1 + PREFIX + stats.get(i));
+        }
+    }
+
+    private void printScored(final List<Map.Entry<V, Long>> scored) {
+        if (scored.isEmpty()) {
+            System.out.println(EMPTY_SET);
+            return;
+        }
+
+        for (int i = 0; i < scored.size(); i++) {
+            System.out.println(i+1 + PREFIX + memberCodec.format(scored.get(i).getKey()) + ": "
+                    + scored.get(i).getValue());
+        }
+    }
+
+    private List<V> parseMembers(final String[] userData, final int from) throws DictionaryException {
+        final List<V> members = new ArrayList<>(userData.length - from);
+        for (int i = from; i < userData.length; i++) {
+            members.add(memberCodec.parse(userData[i]));
+        }
+        return members;
+    }
+
+    private static long parseScore(final String score) throws DictionaryException {
+        try {
+            return Long.parseLong(score);
+        } catch (final NumberFormatException e) {
+            throw new DictionaryException(MultiValueDictionary.ERROR_INVALID_SCORE);
+        }
+    }
+
     static boolean validArguments(final int length, final int expectedLength, final Command command) {
         if (length != expectedLength) {
             System.out.println(ERROR_INVALID_ARGUMENTS + command.name());
@@ -176,4 +809,12 @@ class DictionaryHandler {
         }
         return true;
     }
+
+    static boolean validMinimumArguments(final int length, final int minimumLength, final Command command) {
+        if (length < minimumLength) {
+            System.out.println(ERROR_INVALID_ARGUMENTS + command.name());
+            return false;
+        }
+        return true;
+    }
 }
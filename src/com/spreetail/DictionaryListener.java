@@ -0,0 +1,26 @@
+package com.spreetail;
+
+/**
+ * Receives the mutations applied to a MultiValueDictionary, in the order they were applied.
+ */
+interface DictionaryListener<K, V> {
+
+    /**
+     * Called on the subscription's delivery thread for each matching mutation.
+     * @param event the mutation that was applied.
+     */
+    void onEvent(DictionaryEvent<K, V> event);
+
+    /**
+     * Called when events were overwritten before this listener could read them.
+     * @param count number of events that were skipped.
+     */
+    default void onDropped(final long count) {
+    }
+
+    /**
+     * Called once when the subscription is closed by its owner or by the overflow policy.
+     */
+    default void onClosed() {
+    }
+}
@@ -0,0 +1,98 @@
+package com.spreetail;
+
+import java.util.Arrays;
+
+/**
+ * Counters maintained incrementally by the MultiValueDictionary, so that size and cardinality
+ * questions are answered without scanning the entries.
+ */
+class DictionaryStatistics {
+
+    static final int HISTOGRAM_BUCKETS = 32;
+
+    private long members;
+    private final long[] keySizes = new long[HISTOGRAM_BUCKETS];
+    private final HyperLogLog distinctMembers = new HyperLogLog();
+
+    /**
+     * Records a member added under a key that previously held the given number of members.
+     * @param member member that was added.
+     * @param previousSize number of members under the key before the add, 0 for a new key.
+     */
+    void memberAdded(final Object member, final int previousSize) {
+        members++;
+        distinctMembers.add(member);
+        resized(previousSize, previousSize + 1);
+    }
+
+    /**
+     * Records a member removed from a key that previously held the given number of members.
+     * @param previousSize number of members under the key before the remove.
+     */
+    void memberRemoved(final int previousSize) {
+        members--;
+        resized(previousSize, previousSize - 1);
+        resetIfEmpty();
+    }
+
+    /**
+     * Records a key removed together with all of its members.
+     * @param previousSize number of members under the key before it was removed.
+     */
+    void keyRemoved(final int previousSize) {
+        members -= previousSize;
+        resized(previousSize, 0);
+        resetIfEmpty();
+    }
+
+    void clear() {
+        members = 0;
+        Arrays.fill(keySizes, 0);
+        distinctMembers.clear();
+    }
+
+    long members() {
+        return members;
+    }
+
+    /**
+     * Returns the members-per-key histogram, bucket i counts the keys holding [2^i, 2^(i+1)) members.
+     * @return copy of the histogram buckets.
+     */
+    long[] keySizes() {
+        return keySizes.clone();
+    }
+
+    /**
+     * Returns the estimated number of distinct members across all keys. The sketch does not forget
+     * removed members, so the estimate only drops back when the dictionary becomes empty.
+     * @return estimated distinct member count.
+     */
+    long distinctMembers() {
+        return members == 0 ? 0 : Math.min(members, distinctMembers.estimate());
+    }
+
+    /**
+     * Returns the histogram bucket holding keys of the given size.
+     * @param size number of members under a key, at least 1.
+     * @return bucket index.
+     */
+    static int bucket(final int size) {
+        return 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    private void resized(final int previousSize, final int size) {
+        if (previousSize > 0) {
+            keySizes[bucket(previousSize)]--;
+        }
+        if (size > 0) {
+            keySizes[bucket(size)]++;
+        }
+    }
+
+    private void resetIfEmpty() {
+        if (members == 0) {
+            distinctMembers.clear();
+        }
+    }
+}
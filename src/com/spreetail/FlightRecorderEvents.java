@@ -0,0 +1,322 @@
+package com.spreetail;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JDK Flight Recorder events emitted by the dictionary: one per command, and one per key table resize,
+ * subscriber eviction and export or import.
+ *
+ * The jar still targets Java 8, whose API has no jdk.jfr, so the events are defined at runtime with
+ * jdk.jfr.EventFactory and driven through method handles. On a JVM without Flight Recorder every method
+ * is a no-op. All events are disabled by default: until a recording enables them, for example with the
+ * bundled dictionary.jfc, a command costs one enabled check and allocates nothing.
+ *
+ * Defining the event types generates their classes and takes about 200ms, longer than the rest of startup,
+ * so they are only defined once Flight Recorder is running. A recording started later, for example with
+ * jcmd JFR.start, defines them on the next command.
+ */
+final class FlightRecorderEvents {
+
+    static final String COMMAND = "com.spreetail.Command";
+    static final String RESIZE = "com.spreetail.Resize";
+    static final String EVICTION = "com.spreetail.Eviction";
+    static final String PERSISTENCE = "com.spreetail.Persistence";
+
+    /**
+     * Longest key recorded by command events, longer keys are truncated.
+     */
+    static final int MAX_KEY_LENGTH = 128;
+
+    private static final Method RECORDER_INITIALIZED = recorderInitialized();
+    private static final ThreadLocal<Active> ACTIVE = new ThreadLocal<>();
+    private static volatile boolean recording;
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Starts timing a command on the current thread, when command events are enabled.
+     * @return the started event, or null if command events are disabled.
+     */
+    static Object beginCommand() {
+        if (!recording() || !Types.COMMANDS.isEnabled()) {
+            return null;
+        }
+        final Object event = Types.COMMANDS.begin();
+        if (event != null) {
+            ACTIVE.set(new Active());
+        }
+        return event;
+    }
+
+    /**
+     * Records the members read or written by the command running on the current thread.
+     * @param count number of members touched.
+     */
+    static void touched(final int count) {
+        if (recording && Types.COMMANDS.isEnabled()) {
+            final Active active = ACTIVE.get();
+            if (active != null) {
+                active.members += count;
+            }
+        }
+    }
+
+    /**
+     * Ends and commits a command event started by beginCommand().
+     * @param event the started event, does nothing if null.
+     * @param command command that was applied.
+     * @param key key of the command, or null for commands without a key.
+     */
+    static void endCommand(final Object event, final Command command, final String key) {
+        if (event == null) {
+            return;
+        }
+        final Active active = ACTIVE.get();
+        ACTIVE.remove();
+        final String recordedKey = key == null || key.length() <= MAX_KEY_LENGTH
+                ? key : key.substring(0, MAX_KEY_LENGTH);
+        Types.COMMANDS.commit(event, command.name(), recordedKey, key == null ? 0 : key.length(),
+                active == null ? 0 : active.members);
+    }
+
+    static void resize(final int oldCapacity, final int newCapacity, final int keys) {
+        if (recording() && Types.RESIZES.isEnabled()) {
+            Types.RESIZES.commit(Types.RESIZES.begin(), oldCapacity, newCapacity, keys);
+        }
+    }
+
+    static void eviction(final String reason, final long count) {
+        if (recording() && Types.EVICTIONS.isEnabled()) {
+            Types.EVICTIONS.commit(Types.EVICTIONS.begin(), reason, count);
+        }
+    }
+
+    /**
+     * Starts timing an export or import, when persistence events are enabled.
+     * @return the started event, or null if persistence events are disabled.
+     */
+    static Object beginPersistence() {
+        return recording() && Types.PERSISTENCES.isEnabled() ? Types.PERSISTENCES.begin() : null;
+    }
+
+    static void endPersistence(final Object event, final Command operation, final String path, final long members,
+                               final long bytes) {
+        if (event != null) {
+            Types.PERSISTENCES.commit(event, operation.name(), path, members, bytes);
+        }
+    }
+
+    /**
+     * Returns a boolean representing if Flight Recorder events can be emitted by this JVM. Defines the events.
+     * @return boolean representing if the events are defined.
+     */
+    static boolean isAvailable() {
+        return Types.COMMANDS.factory != null;
+    }
+
+    /**
+     * Returns a boolean representing if Flight Recorder has been started in this JVM, after which the event
+     * types are defined on first use.
+     */
+    private static boolean recording() {
+        if (recording) {
+            return true;
+        }
+        try {
+            recording = RECORDER_INITIALIZED != null && (boolean) RECORDER_INITIALIZED.invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+        return recording;
+    }
+
+    /**
+     * Looks up jdk.jfr.FlightRecorder.isInitialized, which tells without starting Flight Recorder whether
+     * it runs. Plain reflection, since the first method handle costs more than the check saves.
+     */
+    private static Method recorderInitialized() {
+        try {
+            return Class.forName("jdk.jfr.FlightRecorder", false, ClassLoader.getSystemClassLoader())
+                    .getMethod("isInitialized");
+        } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static Object[] field(final Class<?> type, final String name, final String label) {
+        return new Object[] {type, name, label};
+    }
+
+    /**
+     * The event types, defined when this class is first used.
+     */
+    private static final class Types {
+
+        private static final EventType COMMANDS = EventType.define(COMMAND, "Dictionary Command",
+                "A command applied to the dictionary",
+                field(String.class, "command", "Command"),
+                field(String.class, "key", "Key"),
+                field(int.class, "keyLength", "Key Length"),
+                field(int.class, "members", "Members Touched"));
+        private static final EventType RESIZES = EventType.define(RESIZE, "Dictionary Resize",
+                "The key table started growing to a larger table",
+                field(int.class, "oldCapacity", "Old Capacity"),
+                field(int.class, "newCapacity", "New Capacity"),
+                field(int.class, "keys", "Keys"));
+        private static final EventType EVICTIONS = EventType.define(EVICTION, "Dictionary Eviction",
+                "Mutation events overwritten before a subscriber read them",
+                field(String.class, "reason", "Reason"),
+                field(long.class, "count", "Count"));
+        private static final EventType PERSISTENCES = EventType.define(PERSISTENCE, "Dictionary Persistence",
+                "The dictionary was exported to or imported from a file",
+                field(String.class, "operation", "Operation"),
+                field(String.class, "path", "Path"),
+                field(long.class, "members", "Members"),
+                field(long.class, "bytes", "Bytes"));
+    }
+
+    /**
+     * The members touched so far by the command being recorded on a thread.
+     */
+    private static final class Active {
+
+        private int members;
+    }
+
+    /**
+     * An event type created with jdk.jfr.EventFactory. A probe instance answers isEnabled(), since the
+     * enabled setting belongs to the type rather than to an instance.
+     */
+    private static final class EventType {
+
+        private final Object factory;
+        private final Object probe;
+        private final MethodHandle newEvent;
+        private final MethodHandle isEnabled;
+        private final MethodHandle begin;
+        private final MethodHandle end;
+        private final MethodHandle shouldCommit;
+        private final MethodHandle set;
+        private final MethodHandle commit;
+
+        private EventType(final Object factory, final Object probe, final MethodHandle newEvent,
+                          final MethodHandle isEnabled, final MethodHandle begin, final MethodHandle end,
+                          final MethodHandle shouldCommit, final MethodHandle set, final MethodHandle commit) {
+            this.factory = factory;
+            this.probe = probe;
+            this.newEvent = newEvent;
+            this.isEnabled = isEnabled;
+            this.begin = begin;
+            this.end = end;
+            this.shouldCommit = shouldCommit;
+            this.set = set;
+            this.commit = commit;
+        }
+
+        /**
+         * Defines a disabled-by-default event type, or a no-op type if Flight Recorder is not available.
+         */
+        private static EventType define(final String name, final String label, final String description,
+                                        final Object[]... fields) {
+            try {
+                final ClassLoader loader = ClassLoader.getSystemClassLoader();
+                final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", true, loader);
+                final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", true, loader);
+                final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", true, loader);
+                final Class<?> event = Class.forName("jdk.jfr.Event", true, loader);
+                final Constructor<?> annotationConstructor = annotationElement.getConstructor(Class.class, Object.class);
+                final Constructor<?> descriptorConstructor =
+                        valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+                final List<Object> annotations = new ArrayList<>(Arrays.asList(
+                        annotation(annotationConstructor, "jdk.jfr.Name", name),
+                        annotation(annotationConstructor, "jdk.jfr.Label", label),
+                        annotation(annotationConstructor, "jdk.jfr.Description", description),
+                        annotation(annotationConstructor, "jdk.jfr.Category", new String[] {"Dictionary"}),
+                        annotation(annotationConstructor, "jdk.jfr.Enabled", false),
+                        annotation(annotationConstructor, "jdk.jfr.StackTrace", false)));
+
+                final List<Object> descriptors = new ArrayList<>();
+                for (final Object[] field : fields) {
+                    descriptors.add(descriptorConstructor.newInstance(field[0], field[1],
+                            Arrays.asList(annotation(annotationConstructor, "jdk.jfr.Label", field[2]))));
+                }
+
+                final Object factory = eventFactory.getMethod("create", List.class, List.class)
+                        .invoke(null, annotations, descriptors);
+                final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                final MethodHandle newEvent = lookup.unreflect(eventFactory.getMethod("newEvent"));
+                return new EventType(factory, newEvent.invoke(factory), newEvent,
+                        lookup.unreflect(event.getMethod("isEnabled")),
+                        lookup.unreflect(event.getMethod("begin")),
+                        lookup.unreflect(event.getMethod("end")),
+                        lookup.unreflect(event.getMethod("shouldCommit")),
+                        lookup.unreflect(event.getMethod("set", int.class, Object.class)),
+                        lookup.unreflect(event.getMethod("commit")));
+            } catch (final Throwable e) {
+                return new EventType(null, null, null, null, null, null, null, null, null);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Object annotation(final Constructor<?> constructor, final String type, final Object value)
+                throws ReflectiveOperationException {
+            final Class<? extends Annotation> annotationType =
+                    (Class<? extends Annotation>) Class.forName(type, true, ClassLoader.getSystemClassLoader());
+            return constructor.newInstance(annotationType, value);
+        }
+
+        private boolean isEnabled() {
+            if (probe == null) {
+                return false;
+            }
+            try {
+                return (boolean) isEnabled.invoke(probe);
+            } catch (final Throwable e) {
+                return false;
+            }
+        }
+
+        /**
+         * Creates and begins an event.
+         * @return the event, or null if it could not be created.
+         */
+        private Object begin() {
+            try {
+                final Object event = newEvent.invoke(factory);
+                begin.invoke(event);
+                return event;
+            } catch (final Throwable e) {
+                return null;
+            }
+        }
+
+        /**
+         * Ends the event and commits it with the given field values, if it passes the recording's threshold.
+         */
+        private void commit(final Object event, final Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                end.invoke(event);
+                if ((boolean) shouldCommit.invoke(event)) {
+                    for (int i = 0; i < values.length; i++) {
+                        set.invoke(event, i, values[i]);
+                    }
+                    commit.invoke(event);
+                }
+            } catch (final Throwable e) {
+                // a failed event must never fail the command it describes
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.spreetail;
+
+import java.util.*;
+
+/**
+ * Immutable, read-optimized snapshot of a MultiValueDictionary, built by freeze() once the data stops changing.
+ *
+ * Keys are placed with a CHD (compress, hash and displace) perfect hash: every key hashes to a bucket, and
+ * each bucket stores the displacement that sends all of its keys to distinct slots. A lookup is one read of
+ * the bucket's displacement, one slot and one equals call, with no probing and no chains. The rare keys
+ * sharing a full hash code with another key cannot be separated that way and are found in a small side map.
+ * The members of all keys are stored back to back in one array, the members of the key in slot s being
+ * members[offsets[s]] to members[offsets[s + 1]] in insertion order. Small keys are scanned linearly;
+ * keys with more than SCAN_LIMIT members also get a sorted array of member hashes, searched by bisection.
+ *
+ * Nothing is ever written after construction, so any number of threads can read it without locking.
+ */
+final class FrozenDictionary<K, V> {
+
+    static final int SCAN_LIMIT = 8;
+
+    private static final int KEYS_PER_BUCKET = 4;
+    private static final double LOAD_FACTOR = 0.85;
+
+    private final int[] displacements;
+    private final Map<Object, Integer> collisions;
+    private final Object[] keys;
+    private final int[] offsets;
+    private final Object[] members;
+    private final int[] indexOffsets;
+    private final long[] index;
+    private final int keyCount;
+
+    private FrozenDictionary(final int[] displacements, final Map<Object, Integer> collisions, final Object[] keys,
+                             final int[] offsets, final Object[] members, final int[] indexOffsets,
+                             final long[] index, final int keyCount) {
+        this.displacements = displacements;
+        this.collisions = collisions;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.members = members;
+        this.indexOffsets = indexOffsets;
+        this.index = index;
+        this.keyCount = keyCount;
+    }
+
+    /**
+     * Builds a frozen copy of the given entries.
+     * @param entries keys and their members.
+     * @param memberCount total number of members across all keys.
+     * @return frozen dictionary holding the same keys and members.
+     */
+    static <K, V> FrozenDictionary<K, V> of(final Map<K, ? extends Iterable<V>> entries, final long memberCount) {
+        if (memberCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many members to freeze " + memberCount);
+        }
+
+        final int keyCount = entries.size();
+        final Object[] sourceKeys = entries.keySet().toArray();
+        final int slotCount = Math.max(1, (int) Math.ceil(keyCount / LOAD_FACTOR));
+        final int bucketCount = Math.max(1, keyCount / KEYS_PER_BUCKET);
+
+        final int[] displacements = new int[bucketCount];
+        final Map<Object, Integer> collisions = new HashMap<>();
+        final int[] slotOf = place(sourceKeys, slotCount, displacements, collisions);
+
+        final Object[] keys = new Object[slotCount];
+        for (int i = 0; i < sourceKeys.length; i++) {
+            keys[slotOf[i]] = sourceKeys[i];
+        }
+
+        final int[] offsets = new int[slotCount + 1];
+        final Object[] members = new Object[(int) memberCount];
+        final int[] indexOffsets = new int[slotCount + 1];
+        int indexSize = 0;
+        int position = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            offsets[slot] = position;
+            indexOffsets[slot] = indexSize;
+            if (keys[slot] != null) {
+                for (final V member : entries.get(keys[slot])) {
+                    members[position++] = member;
+                }
+                if (position - offsets[slot] > SCAN_LIMIT) {
+                    indexSize += position - offsets[slot];
+                }
+            }
+        }
+        offsets[slotCount] = position;
+        indexOffsets[slotCount] = indexSize;
+
+        final long[] index = new long[indexSize];
+        for (int slot = 0; slot < slotCount; slot++) {
+            int i = indexOffsets[slot];
+            if (indexOffsets[slot + 1] > i) {
+                for (int m = offsets[slot]; m < offsets[slot + 1]; m++) {
+                    index[i++] = (long) members[m].hashCode() << 32 | m;
+                }
+                Arrays.sort(index, indexOffsets[slot], indexOffsets[slot + 1]);
+            }
+        }
+
+        return new FrozenDictionary<>(displacements, collisions, keys, offsets, members, indexOffsets, index,
+                keyCount);
+    }
+
+    int keyCount() {
+        return keyCount;
+    }
+
+    long memberCount() {
+        return members.length;
+    }
+
+    boolean keyExists(final Object key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * Returns the number of members under the key.
+     * @param key the key to be looked up.
+     * @return number of members, or -1 if the key does not exist.
+     */
+    int cardinality(final Object key) {
+        final int slot = slotOf(key);
+        return slot < 0 ? -1 : offsets[slot + 1] - offsets[slot];
+    }
+
+    /**
+     * Returns the members under the key in insertion order.
+     * @param key the key to be looked up.
+     * @return unmodifiable list of members, or null if the key does not exist.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> members(final Object key) {
+        final int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        return (List<V>) Collections.unmodifiableList(
+                Arrays.asList(Arrays.copyOfRange(members, offsets[slot], offsets[slot + 1])));
+    }
+
+    boolean memberExists(final Object key, final Object member) {
+        final int slot = slotOf(key);
+        return slot >= 0 && contains(slot, member);
+    }
+
+    /**
+     * Returns which of the candidates are members of the key, looking the key up once for all of them.
+     * @param key the key to be looked up.
+     * @param candidates members to be checked.
+     * @return bit i set if candidate i is a member of the key, no bit set if the key does not exist.
+     */
+    BitSet membersExist(final Object key, final List<?> candidates) {
+        final BitSet exist = new BitSet(candidates.size());
+        final int slot = slotOf(key);
+        if (slot >= 0) {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (contains(slot, candidates.get(i))) {
+                    exist.set(i);
+                }
+            }
+        }
+        return exist;
+    }
+
+    private boolean contains(final int slot, final Object member) {
+        final int from = indexOffsets[slot];
+        final int to = indexOffsets[slot + 1];
+        if (from == to) {
+            for (int m = offsets[slot]; m < offsets[slot + 1]; m++) {
+                if (members[m].equals(member)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final long hash = member.hashCode();
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (index[mid] >> 32 < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < to && index[i] >> 32 == hash; i++) {
+            if (members[(int) index[i]].equals(member)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the keys in slot order.
+     * @return list of keys.
+     */
+    @SuppressWarnings("unchecked")
+    List<K> keys() {
+        final List<K> result = new ArrayList<>(keyCount);
+        for (final Object key : keys) {
+            if (key != null) {
+                result.add((K) key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every member of every key, key by key.
+     * @return list of members.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> allMembers() {
+        return new ArrayList<>((List<V>) Arrays.asList(members));
+    }
+
+    /**
+     * Copies the keys and members into the given map, as member lists.
+     * @param target map receiving the entries.
+     */
+    @SuppressWarnings("unchecked")
+    void copyInto(final Map<K, List<V>> target) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                target.put((K) keys[slot], (List<V>) Collections.unmodifiableList(
+                        Arrays.asList(Arrays.copyOfRange(members, offsets[slot], offsets[slot + 1]))));
+            }
+        }
+    }
+
+    private int slotOf(final Object key) {
+        final int hash = key.hashCode();
+        final int slot = slot(hash, displacements[bucket(hash, displacements.length)], keys.length);
+        if (key.equals(keys[slot])) {
+            return slot;
+        }
+        if (collisions.isEmpty()) {
+            return -1;
+        }
+        final Integer collision = collisions.get(key);
+        return collision == null ? -1 : collision;
+    }
+
+    /**
+     * Finds a displacement for every bucket, largest buckets first, such that no two keys share a slot.
+     * Keys whose hash code equals the hash code of an earlier key can never be separated by displacement,
+     * so they are given the slots left free and recorded in the collisions map instead.
+     * @return slot of every key, by position in the given array.
+     */
+    private static int[] place(final Object[] keys, final int slotCount, final int[] displacements,
+                               final Map<Object, Integer> collisions) {
+        final int bucketCount = displacements.length;
+        final int[] hashes = new int[keys.length];
+        final long[] sortedHashes = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = keys[i].hashCode();
+            sortedHashes[i] = (long) hashes[i] << 32 | i;
+        }
+        Arrays.sort(sortedHashes);
+        final boolean[] colliding = new boolean[keys.length];
+        for (int i = 1; i < sortedHashes.length; i++) {
+            if (sortedHashes[i] >> 32 == sortedHashes[i - 1] >> 32) {
+                colliding[(int) sortedHashes[i]] = true;
+            }
+        }
+
+        final int[] bucketStarts = new int[bucketCount + 1];
+        int maxBucketSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (!colliding[i]) {
+                bucketStarts[bucket(hashes[i], bucketCount) + 1]++;
+            }
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            maxBucketSize = Math.max(maxBucketSize, bucketStarts[b + 1]);
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        final int[] byBucket = new int[bucketStarts[bucketCount]];
+        final int[] fill = Arrays.copyOf(bucketStarts, bucketCount);
+        for (int i = 0; i < keys.length; i++) {
+            if (!colliding[i]) {
+                byBucket[fill[bucket(hashes[i], bucketCount)]++] = i;
+            }
+        }
+
+        final int[] sizeStarts = new int[maxBucketSize + 2];
+        for (int b = 0; b < bucketCount; b++) {
+            sizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+        }
+        for (int size = 0; size <= maxBucketSize; size++) {
+            sizeStarts[size + 1] += sizeStarts[size];
+        }
+        final int[] largestFirst = new int[bucketCount];
+        for (int b = 0; b < bucketCount; b++) {
+            largestFirst[sizeStarts[maxBucketSize - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+        }
+
+        final boolean[] taken = new boolean[slotCount];
+        final int[] slotOf = new int[keys.length];
+        for (final int b : largestFirst) {
+            if (bucketStarts[b + 1] > bucketStarts[b]) {
+                displacements[b] = displace(hashes, byBucket, bucketStarts[b], bucketStarts[b + 1], slotCount,
+                        taken, slotOf);
+            }
+        }
+
+        int free = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (colliding[i]) {
+                while (taken[free]) {
+                    free++;
+                }
+                taken[free] = true;
+                slotOf[i] = free;
+                collisions.put(keys[i], free);
+            }
+        }
+        return slotOf;
+    }
+
+    private static int displace(final int[] hashes, final int[] byBucket, final int from, final int to,
+                                final int slotCount, final boolean[] taken, final int[] slotOf) {
+        for (int displacement = 0; ; displacement++) {
+            int placed = from;
+            for (; placed < to; placed++) {
+                final int slot = slot(hashes[byBucket[placed]], displacement, slotCount);
+                if (taken[slot]) {
+                    break;
+                }
+                taken[slot] = true;
+                slotOf[byBucket[placed]] = slot;
+            }
+            if (placed == to) {
+                return displacement;
+            }
+            for (int undo = from; undo < placed; undo++) {
+                taken[slotOf[byBucket[undo]]] = false;
+            }
+        }
+    }
+
+    private static int bucket(final int hash, final int bucketCount) {
+        return (int) ((MembershipFilter.mix(hash) >>> 33) % bucketCount);
+    }
+
+    private static int slot(final int hash, final int displacement, final int slotCount) {
+        return (int) ((MembershipFilter.mix(hash ^ (long) displacement << 32) >>> 1) % slotCount);
+    }
+}
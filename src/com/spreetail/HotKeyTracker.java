@@ -0,0 +1,157 @@
+package com.spreetail;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the most read keys of the MultiValueDictionary, used by HOTKEYS and to decide what the read cache keeps.
+ * One read in sampleRate is counted in a count-min sketch: DEPTH rows of counters, each key incrementing one
+ * counter per row, its estimated count being the smallest of them. The estimate never undercounts, and with
+ * WIDTH counters per row it overcounts by a small fraction of all samples. The keys with the highest estimates
+ * are kept in a top-K list. Every AGING_PERIOD samples all counts are halved, so keys that cool down leave the
+ * list and recent traffic outweighs old traffic.
+ *
+ * Sampled updates are serialized on the tracker; unsampled reads and isHot() take no lock.
+ */
+class HotKeyTracker<K> {
+
+    static final int DEFAULT_SAMPLE_RATE = 16;
+    static final int DEFAULT_TOP_K = 32;
+    static final int DEPTH = 4;
+    static final int WIDTH = 4096;
+    static final int AGING_PERIOD = 100000;
+
+    /**
+     * Samples a top-K key needs before isHot() reports it, so that a barely read key is not hot just because
+     * the top-K list has room.
+     */
+    static final int HOT_SAMPLES = 4;
+
+    private final int sampleRate;
+    private final int topK;
+    private final int[][] counters = new int[DEPTH][WIDTH];
+    private final Map<K, Integer> top = new ConcurrentHashMap<>();
+    private final LongAdder reads = new LongAdder();
+    private long samples;
+
+    HotKeyTracker() {
+        this(DEFAULT_SAMPLE_RATE, DEFAULT_TOP_K);
+    }
+
+    /**
+     * Creates a tracker counting one read in sampleRate and keeping the topK hottest keys.
+     * @param sampleRate 1 to count every read, n to count one read in n on average.
+     * @param topK number of hot keys kept.
+     */
+    HotKeyTracker(final int sampleRate, final int topK) {
+        if (sampleRate <= 0 || topK <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate " + sampleRate + " or top K " + topK);
+        }
+        this.sampleRate = sampleRate;
+        this.topK = topK;
+    }
+
+    /**
+     * Records a read of the given key, counted with probability 1 / sampleRate.
+     * @param key key that was read.
+     */
+    void record(final K key) {
+        reads.increment();
+        if (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            sample(key);
+        }
+    }
+
+    /**
+     * Returns a boolean representing if the key is one of the hottest keys.
+     * @param key key to be checked.
+     * @return boolean representing if the key is in the top-K list with at least HOT_SAMPLES samples.
+     */
+    boolean isHot(final K key) {
+        final Integer count = top.get(key);
+        return count != null && count >= HOT_SAMPLES;
+    }
+
+    /**
+     * Returns the hottest keys with their estimated reads, hottest first.
+     * @return keys with estimated read counts, scaled back up by the sample rate.
+     */
+    synchronized List<Map.Entry<K, Long>> hotKeys() {
+        final List<Map.Entry<K, Long>> hot = new ArrayList<>(top.size());
+        for (final Map.Entry<K, Integer> entry : top.entrySet()) {
+            hot.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), (long) entry.getValue() * sampleRate));
+        }
+        hot.sort(Map.Entry.<K, Long>comparingByValue().reversed());
+        return hot;
+    }
+
+    long reads() {
+        return reads.sum();
+    }
+
+    synchronized long samples() {
+        return samples;
+    }
+
+    synchronized void clear() {
+        for (final int[] row : counters) {
+            Arrays.fill(row, 0);
+        }
+        top.clear();
+        samples = 0;
+    }
+
+    private synchronized void sample(final K key) {
+        final long hash = MembershipFilter.mix(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            final int column = (int) ((hash >>> (row * 16)) & (WIDTH - 1));
+            if (counters[row][column] < Integer.MAX_VALUE) {
+                counters[row][column]++;
+            }
+            estimate = Math.min(estimate, counters[row][column]);
+        }
+
+        if (top.containsKey(key) || top.size() < topK) {
+            top.put(key, estimate);
+        } else {
+            K coldest = null;
+            int coldestCount = Integer.MAX_VALUE;
+            for (final Map.Entry<K, Integer> entry : top.entrySet()) {
+                if (entry.getValue() < coldestCount) {
+                    coldest = entry.getKey();
+                    coldestCount = entry.getValue();
+                }
+            }
+            if (estimate > coldestCount) {
+                top.remove(coldest);
+                top.put(key, estimate);
+            }
+        }
+
+        if (++samples % AGING_PERIOD == 0) {
+            age();
+        }
+    }
+
+    /**
+     * Halves every count, dropping the keys whose count reaches zero from the top-K list.
+     */
+    private void age() {
+        for (final int[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        for (final Iterator<Map.Entry<K, Integer>> it = top.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<K, Integer> entry = it.next();
+            if (entry.getValue() <= 1) {
+                it.remove();
+            } else {
+                entry.setValue(entry.getValue() >>> 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.spreetail;
+
+import java.util.*;
+
+/**
+ * Chained hash map that grows without a stop-the-world rehash, used for the keys of the MultiValueDictionary.
+ * When the map passes its load factor it allocates a table of twice the size and keeps the old one:
+ * every following put or remove moves the next MIGRATION_STEP buckets of the old table. A key lives in the
+ * old table as long as its bucket there has not moved, so lookups and inserts pick the table by bucket.
+ * The old table is fully drained long before the new one fills up, so the cost of a resize is spread
+ * evenly over the operations that caused it.
+ *
+ * Only mutations migrate, so concurrent lookups under a read lock never modify the map.
+ * Null keys and values are not supported. Iterators do not support removal.
+ */
+class IncrementalHashMap<K, V> extends AbstractMap<K, V> {
+
+    static final int DEFAULT_CAPACITY = 16;
+    static final int MIGRATION_STEP = 4;
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private Node<K, V>[] table;
+    private Node<K, V>[] old;
+    private int migrated;
+    private int size;
+    private Set<Entry<K, V>> entrySet;
+
+    IncrementalHashMap() {
+        this(0);
+    }
+
+    /**
+     * Creates a map sized for the given number of keys, so that it does not resize until they are all added.
+     * @param expectedSize number of keys the map is expected to hold.
+     */
+    IncrementalHashMap(final int expectedSize) {
+        table = newTable(capacityFor(expectedSize));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public V get(final Object key) {
+        final Node<K, V> node = find(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        migrate();
+
+        final int hash = hash(key);
+        final Node<K, V> existing = find(key, hash);
+        if (existing != null) {
+            final V previous = existing.value;
+            existing.value = value;
+            return previous;
+        }
+
+        final Node<K, V>[] tab = tableOf(hash);
+        final int index = hash & (tab.length - 1);
+        tab[index] = new Node<>(hash, key, value, tab[index]);
+        if (++size > table.length * LOAD_FACTOR) {
+            grow();
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(final Object key) {
+        if (key == null) {
+            return null;
+        }
+        migrate();
+
+        final int hash = hash(key);
+        final Node<K, V>[] tab = tableOf(hash);
+        final int index = hash & (tab.length - 1);
+        for (Node<K, V> node = tab[index], previous = null; node != null; previous = node, node = node.next) {
+            if (node.hash == hash && node.key.equals(key)) {
+                if (previous == null) {
+                    tab[index] = node.next;
+                } else {
+                    previous.next = node.next;
+                }
+                size--;
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(table, null);
+        old = null;
+        migrated = 0;
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Returns a boolean representing if buckets of a previous table are still waiting to be moved.
+     * @return boolean representing if the map is resizing.
+     */
+    boolean isResizing() {
+        return old != null;
+    }
+
+    /**
+     * Returns the number of buckets of the current table.
+     * @return capacity of the map.
+     */
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * Returns a random sample of the entries without walking the map: the entries of consecutive buckets from
+     * a random one, wrapping around. Buckets follow the hashes of the keys, so the sample is unrelated to how
+     * the entries are used, and reading neighbouring buckets is much cheaper than probing random ones.
+     * @param random source of randomness.
+     * @param count number of entries to be sampled.
+     * @return distinct entries, all of them if the map holds no more than count.
+     */
+    List<Entry<K, V>> sample(final Random random, final int count) {
+        final List<Entry<K, V>> sample = new ArrayList<>(Math.min(count, size));
+        if (size == 0) {
+            return sample;
+        }
+
+        final Node<K, V>[] previous = old;
+        final int buckets = table.length + (previous == null ? 0 : previous.length);
+        final int start = random.nextInt(buckets);
+        for (int i = 0; i < buckets && sample.size() < count; i++) {
+            final int bucket = (start + i) % buckets;
+            Node<K, V> node = bucket < table.length ? table[bucket] : previous[bucket - table.length];
+            for (; node != null && sample.size() < count; node = node.next) {
+                sample.add(node);
+            }
+        }
+        return sample;
+    }
+
+    private Node<K, V> find(final Object key) {
+        return key == null ? null : find(key, hash(key));
+    }
+
+    private Node<K, V> find(final Object key, final int hash) {
+        final Node<K, V>[] tab = tableOf(hash);
+        for (Node<K, V> node = tab[hash & (tab.length - 1)]; node != null; node = node.next) {
+            if (node.hash == hash && node.key.equals(key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the table holding the bucket of the given hash: the old table until that bucket has moved.
+     */
+    private Node<K, V>[] tableOf(final int hash) {
+        final Node<K, V>[] previous = old;
+        return previous != null && (hash & (previous.length - 1)) >= migrated ? previous : table;
+    }
+
+    /**
+     * Moves the next MIGRATION_STEP buckets of the old table into the current one.
+     */
+    private void migrate() {
+        if (old == null) {
+            return;
+        }
+
+        final int end = Math.min(old.length, migrated + MIGRATION_STEP);
+        final int mask = table.length - 1;
+        for (int i = migrated; i < end; i++) {
+            for (Node<K, V> node = old[i], next; node != null; node = next) {
+                next = node.next;
+                final int index = node.hash & mask;
+                node.next = table[index];
+                table[index] = node;
+            }
+            old[i] = null;
+        }
+        migrated = end;
+
+        if (migrated == old.length) {
+            old = null;
+            migrated = 0;
+        }
+    }
+
+    /**
+     * Starts moving to a table of twice the size. Growing by two only needs the old table drained within
+     * table.length * LOAD_FACTOR / 2 mutations, which MIGRATION_STEP buckets per mutation easily meets;
+     * if removals and re-adds still outpace it, the rest is moved here.
+     */
+    private void grow() {
+        if (table.length == MAXIMUM_CAPACITY) {
+            return;
+        }
+        while (old != null) {
+            migrate();
+        }
+        old = table;
+        migrated = 0;
+        table = newTable(old.length * 2);
+        FlightRecorderEvents.resize(old.length, table.length, size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newTable(final int capacity) {
+        return (Node<K, V>[]) new Node<?, ?>[capacity];
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        final long needed = (long) Math.ceil(expectedSize / LOAD_FACTOR);
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < needed && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(final Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node<K, V> implements Entry<K, V> {
+
+        private final int hash;
+        private final K key;
+        private V value;
+        private Node<K, V> next;
+
+        private Node(final int hash, final K key, final V value, final Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(final V value) {
+            final V previous = this.value;
+            this.value = Objects.requireNonNull(value);
+            return previous;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            final Entry<?, ?> entry = (Entry<?, ?>) o;
+            return key.equals(entry.getKey()) && value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+    }
+
+    /**
+     * Walks the unmigrated buckets of the old table, then the current table.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private final Node<K, V>[] previous = old;
+        private final Node<K, V>[] current = table;
+        private final int start = migrated;
+        private Node<K, V>[] tab = previous != null ? previous : current;
+        private int index = previous != null ? start : 0;
+        private Node<K, V> next;
+
+        private EntryIterator() {
+            advance(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            final Node<K, V> node = next;
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            advance(node.next);
+            return node;
+        }
+
+        private void advance(Node<K, V> node) {
+            while (node == null) {
+                if (index == tab.length) {
+                    if (tab == current) {
+                        break;
+                    }
+                    tab = current;
+                    index = 0;
+                }
+                node = tab[index++];
+            }
+            next = node;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.spreetail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Reports the keys whose commands took the most time in a Flight Recorder recording of the dictionary.
+ * Usage: java -cp WorkSample.jar com.spreetail.JfrAnalyzer &lt;recording.jfr&gt; [count]
+ *
+ * Reads the com.spreetail.Command events and ranks keys by the total duration of their commands; commands
+ * without a key are reported together. The recording is read through jdk.jfr.consumer reflectively, the
+ * jar still targets Java 8, so the analyzer needs a JVM with Flight Recorder.
+ */
+public class JfrAnalyzer {
+
+    static final int DEFAULT_COUNT = 10;
+    static final String NO_KEY = "(no key)";
+
+    /**
+     * Prints the slowest keys of the given recording, 1 per line.
+     * @param args path of the recording, then optionally the number of keys to report.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: JfrAnalyzer <recording.jfr> [count]");
+            return;
+        }
+
+        final List<KeyReport> reports = slowKeys(Paths.get(args[0]),
+                args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_COUNT);
+        if (reports.isEmpty()) {
+            System.out.println(DictionaryHandler.EMPTY_SET);
+            return;
+        }
+
+        for (int i = 0; i < reports.size(); i++) {
+            System.out.println(i+1 + DictionaryHandler.PREFIX + reports.get(i));
+        }
+    }
+
+    /**
+     * Reads the command events of a recording and returns its slowest keys.
+     * @param recording path of a Flight Recorder recording.
+     * @param count number of keys to return at most.
+     * @return keys ordered by total command duration, slowest first.
+     * @throws IOException if the recording cannot be read, or Flight Recorder is not available.
+     */
+    static List<KeyReport> slowKeys(final Path recording, final int count) throws IOException {
+        final Map<String, KeyReport> reports = new HashMap<>();
+        for (final Object event : readAllEvents(recording)) {
+            if (!FlightRecorderEvents.COMMAND.equals(eventName(event))) {
+                continue;
+            }
+            final String key = (String) call(event, "getString", "key");
+            final String command = (String) call(event, "getString", "command");
+            final Duration duration = (Duration) call(event, "getDuration");
+            reports.computeIfAbsent(key == null ? NO_KEY : key, KeyReport::new).add(command, duration.toNanos());
+        }
+        return rank(reports.values(), count);
+    }
+
+    /**
+     * Returns the reports with the longest total duration.
+     * @param reports report of every key.
+     * @param count number of reports to return at most.
+     * @return reports ordered by total duration, slowest first.
+     */
+    static List<KeyReport> rank(final Collection<KeyReport> reports, final int count) {
+        final List<KeyReport> ranked = new ArrayList<>(reports);
+        ranked.sort(Comparator.comparingLong((KeyReport report) -> report.totalNanos).reversed()
+                .thenComparing(report -> report.key));
+        return ranked.subList(0, Math.min(count, ranked.size()));
+    }
+
+    /**
+     * Reads every event of a recording with jdk.jfr.consumer.RecordingFile.
+     * @param recording path of a Flight Recorder recording.
+     * @return the jdk.jfr.consumer.RecordedEvent objects of the recording.
+     * @throws IOException if the recording cannot be read, or Flight Recorder is not available.
+     */
+    static List<?> readAllEvents(final Path recording) throws IOException {
+        try {
+            final Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            return (List<?>) recordingFile.getMethod("readAllEvents", Path.class).invoke(null, recording);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            throw new IOException("Flight Recorder is not available in this JVM", e);
+        }
+    }
+
+    /**
+     * Returns the name of the type of a recorded event.
+     * @param event a jdk.jfr.consumer.RecordedEvent.
+     * @return name of the event type.
+     * @throws IOException if the event cannot be read.
+     */
+    static String eventName(final Object event) throws IOException {
+        return (String) call(call(event, "getEventType"), "getName");
+    }
+
+    /**
+     * Calls a public method of a recorded object whose parameters are all strings, such as the field getters.
+     * @param target recorded object.
+     * @param name name of the method.
+     * @param args string arguments of the method.
+     * @return result of the method.
+     * @throws IOException if the method cannot be called.
+     */
+    static Object call(final Object target, final String name, final Object... args) throws IOException {
+        try {
+            final Class<?>[] types = new Class<?>[args.length];
+            Arrays.fill(types, String.class);
+            final Method method = target.getClass().getMethod(name, types);
+            return method.invoke(target, args);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            throw new IOException("Unreadable event " + name, e);
+        }
+    }
+
+    /**
+     * The commands recorded for one key.
+     */
+    static final class KeyReport {
+
+        private final String key;
+        private long commands;
+        private long totalNanos;
+        private long maxNanos;
+        private String slowestCommand;
+
+        KeyReport(final String key) {
+            this.key = key;
+        }
+
+        void add(final String command, final long nanos) {
+            commands++;
+            totalNanos += nanos;
+            if (nanos >= maxNanos) {
+                maxNanos = nanos;
+                slowestCommand = command;
+            }
+        }
+
+        String key() {
+            return key;
+        }
+
+        long commands() {
+            return commands;
+        }
+
+        long totalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d commands, total %.3f ms, max %.3f ms (%s)", key, commands,
+                    totalNanos / 1e6, maxNanos / 1e6, slowestCommand);
+        }
+    }
+}
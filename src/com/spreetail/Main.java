@@ -2,24 +2,75 @@ package com.spreetail;
 
 import static com.spreetail.Command.valueOf;
 
-import java.util.Arrays;
-import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class Main {
 
     private static final String DELIMITER = " ";
     private static final String USER_ENTRY_PREFIX = "> ";
-    private static boolean run = true;
+    private static volatile boolean run = true;
 
-    private static final DictionaryHandler dictionaryHandler = new DictionaryHandler();
+    private static final String OPTION_FILTER = "--filter";
+    private static final String OPTION_SUBSCRIBER_OVERFLOW = "--subscriber-overflow";
+    private static final String OPTION_TYPES = "--types";
+    private static final String OPTION_CAPACITY = "--capacity";
+    private static final String OPTION_CACHE = "--cache";
+    private static final String OPTION_ADMISSION = "--admission";
+    private static final String OPTION_CLIENT_RATE = "--client-rate";
+    private static final String OPTION_RECORD = "--record";
+    private static final String OPTION_COMMAND = "-c";
+    private static final String OPTION_DATA = "--data";
+    private static final String OPTION_TIER = "--tier";
+    private static final String CONSOLE_CLIENT = "console";
+    private static final String CLIENT_PREFIX = "@";
+    private static final Set<String> COMMAND_NAMES = commandNames();
+
+    private static DictionaryHandler<?, ?> dictionaryHandler;
+    private static CommandDispatcher dispatcher;
+    private static AdmissionController admissionController;
+    private static WorkloadTrace.Recorder recorder;
 
     /**
      * This is the main loop that allows the user to continue to enter commands until they enter the 'EXIT' command.
-     * @param args Program input arguments, not needed for this program currently.
+     * @param args Program input arguments:
+     * - --filter &lt;expectedMembers&gt; [falsePositiveRate]: enables the membership filter in front of lookups.
+     * - --subscriber-overflow &lt;DROP|BLOCK|DISCONNECT&gt;: overflow policy of SUBSCRIBE, defaults to DROP.
+     * - --types &lt;key&gt;:&lt;member&gt;: types of the keys and members, string or long, defaults to string:string.
+     * - --capacity &lt;expectedKeys&gt;: pre-sizes the dictionary for the expected number of keys.
+     * - --cache &lt;keys&gt;: caches the members of the given number of hot keys.
+     * - --admission &lt;BLOCK|SHED|RATE_LIMIT&gt; [capacity]: queues commands in a bounded admission queue. A line
+     *   starting with @&lt;client&gt; is queued as that client, otherwise as the console.
+     * - --client-rate &lt;commandsPerSecond&gt; [burst]: rate of each client under the RATE_LIMIT policy.
+     * - --record &lt;trace&gt;: records the commands with their timing, to be replayed by the WorkloadTool.
+     * - -c &lt;command&gt;: runs the command and exits instead of reading commands, may be repeated.
+     * - --data &lt;file&gt;: with -c, loads the dictionary from the file first and saves it back if it changed.
+     * - --tier &lt;directory&gt; &lt;maxHotKeys&gt;: keeps at most maxHotKeys keys in memory, spilling the
+     *   others to segment files in the directory, which are deleted on exit.
      */
-    public static void main(String[] args) {
-        final Scanner scanner = new Scanner(System.in);
+    public static void main(String[] args) throws IOException {
+        final List<String> commands = commandsOf(args);
+        if (!commands.isEmpty()) {
+            runCommands(commands, args);
+            return;
+        }
+
+        dictionaryHandler = createHandler(args);
+        dispatcher = CommandDispatcher.create();
+        admissionController = createAdmissionController(args);
+        dictionaryHandler.setAdmissionController(admissionController);
+        recorder = createRecorder(args);
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
         System.out.println("Welcome to the Multi-Value Dictionary App, type HELP to see supported commands.");
         System.out.println();
@@ -27,58 +78,355 @@ public class Main {
 	    String userInput;
 
 	    while (run) {
-	        System.out.print(USER_ENTRY_PREFIX);
-	        userInput = scanner.nextLine();
+	        if (admissionController == null) {
+	            System.out.print(USER_ENTRY_PREFIX);
+	        }
+	        userInput = reader.readLine();
+	        if (userInput == null) {
+	            break;
+	        }
 
-	        final String[] inputData = userInput.split(DELIMITER);
+	        final String client = clientOf(userInput);
+	        final String[] inputData = commandOf(userInput).split(DELIMITER);
 
 	        if (inputData.length == 0 || !isValidCommand(inputData[0])) {
 	            System.out.println("ERROR, Invalid command.");
 	            continue;
             }
 
-            parseInput(inputData);
+            if (recorder != null) {
+                recorder.record(inputData);
+            }
+            parseInput(client, inputData);
+        }
+
+        reader.close();
+        if (admissionController != null) {
+            admissionController.close();
+        }
+        dispatcher.close();
+        if (recorder != null) {
+            recorder.close();
+        }
+        dictionaryHandler.close();
+    }
+
+    /**
+     * Runs the commands given with -c in order, against the dictionary stored in the --data file if one is
+     * given. Nothing but the dictionary is created: no dispatcher, admission queue or console.
+     * The commands are not run if the file cannot be loaded, so that it is never overwritten.
+     * @param commands commands to be run.
+     * @param args program input arguments.
+     */
+    private static void runCommands(final List<String> commands, final String[] args) {
+        final DictionaryHandler<?, ?> handler = createHandler(args);
+        final Path data = dataOf(args);
+        if (data != null && Files.exists(data)) {
+            try {
+                handler.load(data);
+            } catch (final DictionaryException de) {
+                System.out.println(de.getMessage());
+                return;
+            } catch (final IOException | RuntimeException e) {
+                System.out.println(DictionaryHandler.ERROR_IO + e.getMessage());
+                return;
+            }
+        }
+
+        final long modifications = handler.modifications();
+        for (final String command : commands) {
+            final String[] inputData = commandOf(command).split(DELIMITER);
+            if (inputData.length == 0 || !isValidCommand(inputData[0])) {
+                System.out.println("ERROR, Invalid command.");
+                continue;
+            }
+            execute(handler, inputData);
+        }
+
+        if (data != null && handler.modifications() != modifications) {
+            try {
+                handler.save(data);
+            } catch (final IOException | RuntimeException e) {
+                System.out.println(DictionaryHandler.ERROR_IO + e.getMessage());
+            }
+        }
+        handler.close();
+    }
+
+    /**
+     * Returns the commands given with -c, in order.
+     * @param args program input arguments.
+     * @return commands to be run, empty to read commands from the console.
+     */
+    static List<String> commandsOf(final String[] args) {
+        final List<String> commands = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (OPTION_COMMAND.equals(args[i])) {
+                commands.add(args[++i]);
+            }
+        }
+        return commands;
+    }
+
+    private static Path dataOf(final String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (OPTION_DATA.equals(args[i])) {
+                return Paths.get(args[i + 1]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the client a console line is submitted as to the admission queue: the name following CLIENT_PREFIX
+     * when the line starts with it, as in "@ingest ADD key member", otherwise the console client. Commands of
+     * one client run in order, and queries of one client run before the writes of another.
+     * @param line line entered by the user.
+     * @return client of the line.
+     */
+    static String clientOf(final String line) {
+        if (!line.startsWith(CLIENT_PREFIX)) {
+            return CONSOLE_CLIENT;
         }
+        final int end = line.indexOf(DELIMITER);
+        final String client = end < 0 ? line.substring(CLIENT_PREFIX.length())
+                : line.substring(CLIENT_PREFIX.length(), end);
+        return client.isEmpty() ? CONSOLE_CLIENT : client;
+    }
 
-        scanner.close();
+    /**
+     * Returns a console line without its client, if it names one.
+     * @param line line entered by the user.
+     * @return command of the line.
+     */
+    static String commandOf(final String line) {
+        if (!line.startsWith(CLIENT_PREFIX)) {
+            return line;
+        }
+        final int end = line.indexOf(DELIMITER);
+        return end < 0 ? "" : line.substring(end + 1);
+    }
+
+    /**
+     * Method to hand the command entered by the user to the dispatcher, which serializes it with the other
+     * commands on the same key. The console waits for each command so its output stays in order, unless an
+     * admission queue is enabled, which runs the commands of every client in order.
+     * @param client client submitting the command to the admission queue.
+     * @param inputData string array containing the data entered by the user.
+     */
+    private static void parseInput(final String client, final String[] inputData) {
+        if (admissionController == null) {
+            dispatch(client, inputData);
+            return;
+        }
+
+        try {
+            admissionController.submit(client, priorityOf(inputData), () -> dispatch(client, inputData));
+        } catch (final DictionaryException de) {
+            System.out.println(de.getMessage());
+        }
+        if (valueOf(inputData[0]) == Command.EXIT) {
+            run = false;
+        }
+    }
+
+    /**
+     * Runs a command with the handler of its client, so that clients have their own transactions and subscriptions.
+     * @param client client submitting the command.
+     * @param inputData string array containing the data entered by the user.
+     */
+    private static void dispatch(final String client, final String[] inputData) {
+        final DictionaryHandler<?, ?> handler = dictionaryHandler.client(client);
+        final String key = handler.inTransaction() ? null : keyOf(inputData);
+        dispatcher.dispatch(key, () -> execute(handler, inputData)).join();
+    }
+
+    /**
+     * Returns the admission priority of a command: queries are reads, commands changing or scanning the whole
+     * dictionary are writes.
+     * @param inputData string array containing the data entered by the user.
+     * @return priority of the command.
+     */
+    static AdmissionController.Priority priorityOf(final String[] inputData) {
+        switch (valueOf(inputData[0])) {
+            case KEYS:
+            case MEMBERS:
+            case KEYEXISTS:
+            case MEMBEREXISTS:
+            case MEMBERSEXIST:
+            case COUNT:
+            case CARD:
+            case DISTINCTMEMBERS:
+            case TOP:
+            case RANGEBYSCORE:
+            case VERSION:
+            case SEARCH:
+            case HOTKEYS:
+            case STATS:
+            case HELP:
+                return AdmissionController.Priority.READ;
+            default:
+                return AdmissionController.Priority.WRITE;
+        }
+    }
+
+    /**
+     * Returns the key a command operates on, commands operating on the whole dictionary have no key.
+     * @param inputData string array containing the data entered by the user.
+     * @return key of the command, or null if the command is not limited to one key.
+     */
+    static String keyOf(final String[] inputData) {
+        if (inputData.length < 2) {
+            return null;
+        }
+
+        switch (valueOf(inputData[0])) {
+            case ADD:
+            case REMOVE:
+            case REMOVEALL:
+            case MEMBERS:
+            case KEYEXISTS:
+            case MEMBEREXISTS:
+            case MEMBERSEXIST:
+            case CARD:
+            case INCRBY:
+            case TOP:
+            case RANGEBYSCORE:
+            case VERSION:
+            case REPLACE:
+            case ADDIFABSENTKEY:
+                return inputData[1];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Method to run the command entered by the user, recorded as a Flight Recorder event when enabled.
+     * @param handler dictionary handler running the command.
+     * @param inputData string array containing the data entered by the user.
+     */
+    static void execute(final DictionaryHandler<?, ?> handler, final String[] inputData) {
+        final Object event = FlightRecorderEvents.beginCommand();
+        try {
+            apply(handler, inputData);
+        } finally {
+            FlightRecorderEvents.endCommand(event, valueOf(inputData[0]), keyOf(inputData));
+        }
     }
 
     /**
      * Method to translate the command entered by the user to a method to handle the command.
+     * @param handler dictionary handler running the command.
      * @param inputData string array containing the data entered by the user.
      */
-    private static void parseInput(final String[] inputData) {
+    private static void apply(final DictionaryHandler<?, ?> handler, final String[] inputData) {
+        if (handler.queue(inputData)) {
+            return;
+        }
 
         switch (valueOf(inputData[0])) {
             case ADD:
-                dictionaryHandler.handleAdd(inputData);
+                handler.handleAdd(inputData);
                 break;
             case REMOVE:
-                dictionaryHandler.handleRemove(inputData);
+                handler.handleRemove(inputData);
                 break;
             case REMOVEALL:
-                dictionaryHandler.handleRemoveAll(inputData);
+                handler.handleRemoveAll(inputData);
                 break;
             case KEYS:
-                dictionaryHandler.handleKeys(inputData);
+                handler.handleKeys(inputData);
                 break;
             case MEMBERS:
-                dictionaryHandler.handleMembers(inputData);
+                handler.handleMembers(inputData);
                 break;
             case CLEAR:
-                dictionaryHandler.handleClear(inputData);
+                handler.handleClear(inputData);
                 break;
             case KEYEXISTS:
-                dictionaryHandler.handleKeyExists(inputData);
+                handler.handleKeyExists(inputData);
                 break;
             case MEMBEREXISTS:
-                dictionaryHandler.handleMemberExists(inputData);
+                handler.handleMemberExists(inputData);
+                break;
+            case MEMBERSEXIST:
+                handler.handleMembersExist(inputData);
                 break;
             case ALLMEMBERS:
-                dictionaryHandler.handleAllMembers(inputData);
+                handler.handleAllMembers(inputData);
                 break;
             case ITEMS:
-                dictionaryHandler.handleItems(inputData);
+                handler.handleItems(inputData);
+                break;
+            case COUNT:
+                handler.handleCount(inputData);
+                break;
+            case CARD:
+                handler.handleCard(inputData);
+                break;
+            case DISTINCTMEMBERS:
+                handler.handleDistinctMembers(inputData);
+                break;
+            case INCRBY:
+                handler.handleIncrBy(inputData);
+                break;
+            case TOP:
+                handler.handleTop(inputData);
+                break;
+            case RANGEBYSCORE:
+                handler.handleRangeByScore(inputData);
+                break;
+            case VERSION:
+                handler.handleVersion(inputData);
+                break;
+            case REPLACE:
+                handler.handleReplace(inputData);
+                break;
+            case ADDIFABSENTKEY:
+                handler.handleAddIfAbsentKey(inputData);
+                break;
+            case SUBSCRIBE:
+                handler.handleSubscribe(inputData);
+                break;
+            case UNSUBSCRIBE:
+                handler.handleUnsubscribe(inputData);
+                break;
+            case EXPORT:
+                handler.handleExport(inputData);
+                break;
+            case IMPORT:
+                handler.handleImport(inputData);
+                break;
+            case MULTI:
+                handler.handleMulti(inputData);
+                break;
+            case EXEC:
+                handler.handleExec(inputData);
+                break;
+            case DISCARD:
+                handler.handleDiscard(inputData);
+                break;
+            case WATCH:
+                handler.handleWatch(inputData);
+                break;
+            case SEARCH:
+                handler.handleSearch(inputData);
+                break;
+            case INDEX:
+                handler.handleIndex(inputData);
+                break;
+            case FREEZE:
+                handler.handleFreeze(inputData);
+                break;
+            case THAW:
+                handler.handleThaw(inputData);
+                break;
+            case HOTKEYS:
+                handler.handleHotKeys(inputData);
+                break;
+            case STATS:
+                handler.handleStats(inputData);
                 break;
             case HELP:
                 printCommands();
@@ -89,16 +437,154 @@ public class Main {
         }
     }
 
+    /**
+     * Creates the dictionary handler for the key and member types configured by the program input arguments.
+     * @param args program input arguments.
+     * @return dictionary handler used by the console.
+     */
+    static DictionaryHandler<?, ?> createHandler(final String[] args) {
+        String types = "string:string";
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (OPTION_TYPES.equals(args[i])) {
+                types = args[i + 1];
+            }
+        }
+
+        final String[] codecs = types.split(":");
+        if (codecs.length != 2) {
+            throw new IllegalArgumentException("Invalid types " + types);
+        }
+        return createHandler(Codec.forName(codecs[0]), Codec.forName(codecs[1]), args);
+    }
+
+    private static <K, V> DictionaryHandler<K, V> createHandler(final Codec<K> keyCodec, final Codec<V> memberCodec,
+                                                                final String[] args) {
+        final MultiValueDictionary<K, V> dictionary = createDictionary(keyCodec, memberCodec, args);
+        return new DictionaryHandler<>(dictionary, keyCodec, memberCodec, overflowPolicy(args));
+    }
+
+    /**
+     * Creates the dictionary configured by the program input arguments.
+     * @param keyCodec codec of the keys, used by the cold store.
+     * @param memberCodec codec of the members, used by the cold store.
+     * @param args program input arguments.
+     * @return dictionary to be used by the dictionary handler.
+     * @throws UncheckedIOException if the directory of the cold store cannot be prepared.
+     */
+    private static <K, V> MultiValueDictionary<K, V> createDictionary(final Codec<K> keyCodec,
+                                                                      final Codec<V> memberCodec,
+                                                                      final String[] args) {
+        MembershipFilter<K, V> filter = null;
+        int expectedKeys = 0;
+        int cacheCapacity = 0;
+        ColdStore<K, V> cold = null;
+        int maxHotKeys = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            if (OPTION_CAPACITY.equals(args[i]) && i + 1 < args.length) {
+                expectedKeys = Integer.parseInt(args[++i]);
+            }
+            if (OPTION_CACHE.equals(args[i]) && i + 1 < args.length) {
+                cacheCapacity = Integer.parseInt(args[++i]);
+            }
+            if (OPTION_FILTER.equals(args[i]) && i + 1 < args.length) {
+                final long expectedMembers = Long.parseLong(args[++i]);
+                final double falsePositiveRate = i + 1 < args.length && !args[i + 1].startsWith("--")
+                        ? Double.parseDouble(args[++i])
+                        : MembershipFilter.DEFAULT_FALSE_POSITIVE_RATE;
+                filter = new MembershipFilter<>(expectedMembers, falsePositiveRate);
+            }
+            if (OPTION_TIER.equals(args[i]) && i + 2 < args.length) {
+                final Path directory = Paths.get(args[++i]);
+                maxHotKeys = Integer.parseInt(args[++i]);
+                try {
+                    cold = new ColdStore<>(directory, keyCodec, memberCodec);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        return new MultiValueDictionary<>(expectedKeys, filter, cacheCapacity, cold, maxHotKeys);
+    }
+
+    /**
+     * Creates the admission controller configured by the program input arguments.
+     * @param args program input arguments.
+     * @return admission controller, or null if commands are run as they are read.
+     */
+    private static AdmissionController createAdmissionController(final String[] args) {
+        AdmissionController.Policy policy = null;
+        int capacity = AdmissionController.DEFAULT_CAPACITY;
+        double rate = 1000;
+        int burst = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            if (OPTION_ADMISSION.equals(args[i]) && i + 1 < args.length) {
+                policy = AdmissionController.Policy.valueOf(args[++i]);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    capacity = Integer.parseInt(args[++i]);
+                }
+            }
+            if (OPTION_CLIENT_RATE.equals(args[i]) && i + 1 < args.length) {
+                rate = Double.parseDouble(args[++i]);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    burst = Integer.parseInt(args[++i]);
+                }
+            }
+        }
+
+        if (policy == null) {
+            return null;
+        }
+        return new AdmissionController(capacity, policy, rate, burst > 0 ? burst : (int) Math.ceil(rate),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the recorder of the commands read by the console, if the program input arguments ask for one.
+     * @param args program input arguments.
+     * @return trace recorder, or null if commands are not recorded.
+     * @throws IOException if the trace file cannot be created.
+     */
+    private static WorkloadTrace.Recorder createRecorder(final String[] args) throws IOException {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (OPTION_RECORD.equals(args[i])) {
+                return new WorkloadTrace.Recorder(Paths.get(args[i + 1]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the overflow policy for console subscriptions configured by the program input arguments.
+     * @param args program input arguments.
+     * @return overflow policy applied to slow subscribers.
+     */
+    private static MutationStream.OverflowPolicy overflowPolicy(final String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (OPTION_SUBSCRIBER_OVERFLOW.equals(args[i])) {
+                return MutationStream.OverflowPolicy.valueOf(args[i + 1]);
+            }
+        }
+        return MutationStream.OverflowPolicy.DROP;
+    }
+
     /**
      * Returns true if the input command is supported by the dictionary.
      * @param command the input command to be checked.
      * @return boolean showing if the command is supported.
      */
     private static boolean isValidCommand(final String command) {
-        return Arrays.stream(Command.values())
-                .map(Enum::name)
-                .collect(Collectors.toList())
-                .contains(command);
+        return COMMAND_NAMES.contains(command);
+    }
+
+    private static Set<String> commandNames() {
+        final Set<String> names = new HashSet<>();
+        for (final Command command : Command.values()) {
+            names.add(command.name());
+        }
+        return names;
     }
 
     /**
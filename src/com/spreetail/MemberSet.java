@@ -0,0 +1,540 @@
+package com.spreetail;
+
+import java.util.*;
+
+/**
+ * Size-adaptive storage for the members stored under a single key of the MultiValueDictionary.
+ * Most keys hold only a handful of members, so the representation changes with the size of the key:
+ * - Single: one member held inline, no backing array.
+ * - Packed: a small array scanned linearly, up to PACKED_CAPACITY members.
+ * - Hashed: an insertion-ordered hash set for large keys.
+ * - Longs: Long members of any count held unboxed in a long array, indexed by a hash table once the key has
+ *   more than PACKED_CAPACITY of them, so dictionaries of long members (--types x:long) keep 8 bytes a member
+ *   instead of a reference and a Long. The members are boxed again when they are read.
+ * Keys promote on add and demote on remove, so callers must always keep the returned set.
+ * All representations iterate in insertion order.
+ */
+abstract class MemberSet<V> implements Iterable<V> {
+
+    static final int PACKED_INITIAL_CAPACITY = 4;
+    static final int PACKED_CAPACITY = 8;
+    static final int DEMOTE_THRESHOLD = PACKED_CAPACITY / 2;
+
+    /**
+     * Version of the key holding the set, stamped by MultiValueDictionary after every change of the key.
+     * Not carried over to the set returned by add and remove.
+     */
+    long version;
+
+    /**
+     * System.nanoTime() of the last use of the key, stamped by a MultiValueDictionary with a cold store to pick
+     * the keys it spills. Racy updates from concurrent readers are harmless.
+     */
+    long accessed;
+
+    /**
+     * Creates the representation for a key holding a single member.
+     * @param member the first member of the key.
+     * @return member set holding only the given member.
+     */
+    static <V> MemberSet<V> of(final V member) {
+        return new Single<>(member);
+    }
+
+    /**
+     * Returns the number of members in the set.
+     * @return number of members.
+     */
+    abstract int size();
+
+    /**
+     * Returns a boolean representing if the given member is in the set.
+     * @param member member to be checked.
+     * @return boolean representing if the member is in the set.
+     */
+    abstract boolean contains(V member);
+
+    /**
+     * Adds a member that is not yet in the set, promoting the representation if needed.
+     * @param member member to be added.
+     * @return the set now holding the members, which may not be this instance.
+     */
+    abstract MemberSet<V> add(V member);
+
+    /**
+     * Removes a member that is in the set, demoting the representation if needed.
+     * @param member member to be removed.
+     * @return the set now holding the members, or null if the set is now empty.
+     */
+    abstract MemberSet<V> remove(V member);
+
+    /**
+     * Returns an unmodifiable snapshot of the members in insertion order.
+     * @return list of members.
+     */
+    abstract List<V> toList();
+
+    /**
+     * A key with exactly one member, stored inline.
+     */
+    static final class Single<V> extends MemberSet<V> {
+
+        private final V member;
+
+        Single(final V member) {
+            this.member = member;
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        boolean contains(final V v) {
+            return member.equals(v);
+        }
+
+        @Override
+        MemberSet<V> add(final V v) {
+            if (member instanceof Long && v instanceof Long) {
+                return new Longs<>((Long) member, (Long) v);
+            }
+            return new Packed<>(new Object[] {member, v});
+        }
+
+        @Override
+        MemberSet<V> remove(final V v) {
+            return null;
+        }
+
+        @Override
+        List<V> toList() {
+            return Collections.singletonList(member);
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return Collections.singletonList(member).iterator();
+        }
+    }
+
+    /**
+     * A key with a few members, stored in a small array that is scanned linearly.
+     */
+    static final class Packed<V> extends MemberSet<V> {
+
+        private Object[] members;
+        private int size;
+
+        /**
+         * Creates a set holding the given members.
+         * @param initial members of the set, distinct and in insertion order.
+         */
+        Packed(final Object[] initial) {
+            members = new Object[Math.max(PACKED_INITIAL_CAPACITY, initial.length)];
+            System.arraycopy(initial, 0, members, 0, initial.length);
+            size = initial.length;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        boolean contains(final V v) {
+            return indexOf(v) >= 0;
+        }
+
+        @Override
+        MemberSet<V> add(final V v) {
+            if (size == PACKED_CAPACITY) {
+                return new Hashed<>(this).add(v);
+            }
+            if (size == members.length) {
+                members = Arrays.copyOf(members, PACKED_CAPACITY);
+            }
+            members[size++] = v;
+            return this;
+        }
+
+        @Override
+        MemberSet<V> remove(final V v) {
+            final int index = indexOf(v);
+            if (index < 0) {
+                return this;
+            }
+            if (size == 2) {
+                return new Single<>(get(1 - index));
+            }
+            System.arraycopy(members, index + 1, members, index, size - index - 1);
+            members[--size] = null;
+            return this;
+        }
+
+        @Override
+        List<V> toList() {
+            return Collections.unmodifiableList(Arrays.asList(snapshot()));
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return toList().iterator();
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(final int index) {
+            return (V) members[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        private V[] snapshot() {
+            return (V[]) Arrays.copyOf(members, size);
+        }
+
+        private int indexOf(final V v) {
+            for (int i = 0; i < size; i++) {
+                if (members[i].equals(v)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A key with many members, stored as a dense insertion-ordered array indexed by an open-addressing table.
+     * Removed members leave holes in the array that are compacted once they outnumber the live members.
+     */
+    static final class Hashed<V> extends MemberSet<V> {
+
+        private static final int EMPTY = 0;
+        private static final int DELETED = -1;
+
+        private Object[] members;
+        private int[] table;
+        private int used;
+        private int size;
+
+        Hashed(final Packed<V> packed) {
+            members = Arrays.copyOf(packed.members, PACKED_CAPACITY * 2);
+            used = packed.size;
+            size = packed.size;
+            rebuildTable();
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        boolean contains(final V v) {
+            return findSlot(v) >= 0;
+        }
+
+        @Override
+        MemberSet<V> add(final V v) {
+            if (used == members.length) {
+                members = Arrays.copyOf(members, size * 2 > members.length ? members.length * 2 : members.length);
+                compact();
+            }
+            members[used++] = v;
+            insert(v, used);
+            size++;
+            return this;
+        }
+
+        @Override
+        MemberSet<V> remove(final V v) {
+            final int slot = findSlot(v);
+            if (slot < 0) {
+                return this;
+            }
+            members[table[slot] - 1] = null;
+            table[slot] = DELETED;
+            size--;
+
+            if (size <= DEMOTE_THRESHOLD) {
+                return new Packed<>(toList().toArray());
+            }
+            if (used - size > size) {
+                compact();
+            }
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        List<V> toList() {
+            final List<V> list = new ArrayList<>(size);
+            for (int i = 0; i < used; i++) {
+                if (members[i] != null) {
+                    list.add((V) members[i]);
+                }
+            }
+            return Collections.unmodifiableList(list);
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return toList().iterator();
+        }
+
+        private int findSlot(final V v) {
+            final int mask = table.length - 1;
+            for (int slot = spread(v.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+                final int index = table[slot];
+                if (index == EMPTY) {
+                    return -1;
+                }
+                if (index != DELETED && members[index - 1].equals(v)) {
+                    return slot;
+                }
+            }
+        }
+
+        private void insert(final V v, final int index) {
+            final int mask = table.length - 1;
+            int slot = spread(v.hashCode()) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index;
+        }
+
+        /**
+         * Closes the holes left by removed members and rebuilds the table, which also clears its tombstones.
+         */
+        private void compact() {
+            int live = 0;
+            for (int i = 0; i < used; i++) {
+                if (members[i] != null) {
+                    members[live++] = members[i];
+                }
+            }
+            Arrays.fill(members, live, used, null);
+            used = live;
+            rebuildTable();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void rebuildTable() {
+            table = new int[Integer.highestOneBit(members.length) * 2];
+            for (int i = 0; i < used; i++) {
+                insert((V) members[i], i + 1);
+            }
+        }
+
+        private static int spread(final int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * A key whose members are all Longs, stored unboxed in a dense insertion-ordered array. Small keys are
+     * scanned linearly; larger ones are indexed by an open-addressing table like Hashed. Removed members leave
+     * holes, marked in a bit set, that are compacted once they outnumber the live members. Adding a member
+     * that is not a Long converts the key to the boxed representations.
+     */
+    static final class Longs<V> extends MemberSet<V> {
+
+        private static final int EMPTY = 0;
+        private static final int DELETED = -1;
+
+        private long[] members;
+        private BitSet holes;
+        private int[] table;
+        private int used;
+        private int size;
+
+        Longs(final long first, final long second) {
+            members = new long[PACKED_INITIAL_CAPACITY];
+            members[0] = first;
+            members[1] = second;
+            used = 2;
+            size = 2;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        boolean contains(final V v) {
+            return v instanceof Long && indexOf((Long) v) >= 0;
+        }
+
+        @Override
+        MemberSet<V> add(final V v) {
+            if (!(v instanceof Long)) {
+                return boxed().add(v);
+            }
+            if (used == members.length) {
+                if (holes != null) {
+                    compact();
+                }
+                if (used == members.length) {
+                    members = Arrays.copyOf(members, members.length * 2);
+                    if (members.length > PACKED_CAPACITY) {
+                        rebuildTable();
+                    }
+                }
+            }
+            final long value = (Long) v;
+            members[used++] = value;
+            size++;
+            if (table != null) {
+                insert(value, used);
+            }
+            return this;
+        }
+
+        @Override
+        MemberSet<V> remove(final V v) {
+            if (!(v instanceof Long)) {
+                return this;
+            }
+            final int index = indexOf((Long) v);
+            if (index < 0) {
+                return this;
+            }
+            if (size == 2) {
+                return new Single<>(member(index == first() ? next(index + 1) : first()));
+            }
+            if (table != null) {
+                table[slotOf(index)] = DELETED;
+            }
+            if (holes == null) {
+                holes = new BitSet(used);
+            }
+            holes.set(index);
+            size--;
+            if (used - size > size) {
+                compact();
+            }
+            return this;
+        }
+
+        @Override
+        List<V> toList() {
+            final List<V> list = new ArrayList<>(size);
+            for (int i = first(); i < used; i = next(i + 1)) {
+                list.add(member(i));
+            }
+            return Collections.unmodifiableList(list);
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return toList().iterator();
+        }
+
+        @SuppressWarnings("unchecked")
+        private V member(final int index) {
+            return (V) Long.valueOf(members[index]);
+        }
+
+        private int first() {
+            return next(0);
+        }
+
+        /**
+         * Returns the index of the first live member at or after the given index, used if there is none.
+         */
+        private int next(final int from) {
+            if (holes == null) {
+                return Math.min(from, used);
+            }
+            final int index = holes.nextClearBit(from);
+            return Math.min(index, used);
+        }
+
+        private int indexOf(final long value) {
+            if (table == null) {
+                for (int i = 0; i < used; i++) {
+                    if (members[i] == value && (holes == null || !holes.get(i))) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            final int mask = table.length - 1;
+            for (int slot = spread(value) & mask; ; slot = (slot + 1) & mask) {
+                final int index = table[slot];
+                if (index == EMPTY) {
+                    return -1;
+                }
+                if (index != DELETED && members[index - 1] == value) {
+                    return index - 1;
+                }
+            }
+        }
+
+        private int slotOf(final int index) {
+            final int mask = table.length - 1;
+            int slot = spread(members[index]) & mask;
+            while (table[slot] != index + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void insert(final long value, final int index) {
+            final int mask = table.length - 1;
+            int slot = spread(value) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index;
+        }
+
+        /**
+         * Closes the holes left by removed members and rebuilds the table, which also clears its tombstones.
+         */
+        private void compact() {
+            int live = 0;
+            for (int i = first(); i < used; i = next(i + 1)) {
+                members[live++] = members[i];
+            }
+            used = live;
+            holes = null;
+            if (table != null) {
+                rebuildTable();
+            }
+        }
+
+        private void rebuildTable() {
+            table = new int[Integer.highestOneBit(members.length) * 2];
+            for (int i = 0; i < used; i++) {
+                if (holes == null || !holes.get(i)) {
+                    insert(members[i], i + 1);
+                }
+            }
+        }
+
+        /**
+         * Returns the members in the boxed representations, for a key given a member that is not a Long.
+         */
+        private MemberSet<V> boxed() {
+            final Object[] all = toList().toArray();
+            MemberSet<V> boxed = new Packed<>(Arrays.copyOf(all, Math.min(all.length, PACKED_CAPACITY)));
+            for (int i = PACKED_CAPACITY; i < all.length; i++) {
+                boxed = boxed.add(member(all, i));
+            }
+            return boxed;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> V member(final Object[] all, final int index) {
+            return (V) all[index];
+        }
+
+        private static int spread(final long value) {
+            final int h = Long.hashCode(value);
+            return h ^ (h >>> 16);
+        }
+    }
+}
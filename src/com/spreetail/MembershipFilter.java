@@ -0,0 +1,192 @@
+package com.spreetail;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional probabilistic filter placed in front of the key and key-member lookups of the MultiValueDictionary.
+ * Keys and key-member pairs are tracked in two counting Bloom filters, so a negative answer is always correct
+ * and lets the dictionary skip the lookup entirely, while counters allow members and keys to be removed again.
+ * Counters saturate at 255 and are never decremented afterwards, which only costs false positive rate.
+ */
+class MembershipFilter<K, V> {
+
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final CountingBloomFilter keys;
+    private final CountingBloomFilter members;
+
+    private final LongAdder keyNegatives = new LongAdder();
+    private final LongAdder keyPositives = new LongAdder();
+    private final LongAdder memberNegatives = new LongAdder();
+    private final LongAdder memberPositives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Creates a filter sized for the expected number of key-member pairs.
+     * @param expectedMembers number of key-member pairs the filter is sized for.
+     * @param falsePositiveRate target false positive rate at the expected size, between 0 and 1.
+     */
+    MembershipFilter(final long expectedMembers, final double falsePositiveRate) {
+        if (expectedMembers <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid filter size " + expectedMembers + " or rate " + falsePositiveRate);
+        }
+        keys = new CountingBloomFilter(expectedMembers, falsePositiveRate);
+        members = new CountingBloomFilter(expectedMembers, falsePositiveRate);
+    }
+
+    /**
+     * Returns false if the key is definitely not in the dictionary.
+     * @param key key to be checked.
+     * @return boolean representing if the key may be in the dictionary.
+     */
+    boolean mightContainKey(final K key) {
+        final boolean result = keys.mightContain(hash(key));
+        (result ? keyPositives : keyNegatives).increment();
+        return result;
+    }
+
+    /**
+     * Returns false if the key is definitely not in the dictionary, without counting the answer in the
+     * statistics, for the dictionary's own checks made on the way to a lookup that is counted already.
+     * @param key key to be checked.
+     * @return boolean representing if the key may be in the dictionary.
+     */
+    boolean probeKey(final K key) {
+        return keys.mightContain(hash(key));
+    }
+
+    /**
+     * Returns false if the member is definitely not stored under the key.
+     * @param key key to be checked.
+     * @param member member to be checked.
+     * @return boolean representing if the member may be stored under the key.
+     */
+    boolean mightContainMember(final K key, final V member) {
+        final boolean result = members.mightContain(hash(key, member));
+        (result ? memberPositives : memberNegatives).increment();
+        return result;
+    }
+
+    /**
+     * Records that the filter answered maybe for a lookup the dictionary then found to be absent.
+     */
+    void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    void addKey(final K key) {
+        keys.add(hash(key));
+    }
+
+    void removeKey(final K key) {
+        keys.remove(hash(key));
+    }
+
+    void addMember(final K key, final V member) {
+        members.add(hash(key, member));
+    }
+
+    void removeMember(final K key, final V member) {
+        members.remove(hash(key, member));
+    }
+
+    void clear() {
+        keys.clear();
+        members.clear();
+    }
+
+    long keyNegatives() {
+        return keyNegatives.sum();
+    }
+
+    long keyPositives() {
+        return keyPositives.sum();
+    }
+
+    long memberNegatives() {
+        return memberNegatives.sum();
+    }
+
+    long memberPositives() {
+        return memberPositives.sum();
+    }
+
+    long falsePositives() {
+        return falsePositives.sum();
+    }
+
+    private static long hash(final Object key) {
+        return mix(key.hashCode());
+    }
+
+    private static long hash(final Object key, final Object member) {
+        return mix(hash(key) * 31 + member.hashCode());
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreads a hash code over all 64 bits.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Counting Bloom filter with one byte per counter, probed with double hashing.
+     */
+    static final class CountingBloomFilter {
+
+        private static final int SATURATED = 0xff;
+
+        private final byte[] counters;
+        private final int hashes;
+
+        CountingBloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+            final double bits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+            counters = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, (long) Math.ceil(bits)))];
+            hashes = Math.max(1, (int) Math.round(bits / expectedInsertions * Math.log(2)));
+        }
+
+        void add(final long hash) {
+            for (int i = 0; i < hashes; i++) {
+                final int index = index(hash, i);
+                if ((counters[index] & SATURATED) != SATURATED) {
+                    counters[index]++;
+                }
+            }
+        }
+
+        void remove(final long hash) {
+            for (int i = 0; i < hashes; i++) {
+                final int index = index(hash, i);
+                final int count = counters[index] & SATURATED;
+                if (count != 0 && count != SATURATED) {
+                    counters[index]--;
+                }
+            }
+        }
+
+        boolean mightContain(final long hash) {
+            for (int i = 0; i < hashes; i++) {
+                if (counters[index(hash, i)] == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(counters, (byte) 0);
+        }
+
+        private int index(final long hash, final int i) {
+            final int combined = (int) hash + i * (int) (hash >>> 32);
+            return (combined & Integer.MAX_VALUE) % counters.length;
+        }
+    }
+}
@@ -1,13 +1,27 @@
 package com.spreetail;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.spreetail.DictionaryHandler.PREFIX;
 
 /**
  * The MultiValueDictionary class is an implementation of a dictionary
  * that allows multiple values under the same key.
+ * The dictionary is safe to share between threads: lookups share a read lock and run in parallel,
+ * while mutations take the write lock, which also keeps the mutation stream single-publisher.
+ * Once frozen, lookups are answered by an immutable FrozenDictionary without taking any lock.
+ * Reads of MEMBERS, MEMBEREXISTS and MEMBERSEXIST are sampled by a HotKeyTracker, and MEMBERS of the hottest
+ * keys can be answered from an optional ReadCache that every mutation of the key invalidates.
+ * Every key has a version, changed by every member added to or removed from it, so that clients can replace
+ * the members of a key with compare-and-set instead of holding a lock across their reads and writes.
+ * With a ColdStore, at most maxHotKeys keys are kept in memory: the least recently used ones are spilled to
+ * disk in batches and promoted back when they are read by MEMBERS, MEMBEREXISTS or MEMBERSEXIST or changed.
+ * Keys with scores always stay in memory.
  */
 class MultiValueDictionary<K, V> {
 
@@ -16,17 +30,119 @@ class MultiValueDictionary<K, V> {
     static String ERROR_MEMBER_DOES_NOT_EXIST = PREFIX + "ERROR, member does not exist.";
     static String ERROR_NULL_KEY = PREFIX + "ERROR, key cannot be null or empty";
     static String ERROR_NULL_MEMBER = PREFIX + "ERROR, member cannot be null or empty.";
+    static String ERROR_DICTIONARY_FROZEN = PREFIX + "ERROR, dictionary is frozen.";
+    static String ERROR_INVALID_SCORE = PREFIX + "ERROR, score must be an integer.";
+    static String ERROR_VERSION_MISMATCH = PREFIX + "ERROR, key version changed.";
+    static String ERROR_KEY_EXISTS = PREFIX + "ERROR, key already exists.";
+    static String ERROR_COLD_STORAGE = PREFIX + "ERROR, cold storage failed.";
 
-    private final Map<K, List<V>> entries = new HashMap<>();
+    static final int SEARCH_INDEX_BATCH = 1024;
+    static final int SPILL_SAMPLES = 4;
+    static final int MAX_SPILL_BATCH = 1024;
+
+    /**
+     * What a mutation of a frozen dictionary does.
+     * - REJECT: the mutation fails with ERROR_DICTIONARY_FROZEN.
+     * - THAW: the dictionary is copied back into its mutable form and the mutation is applied.
+     */
+    enum FreezePolicy {
+        REJECT,
+        THAW
+    }
+
+    private Map<K, MemberSet<V>> entries;
+    private final Map<K, ScoreIndex<V>> scores = new HashMap<>();
+    private final MembershipFilter<K, V> filter;
+    private final HotKeyTracker<K> hotKeys = new HotKeyTracker<>();
+    private final ReadCache<K, V> cache;
+    private final ColdStore<K, V> cold;
+    private final int maxHotKeys;
+    private final int spillBatch;
+    private final Random random = new Random();
+    private final DictionaryStatistics statistics = new DictionaryStatistics();
+    private final MutationStream<K, V> mutations = new MutationStream<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+    private volatile FrozenDictionary<K, V> frozen;
+    private volatile TrigramIndex<K, V> searchIndex;
+    private volatile long modifications;
+    private List<DictionaryEvent<K, V>> unpublished;
+    private Map<K, Long> batchVersions;
+    private FreezePolicy freezePolicy;
+
+    MultiValueDictionary() {
+        this(null);
+    }
+
+    /**
+     * Creates a dictionary whose negative key and member lookups are answered by the given filter when possible.
+     * @param filter membership filter maintained by the dictionary, or null to disable filtering.
+     */
+    MultiValueDictionary(final MembershipFilter<K, V> filter) {
+        this(0, filter);
+    }
+
+    /**
+     * Creates a dictionary pre-sized for the given number of keys. Growing past it never stalls a single add,
+     * the key table rehashes incrementally, but pre-sizing avoids the rehash work altogether.
+     * @param expectedKeys number of keys the dictionary is expected to hold.
+     * @param filter membership filter maintained by the dictionary, or null to disable filtering.
+     */
+    MultiValueDictionary(final int expectedKeys, final MembershipFilter<K, V> filter) {
+        this(expectedKeys, filter, 0);
+    }
+
+    /**
+     * Creates a dictionary caching the members of its most read keys.
+     * @param expectedKeys number of keys the dictionary is expected to hold.
+     * @param filter membership filter maintained by the dictionary, or null to disable filtering.
+     * @param cacheCapacity number of hot keys whose members are cached, 0 to disable the read cache.
+     */
+    MultiValueDictionary(final int expectedKeys, final MembershipFilter<K, V> filter, final int cacheCapacity) {
+        this(expectedKeys, filter, cacheCapacity, null, 0);
+    }
+
+    /**
+     * Creates a dictionary keeping at most maxHotKeys keys in memory and the others in the given cold store.
+     * Once the limit is passed, about maxHotKeys / 16 keys are spilled at once, so that spills are amortized.
+     * @param expectedKeys number of keys the dictionary is expected to hold in memory.
+     * @param filter membership filter maintained by the dictionary, or null to disable filtering.
+     * @param cacheCapacity number of hot keys whose members are cached, 0 to disable the read cache.
+     * @param cold store of the spilled keys, or null to keep every key in memory.
+     * @param maxHotKeys number of keys kept in memory, ignored without a cold store.
+     */
+    MultiValueDictionary(final int expectedKeys, final MembershipFilter<K, V> filter, final int cacheCapacity,
+                         final ColdStore<K, V> cold, final int maxHotKeys) {
+        if (cold != null && maxHotKeys < 1) {
+            throw new IllegalArgumentException("Invalid number of hot keys " + maxHotKeys);
+        }
+        this.entries = new IncrementalHashMap<>(cold == null ? expectedKeys : Math.min(expectedKeys, maxHotKeys));
+        this.filter = filter;
+        this.cache = cacheCapacity > 0 ? new ReadCache<>(cacheCapacity) : null;
+        this.cold = cold;
+        this.maxHotKeys = maxHotKeys;
+        this.spillBatch = Math.max(1, Math.min(MAX_SPILL_BATCH, maxHotKeys / 16));
+    }
 
     /**
      * Returns a list of keys currently stored in the dictionary.
      * @return list of keys.
      */
     List<K> keys() {
-        return new ArrayList<K>() {{
-            addAll(entries.keySet());
-        }};
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.keys();
+        }
+        try {
+            final List<K> keys = new ArrayList<K>() {{
+                addAll(entries.keySet());
+            }};
+            scanCold((key, members) -> keys.add(key), false);
+            return keys;
+        } finally {
+            readLock.unlock();
+        }
     }
 
     /**
@@ -37,12 +153,46 @@ class MultiValueDictionary<K, V> {
      */
     List<V> members(final K key) throws DictionaryException {
         validateKey(key);
+        hotKeys.record(key);
+        return readMembers(key);
+    }
+
+    /**
+     * Returns a list of the members under the input key without counting the read towards the hot keys,
+     * for commands that read a key on the way to something else.
+     * @param key the key in the dictionary.
+     * @return list of members.
+     * @throws DictionaryException if key does not exist in dictionary.
+     */
+    List<V> readMembers(final K key) throws DictionaryException {
+        validateKey(key);
+        promoteForRead(key);
 
-        if (!keyExists(key)) {
-            throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            final List<V> members = snapshot.members(key);
+            if (members == null) {
+                throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+            }
+            FlightRecorderEvents.touched(members.size());
+            return members;
         }
+        try {
+            final List<V> cached = cached(key);
+            if (cached != null) {
+                FlightRecorderEvents.touched(cached.size());
+                return cached;
+            }
+            if (!keyExists(key)) {
+                throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+            }
 
-        return entries.get(key);
+            final MemberSet<V> members = lookup(key);
+            FlightRecorderEvents.touched(members.size());
+            return members.toList();
+        } finally {
+            readLock.unlock();
+        }
     }
 
     /**
@@ -60,14 +210,190 @@ class MultiValueDictionary<K, V> {
         validateKey(key);
         validateMember(member);
 
-        if (entries.containsKey(key)) {
-            if (entries.get(key).contains(member)) {
-                throw new DictionaryException(ERROR_MEMBER_EXISTS);
+        writeLock.lock();
+        try {
+            ensureMutable();
+            promote(key);
+            final MemberSet<V> members = entries.get(key);
+            final MemberSet<V> updated;
+            remember(key, members);
+
+            if (members != null) {
+                if (members.contains(member)) {
+                    throw new DictionaryException(ERROR_MEMBER_EXISTS);
+                }
+                updated = members.add(member);
+                entries.put(key, updated);
+
+            } else {
+                updated = MemberSet.of(member);
+                entries.put(key, updated);
+                if (filter != null) {
+                    filter.addKey(key);
+                }
+            }
+
+            if (filter != null) {
+                filter.addMember(key, member);
+            }
+
+            statistics.memberAdded(member, members == null ? 0 : members.size());
+            if (searchIndex != null) {
+                searchIndex.add(key, member);
+            }
+            final ScoreIndex<V> scoreIndex = scores.get(key);
+            if (scoreIndex != null) {
+                scoreIndex.add(member, 0);
+            }
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            FlightRecorderEvents.touched(1);
+            updated.version = publish(Command.ADD, key, member);
+            touch(updated);
+            if (members == null) {
+                spillIfFull(key);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds an entry with a score, ranking the member among the other members of the key for top() and
+     * rangeByScore(). Members of the key added without a score have a score of 0.
+     * @param key the key to be stored.
+     * @param member the member to be stored.
+     * @param score score of the member.
+     * @throws DictionaryException
+     * - If key or member is null.
+     * - If member already exists under the given key.
+     */
+    void add(final K key, final V member, final long score) throws DictionaryException {
+        writeLock.lock();
+        try {
+            add(key, member);
+            scoreIndex(key).add(member, score);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the delta to the score of a member, adding the member with the delta as its score if it does not
+     * exist under the key.
+     * @param key key under which member is stored.
+     * @param member member whose score changes.
+     * @param delta amount added to the score, may be negative.
+     * @return new score of the member.
+     * @throws DictionaryException
+     * - If key or member is null.
+     * - If the new score overflows.
+     */
+    long incrementScore(final K key, final V member, final long delta) throws DictionaryException {
+        validateKey(key);
+        validateMember(member);
+
+        writeLock.lock();
+        try {
+            ensureMutable();
+            promote(key);
+            final MemberSet<V> members = entries.get(key);
+            if (members == null || !members.contains(member)) {
+                add(key, member, delta);
+                return delta;
+            }
+
+            try {
+                final long score = scoreIndex(key).increment(member, delta);
+                publish(Command.INCRBY, key, member);
+                return score;
+            } catch (final ArithmeticException e) {
+                throw new DictionaryException(ERROR_INVALID_SCORE);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the score of a member.
+     * @param key key under which member is stored.
+     * @param member member to be looked up.
+     * @return score of the member, 0 if it was added without one.
+     * @throws DictionaryException if key or member is null or does not exist in dictionary.
+     */
+    long score(final K key, final V member) throws DictionaryException {
+        readLock.lock();
+        try {
+            if (!containsMember(key, member)) {
+                throw new DictionaryException(keyExists(key) ? ERROR_MEMBER_DOES_NOT_EXIST : ERROR_KEY_DOES_NOT_EXIST);
+            }
+            final ScoreIndex<V> scoreIndex = scores.get(key);
+            return scoreIndex == null ? 0 : scoreIndex.score(member);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the scores of the members of a key.
+     * @param key key to be looked up.
+     * @return copy of the scores by member, or null if no member of the key was given a score.
+     */
+    Map<V, Long> scores(final K key) {
+        readLock.lock();
+        try {
+            final ScoreIndex<V> scoreIndex = scores.get(key);
+            return scoreIndex == null ? null : scoreIndex.scores();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the highest scored members of a key, highest first, ties in the order they were added.
+     * @param key key to be looked up.
+     * @param count number of members to return at most.
+     * @return members with their scores.
+     * @throws DictionaryException if key is null or does not exist in dictionary.
+     */
+    List<Map.Entry<V, Long>> top(final K key, final int count) throws DictionaryException {
+        readLock.lock();
+        try {
+            final ScoreIndex<V> scoreIndex = scores.get(key);
+            if (scoreIndex != null) {
+                final List<Map.Entry<V, Long>> top = scoreIndex.top(count);
+                FlightRecorderEvents.touched(top.size());
+                return top;
             }
-            entries.get(key).add(member);
+            return unscored(readMembers(key), 0, count);
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-        } else {
-            entries.put(key, new ArrayList<>(Collections.singletonList(member)));
+    /**
+     * Returns the members of a key scored between min and max inclusive, highest first.
+     * @param key key to be looked up.
+     * @param min lowest score to be returned.
+     * @param max highest score to be returned.
+     * @return members with their scores.
+     * @throws DictionaryException if key is null or does not exist in dictionary.
+     */
+    List<Map.Entry<V, Long>> rangeByScore(final K key, final long min, final long max) throws DictionaryException {
+        readLock.lock();
+        try {
+            final ScoreIndex<V> scoreIndex = scores.get(key);
+            if (scoreIndex != null) {
+                final List<Map.Entry<V, Long>> range = scoreIndex.range(min, max);
+                FlightRecorderEvents.touched(range.size());
+                return range;
+            }
+            final List<V> members = readMembers(key);
+            return min <= 0 && max >= 0 ? unscored(members, 0, members.size()) : new ArrayList<>();
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -85,18 +411,52 @@ class MultiValueDictionary<K, V> {
         validateKey(key);
         validateMember(member);
 
-        if (!keyExists(key)) {
-            throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
-        }
+        writeLock.lock();
+        try {
+            ensureMutable();
+            promote(key);
+            if (!keyExists(key)) {
+                throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+            }
 
-        if (!memberExists(key, member)) {
-            throw new DictionaryException(ERROR_MEMBER_DOES_NOT_EXIST);
-        }
+            // also records the member as touched for the command's Flight Recorder event
+            if (!containsMember(key, member)) {
+                throw new DictionaryException(ERROR_MEMBER_DOES_NOT_EXIST);
+            }
 
-        if (entries.get(key).size() == 1) {
-            entries.remove(key);
-        } else {
-            entries.get(key).remove(member);
+            remember(key, entries.get(key));
+            final MemberSet<V> members = entries.get(key).remove(member);
+            if (members == null) {
+                entries.remove(key);
+            } else {
+                entries.put(key, members);
+            }
+
+            if (filter != null) {
+                filter.removeMember(key, member);
+                if (members == null) {
+                    filter.removeKey(key);
+                }
+            }
+
+            statistics.memberRemoved(members == null ? 1 : members.size() + 1);
+            if (searchIndex != null) {
+                searchIndex.remove(key, member);
+            }
+            final ScoreIndex<V> scoreIndex = members == null ? scores.remove(key) : scores.get(key);
+            if (scoreIndex != null) {
+                scoreIndex.remove(member);
+            }
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            final long version = publish(Command.REMOVE, key, member);
+            if (members != null) {
+                members.version = version;
+                touch(members);
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -108,18 +468,166 @@ class MultiValueDictionary<K, V> {
     void removeAll(final K key) throws DictionaryException {
         validateKey(key);
 
-        if (!keyExists(key)) {
-            throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
-        }
+        writeLock.lock();
+        try {
+            ensureMutable();
+            promote(key);
+            if (!keyExists(key)) {
+                throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+            }
+
+            remember(key, entries.get(key));
+            final MemberSet<V> members = entries.remove(key);
+
+            if (filter != null) {
+                for (final V member : members) {
+                    filter.removeMember(key, member);
+                }
+                filter.removeKey(key);
+            }
 
-        entries.remove(key);
+            statistics.keyRemoved(members.size());
+            if (searchIndex != null) {
+                searchIndex.removeAll(key, members);
+            }
+            scores.remove(key);
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            FlightRecorderEvents.touched(members.size());
+            publish(Command.REMOVEALL, key, null);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
      * Remove all key-member(s) entries from the dictionary.
      */
-    void clear() {
-        entries.clear();
+    void clear() throws DictionaryException {
+        writeLock.lock();
+        try {
+            if (frozen != null && freezePolicy == FreezePolicy.REJECT) {
+                throw new DictionaryException(ERROR_DICTIONARY_FROZEN);
+            }
+            if (batchVersions != null) {
+                for (final Map.Entry<K, MemberSet<V>> entry : entries.entrySet()) {
+                    remember(entry.getKey(), entry.getValue());
+                }
+                final List<K> coldKeys = new ArrayList<>();
+                scanCold((key, members) -> coldKeys.add(key), false);
+                for (final K key : coldKeys) {
+                    remember(key, coldLookup(key));
+                }
+            }
+            frozen = null;
+            entries.clear();
+            if (cold != null) {
+                cold.clear();
+            }
+
+            if (filter != null) {
+                filter.clear();
+            }
+
+            statistics.clear();
+            if (searchIndex != null) {
+                searchIndex.clear();
+            }
+            scores.clear();
+            if (cache != null) {
+                cache.clear();
+            }
+            publish(Command.CLEAR, null, null);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the version of a key. Versions are numbers of the modifications of the dictionary, so a key
+     * never gets a version it had before, even when it is removed and added again. Absent keys have version 0.
+     * Freezing the dictionary sets the version of every key to the number of the last modification.
+     * @param key key to be looked up.
+     * @return version of the key, or 0 if the key does not exist.
+     * @throws DictionaryException if key is null.
+     */
+    long version(final K key) throws DictionaryException {
+        validateKey(key);
+
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.keyExists(key) ? modifications : 0;
+        }
+        try {
+            final MemberSet<V> members = lookup(key);
+            return members == null ? 0 : members.version;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the members of a key if it still has the expected version, no other thread observing the key
+     * half replaced. The replacement is one batch, so subscribers receive its mutations only once the key holds
+     * its new members. Scores of the previous members are dropped.
+     * @param key key whose members are replaced.
+     * @param expectedVersion version the key must have, 0 for a key that must not exist.
+     * @param members new members of the key, in order.
+     * @return new version of the key.
+     * @throws DictionaryException
+     * - If key is null, members is empty or holds a null member.
+     * - If members holds the same member twice.
+     * - If the key does not have the expected version, nothing is changed in that case.
+     */
+    long replace(final K key, final long expectedVersion, final List<V> members) throws DictionaryException {
+        return replace(key, expectedVersion, members, ERROR_VERSION_MISMATCH);
+    }
+
+    /**
+     * Adds a key with its members only if the key does not exist.
+     * @param key key to be added.
+     * @param members members of the key, in order.
+     * @return version of the new key.
+     * @throws DictionaryException
+     * - If key is null, members is empty or holds a null member.
+     * - If members holds the same member twice.
+     * - If the key already exists, nothing is changed in that case.
+     */
+    long addIfAbsentKey(final K key, final List<V> members) throws DictionaryException {
+        return replace(key, 0, members, ERROR_KEY_EXISTS);
+    }
+
+    private long replace(final K key, final long expectedVersion, final List<V> members, final String mismatch)
+            throws DictionaryException {
+        validateKey(key);
+        if (members == null || members.isEmpty()) {
+            throw new DictionaryException(ERROR_NULL_MEMBER);
+        }
+        final Set<V> distinct = new HashSet<>((int) (members.size() / 0.75f) + 1);
+        for (final V member : members) {
+            validateMember(member);
+            if (!distinct.add(member)) {
+                throw new DictionaryException(ERROR_MEMBER_EXISTS);
+            }
+        }
+
+        return batch(() -> {
+            ensureMutable();
+            promote(key);
+            final MemberSet<V> current = entries.get(key);
+            if ((current == null ? 0 : current.version) != expectedVersion) {
+                throw new DictionaryException(mismatch);
+            }
+
+            if (current != null) {
+                removeAll(key);
+            }
+            for (final V member : members) {
+                add(key, member);
+            }
+            return entries.get(key).version;
+        });
     }
 
     /**
@@ -130,7 +638,26 @@ class MultiValueDictionary<K, V> {
      */
     boolean keyExists(final K key) throws DictionaryException {
         validateKey(key);
-        return entries.containsKey(key);
+
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.keyExists(key);
+        }
+        try {
+            if (filter == null) {
+                return entries.containsKey(key) || coldLookup(key) != null;
+            }
+            if (!filter.mightContainKey(key)) {
+                return false;
+            }
+            final boolean exists = entries.containsKey(key) || coldLookup(key) != null;
+            if (!exists) {
+                filter.recordFalsePositive();
+            }
+            return exists;
+        } finally {
+            readLock.unlock();
+        }
     }
 
     /**
@@ -143,10 +670,190 @@ class MultiValueDictionary<K, V> {
      * - If member is null or does not exist in dictionary.
      */
     boolean memberExists(final K key, final V member) throws DictionaryException {
+        validateKey(key);
+        hotKeys.record(key);
+        return containsMember(key, member);
+    }
+
+    /**
+     * Returns a boolean representing if the member exists under the key without counting the read towards
+     * the hot keys, for commands that check a member on the way to something else.
+     * @param key key to be checked.
+     * @param member member to be checked.
+     * @return boolean representing if the member exists.
+     * @throws DictionaryException
+     * - If key is null.
+     * - If member is null.
+     */
+    boolean containsMember(final K key, final V member) throws DictionaryException {
         validateKey(key);
         validateMember(member);
+        FlightRecorderEvents.touched(1);
+        promoteForRead(key);
+
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.memberExists(key, member);
+        }
+        try {
+            if (filter != null && !filter.mightContainMember(key, member)) {
+                return false;
+            }
+
+            final MemberSet<V> members = lookup(key);
+            final boolean exists = members != null && members.contains(member);
+            if (filter != null && !exists) {
+                filter.recordFalsePositive();
+            }
+            return exists;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns which of the given members exist under the key, in one call: the key is looked up once and
+     * every member is probed in its hashed member set, so checking many members costs one lock acquisition
+     * and one key lookup instead of one of each per member.
+     * @param key key to be checked.
+     * @param members members to be checked, in order.
+     * @return bit i set if members.get(i) exists under the key, no bit set if the key does not exist.
+     * @throws DictionaryException
+     * - If key is null.
+     * - If members is empty or holds a null member.
+     */
+    BitSet membersExist(final K key, final List<V> members) throws DictionaryException {
+        validateKey(key);
+        if (members == null || members.isEmpty()) {
+            throw new DictionaryException(ERROR_NULL_MEMBER);
+        }
+        for (final V member : members) {
+            validateMember(member);
+        }
+        FlightRecorderEvents.touched(members.size());
+        hotKeys.record(key);
+        promoteForRead(key);
+
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.membersExist(key, members);
+        }
+        try {
+            final BitSet exist = new BitSet(members.size());
+            if (filter != null && !filter.mightContainKey(key)) {
+                return exist;
+            }
+
+            final MemberSet<V> memberSet = lookup(key);
+            if (memberSet == null) {
+                if (filter != null) {
+                    filter.recordFalsePositive();
+                }
+                return exist;
+            }
+            for (int i = 0; i < members.size(); i++) {
+                if (memberSet.contains(members.get(i))) {
+                    exist.set(i);
+                }
+            }
+            return exist;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of keys in the dictionary.
+     * @return number of keys.
+     */
+    int keyCount() {
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.keyCount();
+        }
+        try {
+            return cold == null ? entries.size() : (int) (entries.size() + cold.keyCount());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of key-member pairs in the dictionary.
+     * @return number of members across all keys.
+     */
+    long memberCount() {
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            return snapshot.memberCount();
+        }
+        try {
+            return statistics.members();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of members stored under the given key.
+     * @param key the key in the dictionary.
+     * @return number of members under the key.
+     * @throws DictionaryException if key is null or does not exist in dictionary.
+     */
+    int cardinality(final K key) throws DictionaryException {
+        validateKey(key);
+
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            final int size = snapshot.cardinality(key);
+            if (size < 0) {
+                throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+            }
+            return size;
+        }
+        try {
+            final MemberSet<V> members = lookup(key);
+            if (members == null) {
+                throw new DictionaryException(ERROR_KEY_DOES_NOT_EXIST);
+            }
+            return members.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-        return keyExists(key) && entries.get(key).contains(member);
+    /**
+     * Returns the estimated number of distinct members across all keys.
+     * @return estimated distinct member count.
+     */
+    long distinctMembers() {
+        readLock.lock();
+        try {
+            return statistics.distinctMembers();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the members-per-key histogram, bucket i counts the keys holding [2^i, 2^(i+1)) members.
+     * @return histogram buckets.
+     */
+    long[] keySizeHistogram() {
+        readLock.lock();
+        try {
+            return statistics.keySizes();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the membership filter in front of the lookups, if one is configured.
+     * @return membership filter, or null if filtering is disabled.
+     */
+    MembershipFilter<K, V> filter() {
+        return filter;
     }
 
     /**
@@ -154,23 +861,58 @@ class MultiValueDictionary<K, V> {
      * @return list of members in dictionary.
      */
     List<V> allMembers() {
-        return entries.values().stream().flatMap(List::stream).collect(Collectors.toList());
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            FlightRecorderEvents.touched((int) snapshot.memberCount());
+            return snapshot.allMembers();
+        }
+        try {
+            final List<V> members = new ArrayList<>((int) Math.min(Integer.MAX_VALUE - 8, statistics.members()));
+            for (final MemberSet<V> memberSet : entries.values()) {
+                for (final V member : memberSet) {
+                    members.add(member);
+                }
+            }
+            scanCold((key, coldMembers) -> members.addAll(coldMembers), true);
+            FlightRecorderEvents.touched(members.size());
+            return members;
+        } finally {
+            readLock.unlock();
+        }
     }
 
     /**
-     * Returns a map of all key-member(s) entries in the dictionary.
+     * Returns a map of all key-member(s) entries in the dictionary, in the order of keys(). Cold keys are read
+     * from the cold store without being promoted.
      * @return list of entries in the dictionary.
      */
     Map<K, List<V>> items() {
-        return entries;
+        final FrozenDictionary<K, V> snapshot = acquireRead();
+        if (snapshot != null) {
+            final Map<K, List<V>> items = new LinkedHashMap<>((int) (snapshot.keyCount() / 0.75f) + 1);
+            snapshot.copyInto(items);
+            FlightRecorderEvents.touched((int) snapshot.memberCount());
+            return items;
+        }
+        try {
+            final Map<K, List<V>> items = new LinkedHashMap<>((int) (entries.size() / 0.75f) + 1);
+            for (final Map.Entry<K, MemberSet<V>> entry : entries.entrySet()) {
+                items.put(entry.getKey(), entry.getValue().toList());
+            }
+            scanCold(items::put, true);
+            FlightRecorderEvents.touched((int) statistics.members());
+            return items;
+        } finally {
+            readLock.unlock();
+        }
     }
 
     MultiValueDictionary<K, V> intersection(final MultiValueDictionary<K, V> dictionary) throws DictionaryException {
         final MultiValueDictionary<K, V> newDictionary = new MultiValueDictionary<>();
 
         for (final K key : dictionary.keys()) {
-            for (final V member : entries.get(key)) {
-                if (memberExists(key, member)) {
+            for (final V member : entries.get(key).toList()) {
+                if (containsMember(key, member)) {
                     newDictionary.add(key, member);
                 }
             }
@@ -179,13 +921,550 @@ class MultiValueDictionary<K, V> {
         return newDictionary;
     }
 
+    /**
+     * Runs the given action while holding the write lock, so it is applied as one critical section and no
+     * other thread observes its intermediate states. Dictionary calls made by the action re-enter the lock.
+     * @param action action to be applied atomically.
+     * @return result of the action.
+     * @throws DictionaryException if the action fails.
+     */
+    <T> T atomically(final Action<T> action) throws DictionaryException {
+        writeLock.lock();
+        try {
+            return action.apply();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given action atomically like atomically(), and publishes the mutations it made to the mutation
+     * stream only once it has returned. If it throws, none of its mutations is ever published, including those
+     * undoing the others, so subscribers never see a batch that did not apply, and the modification count and the
+     * versions of the keys it touched are set back to what they were before it, so a batch undone by its action
+     * changes no version. No key is spilled while the batch runs. A batch run by another batch is published with it.
+     * @param action action to be applied atomically.
+     * @return result of the action.
+     * @throws DictionaryException if the action fails.
+     */
+    <T> T batch(final Action<T> action) throws DictionaryException {
+        writeLock.lock();
+        try {
+            if (unpublished != null) {
+                return action.apply();
+            }
+
+            final List<DictionaryEvent<K, V>> events = new ArrayList<>();
+            final long start = modifications;
+            unpublished = events;
+            batchVersions = new HashMap<>();
+            final T result;
+            try {
+                result = action.apply();
+            } catch (final DictionaryException | RuntimeException e) {
+                modifications = start;
+                for (final Map.Entry<K, Long> version : batchVersions.entrySet()) {
+                    final MemberSet<V> members = entries.get(version.getKey());
+                    if (members != null) {
+                        members.version = version.getValue();
+                    }
+                }
+                throw e;
+            } finally {
+                unpublished = null;
+                batchVersions = null;
+                spillIfFull(null);
+            }
+            for (final DictionaryEvent<K, V> event : events) {
+                mutations.publish(event.type, event.key, event.member);
+            }
+            return result;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the dictionary into an immutable FrozenDictionary and releases the mutable form.
+     * Lookups then take no lock; mutations are handled by the given policy. Freezing a frozen
+     * dictionary only changes the policy. The frozen form lives in memory, so the cold keys are promoted first.
+     * @param policy what a mutation of the frozen dictionary does.
+     * @throws UncheckedIOException if the cold keys cannot be read, the dictionary is unchanged in that case.
+     */
+    void freeze(final FreezePolicy policy) {
+        writeLock.lock();
+        try {
+            freezePolicy = policy;
+            if (frozen == null) {
+                if (cold != null && cold.keyCount() > 0) {
+                    final Map<K, MemberSet<V>> promoted = new HashMap<>();
+                    scanCold((key, members) -> promoted.put(key, memberSet(members)), true);
+                    entries.putAll(promoted);
+                    cold.clear();
+                }
+                frozen = FrozenDictionary.of(entries, statistics.members());
+                entries = new IncrementalHashMap<>();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Copies a frozen dictionary back into its mutable form. Does nothing if the dictionary is not frozen.
+     */
+    void thaw() {
+        writeLock.lock();
+        try {
+            final FrozenDictionary<K, V> snapshot = frozen;
+            if (snapshot == null) {
+                return;
+            }
+
+            final Map<K, MemberSet<V>> thawed = new IncrementalHashMap<>(snapshot.keyCount());
+            for (final K key : snapshot.keys()) {
+                MemberSet<V> members = null;
+                for (final V member : snapshot.members(key)) {
+                    members = members == null ? MemberSet.of(member) : members.add(member);
+                }
+                members.version = modifications;
+                thawed.put(key, members);
+            }
+            entries = thawed;
+            frozen = null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a boolean representing if the dictionary is frozen.
+     * @return boolean representing if lookups are served by a frozen snapshot.
+     */
+    boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * Returns every key-member pair whose member, as text, contains the pattern. Uses the search index once
+     * it is built, otherwise scans every member.
+     * @param pattern substring to be searched for.
+     * @return matching key-member pairs.
+     * @throws DictionaryException if the pattern is null or empty.
+     */
+    List<Map.Entry<K, V>> search(final String pattern) throws DictionaryException {
+        if (pattern == null || pattern.isEmpty()) {
+            throw new DictionaryException(ERROR_NULL_MEMBER);
+        }
+
+        readLock.lock();
+        try {
+            final TrigramIndex<K, V> index = searchIndex;
+            if (index != null && index.isReady()) {
+                final List<Map.Entry<K, V>> results = index.search(pattern);
+                FlightRecorderEvents.touched(results.size());
+                return results;
+            }
+
+            final List<Map.Entry<K, V>> results = new ArrayList<>();
+            for (final Map.Entry<K, List<V>> entry : items().entrySet()) {
+                for (final V member : entry.getValue()) {
+                    if (String.valueOf(member).contains(pattern)) {
+                        results.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), member));
+                    }
+                }
+            }
+            return results;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Starts building the search index on a background thread. The keys are indexed in batches of
+     * SEARCH_INDEX_BATCH, each under a short write lock, so the dictionary stays usable during the build;
+     * searches scan until the index is complete, and the index is maintained by every mutation from then on.
+     * @return future completed once the index is complete, or already completed if an index exists; completed
+     * exceptionally if the build failed, in which case the index is dropped and can be built again.
+     */
+    CompletableFuture<Void> buildSearchIndex() {
+        final TrigramIndex<K, V> index;
+        final List<K> keys;
+
+        writeLock.lock();
+        try {
+            if (searchIndex != null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            keys = keys();
+            index = new TrigramIndex<>(keys);
+            searchIndex = index;
+        } finally {
+            writeLock.unlock();
+        }
+
+        final CompletableFuture<Void> built = new CompletableFuture<>();
+        final Thread builder = new Thread(() -> {
+            try {
+                for (int from = 0; from < keys.size(); from += SEARCH_INDEX_BATCH) {
+                    writeLock.lock();
+                    try {
+                        for (final K key : keys.subList(from, Math.min(keys.size(), from + SEARCH_INDEX_BATCH))) {
+                            final FrozenDictionary<K, V> snapshot = frozen;
+                            final MemberSet<V> members = entries.get(key);
+                            index.indexKey(key, snapshot != null ? snapshot.members(key)
+                                    : members != null ? members : coldLookup(key));
+                        }
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+                built.complete(null);
+            } catch (final RuntimeException | DictionaryException e) {
+                // a half-built index would never become ready, so drop it and let a later INDEX start over
+                writeLock.lock();
+                try {
+                    if (searchIndex == index) {
+                        searchIndex = null;
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+                built.completeExceptionally(e);
+            }
+        }, "search-index-builder");
+        builder.setDaemon(true);
+        builder.start();
+        return built;
+    }
+
+    /**
+     * Returns the search index, if one has been built or is being built.
+     * @return search index, or null if SEARCH scans.
+     */
+    TrigramIndex<K, V> searchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Returns the number of mutations applied to the dictionary, which changes whenever its content does.
+     * @return number of mutations since the dictionary was created.
+     */
+    long modifications() {
+        return modifications;
+    }
+
+    /**
+     * Returns the hot key tracker sampling the reads of the dictionary.
+     * @return hot key tracker.
+     */
+    HotKeyTracker<K> hotKeys() {
+        return hotKeys;
+    }
+
+    /**
+     * Returns the read cache of hot keys, if one is configured.
+     * @return read cache, or null if caching is disabled.
+     */
+    ReadCache<K, V> cache() {
+        return cache;
+    }
+
+    /**
+     * Returns the store of the keys spilled from memory, if one is configured.
+     * @return cold store, or null if every key is kept in memory.
+     */
+    ColdStore<K, V> coldStore() {
+        return cold;
+    }
+
+    /**
+     * Deletes the files of the cold store, if one is configured. The dictionary must not be used afterwards.
+     */
+    void close() {
+        if (cold != null) {
+            cold.close();
+        }
+    }
+
+    /**
+     * Returns the members of a key held in memory or, without promoting it, in the cold store.
+     * Must be called while holding the read lock.
+     * @return members of the key, or null if the key does not exist.
+     * @throws DictionaryException if the cold store cannot be read.
+     */
+    private MemberSet<V> lookup(final K key) throws DictionaryException {
+        final MemberSet<V> members = entries.get(key);
+        if (members == null) {
+            return coldLookup(key);
+        }
+        touch(members);
+        return members;
+    }
+
+    private MemberSet<V> coldLookup(final K key) throws DictionaryException {
+        if (cold == null || cold.keyCount() == 0) {
+            return null;
+        }
+        try {
+            final ColdStore.Record<V> record = cold.get(key);
+            return record == null ? null : memberSet(record);
+        } catch (final IOException e) {
+            throw new DictionaryException(ERROR_COLD_STORAGE);
+        }
+    }
+
+    /**
+     * Promotes a cold key before it is read, so that the following reads find it in memory. Skipped when this
+     * thread holds the read lock but not the write lock, since the read lock cannot be upgraded; the lookup
+     * then reads the cold store without promoting the key.
+     */
+    private void promoteForRead(final K key) throws DictionaryException {
+        if (cold == null || cold.keyCount() == 0 || filter != null && !filter.probeKey(key)
+                || lock.getReadHoldCount() > 0 && !lock.isWriteLockedByCurrentThread()) {
+            return;
+        }
+
+        readLock.lock();
+        try {
+            if (frozen != null || entries.containsKey(key)) {
+                return;
+            }
+        } finally {
+            readLock.unlock();
+        }
+        writeLock.lock();
+        try {
+            promote(key);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Moves a key from the cold store back into memory, must be called while holding the write lock.
+     * @throws DictionaryException if the cold store cannot be read.
+     */
+    private void promote(final K key) throws DictionaryException {
+        if (cold == null || cold.keyCount() == 0 || filter != null && !filter.probeKey(key)
+                || frozen != null || entries.containsKey(key)) {
+            return;
+        }
+
+        final ColdStore.Record<V> record;
+        try {
+            record = cold.promote(key);
+        } catch (final IOException e) {
+            throw new DictionaryException(ERROR_COLD_STORAGE);
+        }
+        if (record != null) {
+            final MemberSet<V> members = memberSet(record);
+            touch(members);
+            entries.put(key, members);
+            spillIfFull(key);
+        }
+    }
+
+    /**
+     * Spills keys to the cold store once more than maxHotKeys keys are in memory, spillBatch keys below the
+     * limit. The victims are the least recently used of a random sample of SPILL_SAMPLES keys per victim,
+     * which approximates LRU without ordering the keys on every read. Must be called while holding the write lock.
+     * If the cold store cannot be written, the failure is counted by the store and the keys stay in memory.
+     * @param keep key that stays in memory, the one just added or promoted, null for none.
+     */
+    private void spillIfFull(final K keep) {
+        if (cold == null || batchVersions != null || entries.size() <= maxHotKeys) {
+            return;
+        }
+
+        final IncrementalHashMap<K, MemberSet<V>> hot = (IncrementalHashMap<K, MemberSet<V>>) entries;
+        final int excess = entries.size() - Math.max(0, maxHotKeys - spillBatch);
+        final List<Map.Entry<K, MemberSet<V>>> candidates = new ArrayList<>(excess * SPILL_SAMPLES);
+        for (final Map.Entry<K, MemberSet<V>> candidate : hot.sample(random, excess * SPILL_SAMPLES)) {
+            if (!candidate.getKey().equals(keep) && !scores.containsKey(candidate.getKey())) {
+                candidates.add(candidate);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.getValue().accessed));
+        final Map<K, MemberSet<V>> victims = new HashMap<>((int) (excess / 0.75f) + 1);
+        for (final Map.Entry<K, MemberSet<V>> victim : candidates.subList(0, Math.min(excess, candidates.size()))) {
+            victims.put(victim.getKey(), victim.getValue());
+        }
+        if (victims.isEmpty()) {
+            return;
+        }
+
+        try {
+            cold.spill(victims);
+        } catch (final IOException e) {
+            return;
+        }
+        for (final K key : victims.keySet()) {
+            entries.remove(key);
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Records the version a key had before the running batch touched it, if a batch is running.
+     * @param key key about to be changed.
+     * @param members current members of the key, null if it does not exist.
+     */
+    private void remember(final K key, final MemberSet<V> members) {
+        if (batchVersions != null && !batchVersions.containsKey(key)) {
+            batchVersions.put(key, members == null ? 0L : members.version);
+        }
+    }
+
+    /**
+     * Calls the visitor with every cold key, must be called while holding the read lock.
+     * @throws UncheckedIOException if the cold store cannot be read.
+     */
+    private void scanCold(final ColdStore.Visitor<K, V> visitor, final boolean withMembers) {
+        if (cold == null || cold.keyCount() == 0) {
+            return;
+        }
+        try {
+            if (withMembers) {
+                cold.forEach(visitor);
+            } else {
+                cold.forEachKey(visitor);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stamps a key as used now, for the choice of the keys to be spilled.
+     */
+    private void touch(final MemberSet<V> members) {
+        if (cold != null) {
+            members.accessed = System.nanoTime();
+        }
+    }
+
+    private static <V> MemberSet<V> memberSet(final ColdStore.Record<V> record) {
+        final MemberSet<V> members = memberSet(record.members());
+        members.version = record.version();
+        return members;
+    }
+
+    private static <V> MemberSet<V> memberSet(final List<V> list) {
+        MemberSet<V> members = null;
+        for (final V member : list) {
+            members = members == null ? MemberSet.of(member) : members.add(member);
+        }
+        return members;
+    }
+
+    /**
+     * Returns the cached members of a key, caching them first if the key is hot and exists.
+     * Must be called while holding the read lock, so that the cached members are current.
+     * @return cached members, or null if the key is not cached.
+     */
+    private List<V> cached(final K key) {
+        if (cache == null) {
+            return null;
+        }
+        final List<V> cached = cache.get(key);
+        if (cached != null || !hotKeys.isHot(key)) {
+            return cached;
+        }
+        final MemberSet<V> members = entries.get(key);
+        return members == null ? null : cache.put(key, members.toList());
+    }
+
+    /**
+     * Returns the score index of a key, creating it from the current members of the key on first use.
+     * Must be called while holding the write lock, on an existing key.
+     */
+    private ScoreIndex<V> scoreIndex(final K key) {
+        return scores.computeIfAbsent(key, k -> new ScoreIndex<>(entries.get(k)));
+    }
+
+    private static <V> List<Map.Entry<V, Long>> unscored(final List<V> members, final long score, final int count) {
+        final List<Map.Entry<V, Long>> results = new ArrayList<>(Math.min(count, members.size()));
+        for (int i = 0; i < members.size() && i < count; i++) {
+            results.add(new AbstractMap.SimpleImmutableEntry<>(members.get(i), score));
+        }
+        return results;
+    }
+
+    /**
+     * A group of dictionary calls applied under a single lock acquisition.
+     */
+    interface Action<T> {
+        T apply() throws DictionaryException;
+    }
+
+    /**
+     * Returns the stream on which every mutation of the dictionary is published.
+     * @return mutation stream of the dictionary.
+     */
+    MutationStream<K, V> mutations() {
+        return mutations;
+    }
+
+    /**
+     * Starts a lookup: returns the frozen snapshot when the dictionary is frozen, otherwise takes the
+     * read lock, which the caller must release. Rechecked under the lock so that a lookup racing with
+     * freeze() never reads the released mutable form.
+     * @return frozen snapshot, or null if the read lock was taken.
+     */
+    private FrozenDictionary<K, V> acquireRead() {
+        FrozenDictionary<K, V> snapshot = frozen;
+        if (snapshot == null) {
+            readLock.lock();
+            snapshot = frozen;
+            if (snapshot != null) {
+                readLock.unlock();
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Applies the freeze policy before a mutation, must be called while holding the write lock.
+     * @throws DictionaryException if the dictionary is frozen and rejects mutations.
+     */
+    private void ensureMutable() throws DictionaryException {
+        if (frozen != null) {
+            if (freezePolicy == FreezePolicy.REJECT) {
+                throw new DictionaryException(ERROR_DICTIONARY_FROZEN);
+            }
+            thaw();
+        }
+    }
+
+    /**
+     * Counts a mutation and publishes it to the subscribers, or holds it until the end of the running batch,
+     * must be called while holding the write lock.
+     * @return number of the mutation, the new version of the key it changed.
+     */
+    private long publish(final Command type, final K key, final V member) {
+        final long modification = ++modifications;
+        if (mutations.hasSubscribers()) {
+            if (unpublished != null) {
+                unpublished.add(new DictionaryEvent<>(modification, type, key, member));
+            } else {
+                mutations.publish(type, key, member);
+            }
+        }
+        return modification;
+    }
+
     /**
      * Validates the given key by checking if it is null.
      * @param k key to be validated.
      * @throws DictionaryException if the given key is null;
      */
     private void validateKey(final K k) throws DictionaryException {
-        Optional.ofNullable(k).orElseThrow(() -> new DictionaryException(ERROR_NULL_KEY));
+        if (k == null) {
+            throw new DictionaryException(ERROR_NULL_KEY);
+        }
     }
 
     /**
@@ -194,6 +1473,8 @@ class MultiValueDictionary<K, V> {
      * @throws DictionaryException if the given member is null.
      */
     private void validateMember(final V v) throws DictionaryException {
-        Optional.ofNullable(v).orElseThrow(() -> new DictionaryException(ERROR_NULL_MEMBER));
+        if (v == null) {
+            throw new DictionaryException(ERROR_NULL_MEMBER);
+        }
     }
 }
@@ -0,0 +1,223 @@
+package com.spreetail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Bounded ring buffer carrying the mutations of a MultiValueDictionary to its subscribers.
+ * The dictionary is the only publisher and publishes while holding its write lock, so publishing
+ * needs no locks: the event is written to its slot and then the published sequence is advanced.
+ * Every subscription reads the ring with its own cursor on its own daemon thread, so subscribers
+ * never see each other and a slow subscriber is handled by its OverflowPolicy instead of the writer.
+ * An idle subscriber parks until the writer publishes and unparks it, and a writer waiting for a BLOCK
+ * subscriber parks until the subscriber moves its cursor, so neither polls.
+ */
+class MutationStream<K, V> {
+
+    static final int DEFAULT_CAPACITY = 1024;
+    static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+
+    /**
+     * What happens when a subscriber falls a full ring behind the writer.
+     * - DROP: the writer overwrites the oldest events, the subscriber skips them and is told how many it missed.
+     * - BLOCK: the writer waits for the subscriber, for at most the block timeout before disconnecting it.
+     *   The writer publishes while holding the dictionary write lock, so every mutation and lookup of the
+     *   dictionary stalls while it waits.
+     * - DISCONNECT: the subscriber is closed immediately.
+     */
+    enum OverflowPolicy {
+        DROP,
+        BLOCK,
+        DISCONNECT
+    }
+
+    private final AtomicReferenceArray<DictionaryEvent<K, V>> slots;
+    private final int mask;
+    private final long blockTimeoutNanos;
+    private final AtomicLong published = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    MutationStream() {
+        this(DEFAULT_CAPACITY, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a stream holding the given number of events.
+     * @param capacity number of events the ring holds, rounded up to a power of two.
+     * @param blockTimeoutMillis longest time the writer waits for a BLOCK subscriber.
+     */
+    MutationStream(final int capacity, final long blockTimeoutMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(Math.max(2, size));
+        this.mask = slots.length() - 1;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    /**
+     * Returns true if anyone is subscribed, so publishers can skip building events nobody reads.
+     * @return boolean representing if the stream has subscribers.
+     */
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Publishes a mutation to all subscribers. Must only be called by the single publishing dictionary.
+     * @param type type of the mutation.
+     * @param key key that was mutated, null for CLEAR.
+     * @param member member that was added or removed, null otherwise.
+     */
+    void publish(final Command type, final K key, final V member) {
+        final long sequence = published.get();
+        final long wrapped = sequence - slots.length();
+
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.cursor <= wrapped) {
+                handleOverflow(subscription, wrapped);
+            }
+        }
+
+        slots.set((int) sequence & mask, new DictionaryEvent<>(sequence, type, key, member));
+        published.set(sequence + 1);
+
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.idle) {
+                LockSupport.unpark(subscription.thread);
+            }
+        }
+    }
+
+    /**
+     * Subscribes a listener to all mutations published from now on.
+     * @param filter predicate on the key an event must match, CLEAR events are always delivered.
+     * @param listener listener receiving the events.
+     * @param policy overflow policy applied when the listener falls behind.
+     * @return subscription that delivers the events until it is closed.
+     */
+    Subscription subscribe(final Predicate<K> filter, final DictionaryListener<K, V> listener,
+                           final OverflowPolicy policy) {
+        final Subscription subscription = new Subscription(filter, listener, policy, published.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    private void handleOverflow(final Subscription subscription, final long wrapped) {
+        switch (subscription.policy) {
+            case DROP:
+                break;
+            case BLOCK:
+                final long deadline = System.nanoTime() + blockTimeoutNanos;
+                subscription.writer = Thread.currentThread();
+                try {
+                    LockSupport.unpark(subscription.thread);
+                    while (subscription.cursor <= wrapped && !subscription.closed) {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            FlightRecorderEvents.eviction(OverflowPolicy.BLOCK.name(),
+                                    published.get() - subscription.cursor);
+                            subscription.close();
+                            break;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                } finally {
+                    subscription.writer = null;
+                }
+                break;
+            case DISCONNECT:
+                FlightRecorderEvents.eviction(OverflowPolicy.DISCONNECT.name(), published.get() - subscription.cursor);
+                subscription.close();
+                break;
+        }
+    }
+
+    /**
+     * A listener reading the stream with its own cursor on its own delivery thread.
+     */
+    final class Subscription implements AutoCloseable {
+
+        private final Predicate<K> filter;
+        private final DictionaryListener<K, V> listener;
+        private final OverflowPolicy policy;
+        private final Thread thread;
+
+        private volatile long cursor;
+        private volatile boolean closed;
+        private volatile boolean idle;
+        private volatile Thread writer;
+
+        private Subscription(final Predicate<K> filter, final DictionaryListener<K, V> listener,
+                             final OverflowPolicy policy, final long cursor) {
+            this.filter = filter;
+            this.listener = listener;
+            this.policy = policy;
+            this.cursor = cursor;
+            this.thread = new Thread(this::deliver, "dictionary-subscriber");
+            this.thread.setDaemon(true);
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                subscriptions.remove(this);
+                LockSupport.unpark(thread);
+                wakeWriter();
+            }
+        }
+
+        private void deliver() {
+            while (!closed) {
+                if (cursor >= published.get()) {
+                    // the writer reads idle after advancing published, so one of the two sees the other
+                    idle = true;
+                    if (cursor >= published.get() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    continue;
+                }
+
+                final DictionaryEvent<K, V> event = slots.get((int) cursor & mask);
+                if (event.sequence != cursor) {
+                    final long oldest = published.get() - slots.length() + 1;
+                    FlightRecorderEvents.eviction(OverflowPolicy.DROP.name(), oldest - cursor);
+                    listener.onDropped(oldest - cursor);
+                    cursor = oldest;
+                    wakeWriter();
+                    continue;
+                }
+
+                if (event.key == null || filter.test(event.key)) {
+                    listener.onEvent(event);
+                }
+                cursor = event.sequence + 1;
+                wakeWriter();
+            }
+            listener.onClosed();
+        }
+
+        /**
+         * Unparks the writer if it waits for this subscriber to move its cursor.
+         */
+        private void wakeWriter() {
+            final Thread waiting = writer;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.spreetail;
+
+import java.util.*;
+
+/**
+ * Small LRU cache of the members of hot keys, placed in front of MEMBERS by the MultiValueDictionary.
+ * A cached key answers MEMBERS with a shared unmodifiable list instead of copying its member set.
+ * The dictionary only admits keys its HotKeyTracker reports as hot, and invalidates a key on every mutation of it.
+ *
+ * Entries are filled under the dictionary's read lock and invalidated under its write lock, so a cached
+ * list is always the current members of its key. The cache itself is synchronized, since readers share it.
+ */
+class ReadCache<K, V> {
+
+    private final Map<K, List<V>> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates a cache holding at most the given number of keys.
+     * @param capacity maximum number of cached keys.
+     */
+    ReadCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.entries = new LinkedHashMap<K, List<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, List<V>> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    FlightRecorderEvents.eviction("CACHE", 1);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached members of a key, counting a hit or a miss.
+     * @param key key to be looked up.
+     * @return cached unmodifiable members, or null if the key is not cached.
+     */
+    synchronized List<V> get(final K key) {
+        final List<V> members = entries.get(key);
+        if (members == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return members;
+    }
+
+    /**
+     * Caches the members of a key, evicting the least recently read key if the cache is full.
+     * @param key key to be cached.
+     * @param members current members of the key.
+     * @return the cached unmodifiable members.
+     */
+    synchronized List<V> put(final K key, final List<V> members) {
+        final List<V> cached = Collections.unmodifiableList(members);
+        entries.put(key, cached);
+        return cached;
+    }
+
+    synchronized void invalidate(final K key) {
+        if (entries.remove(key) != null) {
+            invalidations++;
+        }
+    }
+
+    synchronized void clear() {
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the hit, miss, eviction and invalidation counters, one line each.
+     * @return lines describing the cache.
+     */
+    synchronized List<String> stats() {
+        final long lookups = hits + misses;
+        return Arrays.asList(
+                "cache keys: " + entries.size(),
+                "cache hits: " + hits,
+                "cache misses: " + misses,
+                "cache hit rate: " + String.format(Locale.ROOT, "%.1f%%", lookups == 0 ? 0.0 : 100.0 * hits / lookups),
+                "cache evictions: " + evictions,
+                "cache invalidations: " + invalidations);
+    }
+}
@@ -0,0 +1,143 @@
+package com.spreetail;
+
+import java.util.*;
+
+/**
+ * Members of one key ordered by score, used by TOP and score range queries.
+ * Members are kept in a red-black tree ordered by descending score, ties in the order the members were
+ * indexed, with a hash map from member to its tree entry. Adding, removing and rescoring a member are
+ * O(log n), and the first k members of a score range are reached in O(log n + k) without copying the others.
+ * Not thread-safe: the dictionary maintains it under its write lock and reads it under its read lock.
+ */
+class ScoreIndex<V> {
+
+    private final Map<V, Scored<V>> byMember = new HashMap<>();
+    private final NavigableSet<Scored<V>> ordered = new TreeSet<>(ScoreIndex::compare);
+    private long nextSequence;
+
+    /**
+     * Creates an index holding the given members with a score of 0, ranked in iteration order.
+     * @param members current members of the key.
+     */
+    ScoreIndex(final Iterable<V> members) {
+        for (final V member : members) {
+            add(member, 0);
+        }
+    }
+
+    /**
+     * Adds a member, or changes its score if it is already indexed.
+     * @param member member to be indexed.
+     * @param score score of the member.
+     */
+    void add(final V member, final long score) {
+        final Scored<V> previous = byMember.get(member);
+        if (previous != null) {
+            ordered.remove(previous);
+        }
+        final Scored<V> scored = new Scored<>(member, score, previous != null ? previous.sequence : nextSequence++);
+        byMember.put(member, scored);
+        ordered.add(scored);
+    }
+
+    /**
+     * Adds the delta to the score of an indexed member.
+     * @param member indexed member.
+     * @param delta amount added to the score.
+     * @return new score of the member.
+     * @throws ArithmeticException if the new score overflows a long.
+     */
+    long increment(final V member, final long delta) {
+        final long score = Math.addExact(score(member), delta);
+        add(member, score);
+        return score;
+    }
+
+    void remove(final V member) {
+        final Scored<V> scored = byMember.remove(member);
+        if (scored != null) {
+            ordered.remove(scored);
+        }
+    }
+
+    /**
+     * Returns the score of a member, 0 if it is not indexed.
+     * @param member member to be looked up.
+     * @return score of the member.
+     */
+    long score(final V member) {
+        final Scored<V> scored = byMember.get(member);
+        return scored == null ? 0 : scored.score;
+    }
+
+    /**
+     * Returns the highest scored members, highest first.
+     * @param count number of members to return at most.
+     * @return members with their scores.
+     */
+    List<Map.Entry<V, Long>> top(final int count) {
+        return collect(ordered, count);
+    }
+
+    /**
+     * Returns the members scored between min and max inclusive, highest first.
+     * @param min lowest score to be returned.
+     * @param max highest score to be returned.
+     * @return members with their scores.
+     */
+    List<Map.Entry<V, Long>> range(final long min, final long max) {
+        if (min > max) {
+            return new ArrayList<>();
+        }
+        return collect(ordered.subSet(new Scored<>(null, max, Long.MIN_VALUE), true,
+                new Scored<>(null, min, Long.MAX_VALUE), true), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the scores of every member, as a copy.
+     * @return map from member to score.
+     */
+    Map<V, Long> scores() {
+        final Map<V, Long> scores = new HashMap<>((int) (byMember.size() / 0.75f) + 1);
+        for (final Scored<V> scored : ordered) {
+            scores.put(scored.member, scored.score);
+        }
+        return scores;
+    }
+
+    int size() {
+        return byMember.size();
+    }
+
+    private static <V> List<Map.Entry<V, Long>> collect(final Set<Scored<V>> scored, final int count) {
+        final List<Map.Entry<V, Long>> results = new ArrayList<>(Math.min(count, scored.size()));
+        for (final Scored<V> entry : scored) {
+            if (results.size() == count) {
+                break;
+            }
+            results.add(new AbstractMap.SimpleImmutableEntry<>(entry.member, entry.score));
+        }
+        return results;
+    }
+
+    private static int compare(final Scored<?> a, final Scored<?> b) {
+        final int byScore = Long.compare(b.score, a.score);
+        return byScore != 0 ? byScore : Long.compare(a.sequence, b.sequence);
+    }
+
+    /**
+     * A member with its score and the sequence breaking ties between equal scores.
+     */
+    private static final class Scored<V> {
+
+        private final V member;
+        private final long score;
+        private final long sequence;
+
+        private Scored(final V member, final long score, final long sequence) {
+            this.member = member;
+            this.score = score;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.spreetail;
+
+import static com.spreetail.DictionaryHandler.PREFIX;
+
+import java.util.*;
+
+/**
+ * A batch of ADD, REMOVE, REMOVEALL and CLEAR commands applied to the MultiValueDictionary as one unit.
+ * The batch runs under a single acquisition of the dictionary's write lock. It only runs if none of the
+ * watched keys changed version since they were watched. If a command fails, the commands already applied are
+ * undone in reverse order, so either every command is applied or none is. The mutations of the batch are
+ * published to subscribers only once it has applied, so they never see a batch that was rolled back. A member removed and then
+ * restored by a rollback moves to the end of its key, with its score, and the keys touched by a rollback keep
+ * their versions, so a rollback changes no watched key.
+ */
+class Transaction<K, V> {
+
+    static final String ERROR_WATCHED_KEY_CHANGED = PREFIX + "ERROR, watched key changed, transaction aborted.";
+    static final String ERROR_COMMAND_NOT_QUEUEABLE = PREFIX + "ERROR, only ADD, REMOVE, REMOVEALL and CLEAR can be queued.";
+
+    private final List<Operation<K, V>> operations = new ArrayList<>();
+    private final Map<K, Long> watched = new HashMap<>();
+
+    /**
+     * Records the current version of a key, the transaction aborts if it differs when it is executed.
+     * @param dictionary dictionary holding the key.
+     * @param key key to be watched.
+     * @throws DictionaryException if key is null.
+     */
+    void watch(final MultiValueDictionary<K, V> dictionary, final K key) throws DictionaryException {
+        watched.put(key, dictionary.version(key));
+    }
+
+    /**
+     * Queues a command to be applied when the transaction is executed.
+     * @param type ADD, REMOVE, REMOVEALL or CLEAR.
+     * @param key key of the command, null for CLEAR.
+     * @param member member of the command, null for REMOVEALL and CLEAR.
+     * @throws DictionaryException if the command cannot be part of a transaction.
+     */
+    void queue(final Command type, final K key, final V member) throws DictionaryException {
+        switch (type) {
+            case ADD:
+            case REMOVE:
+            case REMOVEALL:
+            case CLEAR:
+                operations.add(new Operation<>(type, key, member));
+                break;
+            default:
+                throw new DictionaryException(ERROR_COMMAND_NOT_QUEUEABLE);
+        }
+    }
+
+    int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies the queued commands atomically.
+     * @param dictionary dictionary the commands are applied to.
+     * @return the commands that were applied, in order.
+     * @throws DictionaryException if a watched key changed or a command failed, nothing is applied in that case.
+     */
+    List<Command> exec(final MultiValueDictionary<K, V> dictionary) throws DictionaryException {
+        return dictionary.batch(() -> {
+            for (final Map.Entry<K, Long> watch : watched.entrySet()) {
+                if (watch.getValue() != dictionary.version(watch.getKey())) {
+                    throw new DictionaryException(ERROR_WATCHED_KEY_CHANGED);
+                }
+            }
+
+            final Deque<MultiValueDictionary.Action<Void>> undo = new ArrayDeque<>();
+            final List<Command> applied = new ArrayList<>();
+            try {
+                for (final Operation<K, V> operation : operations) {
+                    undo.push(operation.apply(dictionary));
+                    applied.add(operation.type);
+                }
+            } catch (final DictionaryException de) {
+                while (!undo.isEmpty()) {
+                    undo.pop().apply();
+                }
+                throw de;
+            }
+            return applied;
+        });
+    }
+
+    /**
+     * A queued command together with how to undo it.
+     */
+    private static final class Operation<K, V> {
+
+        private final Command type;
+        private final K key;
+        private final V member;
+
+        private Operation(final Command type, final K key, final V member) {
+            this.type = type;
+            this.key = key;
+            this.member = member;
+        }
+
+        /**
+         * Applies the command and returns the action reverting it.
+         */
+        private MultiValueDictionary.Action<Void> apply(final MultiValueDictionary<K, V> dictionary)
+                throws DictionaryException {
+            switch (type) {
+                case ADD:
+                    dictionary.add(key, member);
+                    return () -> {
+                        dictionary.remove(key, member);
+                        return null;
+                    };
+                case REMOVE:
+                    final Map<V, Long> scores = dictionary.scores(key);
+                    dictionary.remove(key, member);
+                    return () -> restore(dictionary, Collections.singletonMap(key, Collections.singletonList(member)),
+                            Collections.singletonMap(key, scores));
+                case REMOVEALL:
+                    final List<V> members = dictionary.keyExists(key) ? dictionary.readMembers(key) : null;
+                    final Map<K, Map<V, Long>> keyScores = Collections.singletonMap(key, dictionary.scores(key));
+                    dictionary.removeAll(key);
+                    return () -> restore(dictionary, Collections.singletonMap(key, members), keyScores);
+                default:
+                    final Map<K, List<V>> items = dictionary.items();
+                    final Map<K, Map<V, Long>> allScores = new HashMap<>();
+                    for (final K itemKey : items.keySet()) {
+                        allScores.put(itemKey, dictionary.scores(itemKey));
+                    }
+                    dictionary.clear();
+                    return () -> restore(dictionary, items, allScores);
+            }
+        }
+
+        /**
+         * Adds the given members back, with their scores for the keys that had scored members.
+         */
+        private static <K, V> Void restore(final MultiValueDictionary<K, V> dictionary, final Map<K, List<V>> items,
+                                           final Map<K, Map<V, Long>> scores) throws DictionaryException {
+            for (final Map.Entry<K, List<V>> entry : items.entrySet()) {
+                final Map<V, Long> keyScores = scores.get(entry.getKey());
+                for (final V member : entry.getValue()) {
+                    if (keyScores == null) {
+                        dictionary.add(entry.getKey(), member);
+                    } else {
+                        dictionary.add(entry.getKey(), member, keyScores.getOrDefault(member, 0L));
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.spreetail;
+
+import java.util.*;
+
+/**
+ * Substring index over the members of a MultiValueDictionary, used by SEARCH.
+ * Every distinct member is given an id, and every trigram (three consecutive characters) of its text maps to
+ * the sorted ids of the members containing it. A search intersects the posting lists of the trigrams of the
+ * pattern, smallest first, and only the surviving candidates are checked with String.contains before their
+ * keys are looked up, so false candidates never reach the result.
+ * Patterns shorter than a trigram are answered by checking every distinct member once.
+ *
+ * The index can be built while the dictionary is in use: keys not yet indexed are pending, mutations of
+ * pending keys are ignored, and indexKey() later indexes the then-current members of the key.
+ * Not thread-safe: the dictionary maintains it under its write lock and searches it under its read lock.
+ */
+class TrigramIndex<K, V> {
+
+    /**
+     * Approximate heap cost of the objects behind one trigram, one distinct member and one member-key link,
+     * used by memoryEstimate().
+     */
+    private static final int TRIGRAM_BYTES = 96;
+    private static final int MEMBER_BYTES = 120;
+    private static final int LINK_BYTES = 36;
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final Map<V, Member<K, V>> members = new HashMap<>();
+    private final List<Member<K, V>> byId = new ArrayList<>();
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private final Set<K> pending;
+    private long links;
+
+    /**
+     * Creates an index with the given keys waiting to be indexed.
+     * @param pending keys whose members are not indexed yet, empty for an index built from the start.
+     */
+    TrigramIndex(final Collection<K> pending) {
+        this.pending = new HashSet<>(pending);
+    }
+
+    /**
+     * Returns a boolean representing if every key has been indexed, so that searches can use the index.
+     * @return boolean representing if the index is complete.
+     */
+    boolean isReady() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Indexes the current members of a pending key. Does nothing if the key was already indexed.
+     * @param key the key to be indexed.
+     * @param keyMembers current members of the key, or null if the key no longer exists.
+     */
+    void indexKey(final K key, final Iterable<V> keyMembers) {
+        if (pending.remove(key) && keyMembers != null) {
+            for (final V member : keyMembers) {
+                link(key, member);
+            }
+        }
+    }
+
+    void add(final K key, final V member) {
+        if (!pending.contains(key)) {
+            link(key, member);
+        }
+    }
+
+    void remove(final K key, final V member) {
+        if (!pending.contains(key)) {
+            unlink(key, member);
+        }
+    }
+
+    void removeAll(final K key, final Iterable<V> keyMembers) {
+        if (!pending.contains(key)) {
+            for (final V member : keyMembers) {
+                unlink(key, member);
+            }
+        }
+    }
+
+    void clear() {
+        postings.clear();
+        members.clear();
+        byId.clear();
+        freeIds.clear();
+        pending.clear();
+        links = 0;
+    }
+
+    /**
+     * Returns every key-member pair whose member text contains the pattern.
+     * @param pattern substring to be searched for.
+     * @return matching key-member pairs.
+     */
+    List<Map.Entry<K, V>> search(final String pattern) {
+        final List<Map.Entry<K, V>> results = new ArrayList<>();
+
+        if (pattern.length() < 3) {
+            for (final Member<K, V> member : members.values()) {
+                collect(member, pattern, results);
+            }
+            return results;
+        }
+
+        final List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= pattern.length(); i++) {
+            final Postings list = postings.get(trigram(pattern, i));
+            if (list == null) {
+                return results;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        int[] candidates = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = lists.get(i).intersect(candidates);
+        }
+        for (final int id : candidates) {
+            collect(byId.get(id), pattern, results);
+        }
+        return results;
+    }
+
+    int trigramCount() {
+        return postings.size();
+    }
+
+    int memberCount() {
+        return members.size();
+    }
+
+    /**
+     * Returns an estimate of the heap used by the index, excluding the keys and members it shares with the
+     * dictionary.
+     * @return estimated size in bytes.
+     */
+    long memoryEstimate() {
+        long bytes = (long) postings.size() * TRIGRAM_BYTES + (long) members.size() * MEMBER_BYTES
+                + links * LINK_BYTES + byId.size() * 4L;
+        for (final Postings list : postings.values()) {
+            bytes += list.ids.length * 4L;
+        }
+        return bytes;
+    }
+
+    private void link(final K key, final V member) {
+        Member<K, V> entry = members.get(member);
+        if (entry == null) {
+            entry = new Member<>(freeIds.isEmpty() ? byId.size() : freeIds.pop(), member);
+            if (entry.id == byId.size()) {
+                byId.add(entry);
+            } else {
+                byId.set(entry.id, entry);
+            }
+            members.put(member, entry);
+            for (final long trigram : trigrams(entry.text)) {
+                postings.computeIfAbsent(trigram, t -> new Postings()).add(entry.id);
+            }
+        }
+        if (entry.keys.add(key)) {
+            links++;
+        }
+    }
+
+    private void unlink(final K key, final V member) {
+        final Member<K, V> entry = members.get(member);
+        if (entry == null || !entry.keys.remove(key)) {
+            return;
+        }
+        links--;
+        if (!entry.keys.isEmpty()) {
+            return;
+        }
+
+        members.remove(member);
+        byId.set(entry.id, null);
+        freeIds.push(entry.id);
+        for (final long trigram : trigrams(entry.text)) {
+            final Postings list = postings.get(trigram);
+            list.remove(entry.id);
+            if (list.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    private static <K, V> void collect(final Member<K, V> member, final String pattern,
+                                       final List<Map.Entry<K, V>> results) {
+        if (member.text.contains(pattern)) {
+            for (final K key : member.keys) {
+                results.add(new AbstractMap.SimpleImmutableEntry<>(key, member.member));
+            }
+        }
+    }
+
+    private static Set<Long> trigrams(final String text) {
+        final Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(trigram(text, i));
+        }
+        return trigrams;
+    }
+
+    private static long trigram(final String text, final int i) {
+        return (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+    }
+
+    /**
+     * A distinct member with its text and the keys it is stored under.
+     */
+    private static final class Member<K, V> {
+
+        private final int id;
+        private final V member;
+        private final String text;
+        private final Set<K> keys = new HashSet<>(2);
+
+        private Member(final int id, final V member) {
+            this.id = id;
+            this.member = member;
+            this.text = String.valueOf(member);
+        }
+    }
+
+    /**
+     * Sorted ids of the members containing one trigram.
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[2];
+        private int size;
+
+        void add(final int id) {
+            final int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                return;
+            }
+            final int insert = -at - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, insert, ids, insert + 1, size - insert);
+            ids[insert] = id;
+            size++;
+        }
+
+        void remove(final int id) {
+            final int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                size--;
+                if (size < ids.length / 4) {
+                    ids = Arrays.copyOf(ids, Math.max(2, ids.length / 2));
+                }
+            }
+        }
+
+        /**
+         * Returns the given sorted ids that are also in this list.
+         */
+        int[] intersect(final int[] candidates) {
+            final int[] result = new int[Math.min(candidates.length, size)];
+            int count = 0;
+            for (int i = 0, j = 0; i < candidates.length && j < size; ) {
+                if (candidates[i] < ids[j]) {
+                    i++;
+                } else if (candidates[i] > ids[j]) {
+                    j++;
+                } else {
+                    result[count++] = candidates[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.spreetail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthesizes command traces for the WorkloadTool from a mix of reads and writes.
+ *
+ * The trace starts with setup ADDs giving every key its members, drawn from the members-per-key distribution.
+ * Keys are then picked by rank from a Zipf distribution: key i is read and written (1 / (i + 1))^skew as often
+ * as key 0, so skew 0 spreads the load evenly and skew 1 sends about an eighth of it to the hottest key of 1000.
+ * Reads are MEMBERS and MEMBEREXISTS, about half of the MEMBEREXISTS asking for a member that does not exist;
+ * writes ADD a new member, or REMOVE the oldest member of a key with more than one. Commands arrive as a
+ * Poisson process at the given rate, the way independent clients do.
+ */
+class WorkloadGenerator {
+
+    /**
+     * Distribution of the number of members per key, around a mean.
+     */
+    enum MemberDistribution {
+        FIXED,
+        UNIFORM,
+        GEOMETRIC
+    }
+
+    static final String KEY_PREFIX = "key";
+    static final String MEMBER_PREFIX = "member";
+
+    private final int keys;
+    private final double readRatio;
+    private final int meanMembers;
+    private final MemberDistribution distribution;
+    private final double[] cumulative;
+    private final Random random;
+
+    /**
+     * @param keys number of keys.
+     * @param skew Zipf exponent of the key popularity, 0 for uniform.
+     * @param meanMembers mean number of members per key, at least 1.
+     * @param distribution distribution of the number of members per key.
+     * @param readRatio fraction of the commands that are reads, between 0 and 1.
+     * @param seed seed making the trace reproducible.
+     */
+    WorkloadGenerator(final int keys, final double skew, final int meanMembers, final MemberDistribution distribution,
+                      final double readRatio, final long seed) {
+        if (keys <= 0 || skew < 0 || meanMembers <= 0 || readRatio < 0 || readRatio > 1) {
+            throw new IllegalArgumentException("Invalid workload: keys " + keys + ", skew " + skew + ", members "
+                    + meanMembers + ", read ratio " + readRatio);
+        }
+        this.keys = keys;
+        this.readRatio = readRatio;
+        this.meanMembers = meanMembers;
+        this.distribution = distribution;
+        this.random = new Random(seed);
+        this.cumulative = new double[keys];
+
+        double total = 0;
+        for (int i = 0; i < keys; i++) {
+            total += Math.pow(i + 1, -skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < keys; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    /**
+     * Generates the setup commands, then the given number of timed commands.
+     * @param commands number of timed commands.
+     * @param rate mean number of commands per second.
+     * @return trace of the workload.
+     */
+    List<WorkloadTrace.TraceEntry> generate(final int commands, final double rate) {
+        if (commands < 0 || rate <= 0) {
+            throw new IllegalArgumentException("Invalid workload: commands " + commands + ", rate " + rate);
+        }
+
+        final List<WorkloadTrace.TraceEntry> trace = new ArrayList<>();
+        final int[] oldest = new int[keys];
+        final int[] next = new int[keys];
+        for (int key = 0; key < keys; key++) {
+            next[key] = members();
+            for (int member = 0; member < next[key]; member++) {
+                trace.add(new WorkloadTrace.TraceEntry(-1, command(Command.ADD, key, member)));
+            }
+        }
+
+        double offsetNanos = 0;
+        for (int i = 0; i < commands; i++) {
+            offsetNanos += -Math.log(1 - random.nextDouble()) / rate * 1e9;
+            final int key = key();
+            final String[] command;
+            if (random.nextDouble() < readRatio) {
+                final int member = oldest[key] + random.nextInt(2 * (next[key] - oldest[key]));
+                command = random.nextBoolean()
+                        ? command(Command.MEMBERS, key)
+                        : command(Command.MEMBEREXISTS, key, member);
+            } else if (next[key] - oldest[key] > 1 && random.nextBoolean()) {
+                command = command(Command.REMOVE, key, oldest[key]++);
+            } else {
+                command = command(Command.ADD, key, next[key]++);
+            }
+            trace.add(new WorkloadTrace.TraceEntry((long) offsetNanos, command));
+        }
+        return trace;
+    }
+
+    /**
+     * Returns the rank of a key drawn from the Zipf distribution, 0 being the most popular.
+     */
+    int key() {
+        final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(keys - 1, index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Returns a number of members drawn from the members-per-key distribution, at least 1.
+     */
+    int members() {
+        switch (distribution) {
+            case UNIFORM:
+                return 1 + random.nextInt(2 * meanMembers - 1);
+            case GEOMETRIC:
+                return 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - 1.0 / meanMembers));
+            default:
+                return meanMembers;
+        }
+    }
+
+    private static String[] command(final Command command, final int key) {
+        return new String[] {command.name(), KEY_PREFIX + key};
+    }
+
+    private static String[] command(final Command command, final int key, final int member) {
+        return new String[] {command.name(), KEY_PREFIX + key, MEMBER_PREFIX + member};
+    }
+}
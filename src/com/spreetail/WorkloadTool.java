@@ -0,0 +1,764 @@
+package com.spreetail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+/**
+ * Drives a DictionaryHandler with a recorded or synthetic workload and reports its latency and throughput.
+ * Usage: java -cp WorkSample.jar com.spreetail.WorkloadTool
+ * - replay &lt;trace&gt; [speed] [dictionary options]: replays a trace, speed 2 issuing its commands twice as fast.
+ * - generate &lt;trace&gt; [workload options]: writes a synthetic trace.
+ * - run [workload options] [dictionary options]: generates a synthetic workload and runs it.
+ * - startup [runs] [--jvm "&lt;options&gt;"]: launches the console in one-shot mode runs times and reports its
+ *   time to first command and time to exit, to compare launch options such as the AppCDS archive.
+ * - cas [threads] [--seconds &lt;s&gt;] [--keys &lt;n&gt;] [--skew &lt;zipfExponent&gt;] [--members &lt;n&gt;]: runs threads
+ *   replacing the members of keys with VERSION and REPLACE as fast as they can, and reports the updates per
+ *   second and how often a REPLACE lost the race to another thread.
+ * - dispatch [threads] [workload options] [dictionary options]: runs a synthetic workload as fast as it can be
+ *   issued through a single global lock on a pool of platform threads, then through the CommandDispatcher on the
+ *   same pool and on its default executor, and reports the throughput and latency of each.
+ * - batch [maxSize] [--commands &lt;n&gt;] [--keys &lt;n&gt;]: applies ADD and REMOVE commands one by one, then in
+ *   MULTI/EXEC transactions of 1, 2, 4... up to maxSize commands, and reports the commands per second of each.
+ * - growth [keys]: adds keys one by one to an empty dictionary and reports the latency of the adds, whose worst
+ *   case is set by how the key table resizes.
+ * - footprint [keys] [--members &lt;n&gt;]: fills a dictionary of long keys and long members, as --types long:long
+ *   does, and reports the heap it retains and the bytes ADD and MEMBERS allocate, per key-member pair.
+ * Workload options: --commands &lt;n&gt;, --rate &lt;commandsPerSecond&gt;, --keys &lt;n&gt;, --skew &lt;zipfExponent&gt;,
+ * --members &lt;mean&gt; [FIXED|UNIFORM|GEOMETRIC], --read-ratio &lt;0..1&gt;, --seed &lt;n&gt; and
+ * --interval &lt;ms&gt; between throughput reports. Dictionary options are those of Main, such as --cache.
+ *
+ * The run is open-loop: every command is issued at its time in the trace, through the same CommandDispatcher
+ * and command routing as the console, whether or not earlier commands have completed. Its latency is measured
+ * from that intended time rather than from when it was actually issued, so a stall is charged to every command
+ * it delayed instead of only the one that hit it (coordinated omission). The console output of the commands is
+ * discarded while the workload runs.
+ */
+public class WorkloadTool {
+
+    static final int DEFAULT_COMMANDS = 100000;
+    static final double DEFAULT_RATE = 10000;
+    static final int DEFAULT_KEYS = 1000;
+    static final double DEFAULT_SKEW = 0.99;
+    static final int DEFAULT_MEMBERS = 10;
+    static final double DEFAULT_READ_RATIO = 0.9;
+    static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    static final int DEFAULT_STARTUP_RUNS = 20;
+    static final int DEFAULT_CAS_THREADS = 4;
+    static final double DEFAULT_CAS_SECONDS = 5;
+    static final int DEFAULT_GROWTH_KEYS = 50000000;
+    static final int DEFAULT_DISPATCH_THREADS = 4;
+    static final int DEFAULT_BATCH_SIZE = 64;
+    static final int DEFAULT_FOOTPRINT_KEYS = 100000;
+
+    private static final String USAGE = "Usage: WorkloadTool replay <trace> [speed] [dictionary options]"
+            + " | generate <trace> [workload options] | run [workload options] [dictionary options]"
+            + " | startup [runs] [--jvm \"<options>\"]"
+            + " | cas [threads] [--seconds <s>] [--keys <n>] [--skew <zipfExponent>] [--members <n>]"
+            + " | dispatch [threads] [workload options] [dictionary options]"
+            + " | batch [maxSize] [--commands <n>] [--keys <n>] | growth [keys]"
+            + " | footprint [keys] [--members <n>]";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    /**
+     * Runs or generates a workload, then prints its report, 1 line per result.
+     * @param args mode, then its arguments and options.
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        final long interval = TimeUnit.MILLISECONDS.toNanos(
+                (long) doubleOption(args, "--interval", DEFAULT_INTERVAL_MILLIS));
+        final List<String> lines;
+        switch (args[0]) {
+            case "replay":
+                if (args.length < 2) {
+                    System.out.println(USAGE);
+                    return;
+                }
+                final double speed = args.length > 2 && !args[2].startsWith("--") ? Double.parseDouble(args[2]) : 1;
+                final List<WorkloadTrace.TraceEntry> trace = WorkloadTrace.read(Paths.get(args[1]));
+                lines = run(Main.createHandler(args), trace, speed, interval).lines();
+                break;
+            case "generate":
+                if (args.length < 2) {
+                    System.out.println(USAGE);
+                    return;
+                }
+                WorkloadTrace.write(Paths.get(args[1]), generate(args));
+                return;
+            case "run":
+                lines = run(Main.createHandler(args), generate(args), 1, interval).lines();
+                break;
+            case "startup":
+                final int runs = args.length > 1 && !args[1].startsWith("--")
+                        ? Integer.parseInt(args[1]) : DEFAULT_STARTUP_RUNS;
+                final String jvmOptions = stringOption(args, "--jvm", 1, "").trim();
+                lines = startup(runs, jvmOptions.isEmpty()
+                        ? Collections.<String>emptyList() : Arrays.asList(jvmOptions.split(" +")));
+                break;
+            case "cas":
+                final int threads = args.length > 1 && !args[1].startsWith("--")
+                        ? Integer.parseInt(args[1]) : DEFAULT_CAS_THREADS;
+                lines = compareAndSet(threads, (int) doubleOption(args, "--keys", DEFAULT_KEYS),
+                        doubleOption(args, "--skew", DEFAULT_SKEW),
+                        (int) doubleOption(args, "--members", DEFAULT_MEMBERS),
+                        (long) (doubleOption(args, "--seconds", DEFAULT_CAS_SECONDS) * 1e9));
+                break;
+            case "dispatch":
+                lines = compareDispatch(args, generate(args), args.length > 1 && !args[1].startsWith("--")
+                        ? Integer.parseInt(args[1]) : DEFAULT_DISPATCH_THREADS);
+                break;
+            case "batch":
+                lines = batchSizes(args.length > 1 && !args[1].startsWith("--")
+                        ? Integer.parseInt(args[1]) : DEFAULT_BATCH_SIZE,
+                        (int) doubleOption(args, "--commands", DEFAULT_COMMANDS),
+                        (int) doubleOption(args, "--keys", DEFAULT_KEYS));
+                break;
+            case "growth":
+                lines = growth(args.length > 1 ? (int) Double.parseDouble(args[1]) : DEFAULT_GROWTH_KEYS);
+                break;
+            case "footprint":
+                lines = footprint(args.length > 1 && !args[1].startsWith("--")
+                        ? (int) Double.parseDouble(args[1]) : DEFAULT_FOOTPRINT_KEYS,
+                        (int) doubleOption(args, "--members", DEFAULT_MEMBERS));
+                break;
+            default:
+                System.out.println(USAGE);
+                return;
+        }
+
+        for (int i = 0; i < lines.size(); i++) {
+            System.out.println(i+1 + DictionaryHandler.PREFIX + lines.get(i));
+        }
+    }
+
+    /**
+     * Runs a workload open-loop: setup commands first and unmeasured, then every timed command at its time.
+     * @param handler dictionary handler running the commands.
+     * @param trace commands of the workload.
+     * @param speed multiplier of the pace of the trace, 2 issuing the commands twice as fast.
+     * @param intervalNanos length of the intervals of the throughput report.
+     * @return latency and throughput of the timed commands.
+     * @throws InterruptedException if interrupted while waiting for the commands to complete.
+     */
+    static Report run(final DictionaryHandler<?, ?> handler, final List<WorkloadTrace.TraceEntry> trace,
+                      final double speed, final long intervalNanos) throws InterruptedException {
+        if (speed <= 0 || intervalNanos <= 0) {
+            throw new IllegalArgumentException("Invalid speed " + speed + " or interval " + intervalNanos);
+        }
+
+        int timed = 0;
+        for (final WorkloadTrace.TraceEntry entry : trace) {
+            if (!entry.isSetup()) {
+                timed++;
+            }
+        }
+
+        final PrintStream console = System.out;
+        System.setOut(new PrintStream(DISCARD));
+        try (CommandDispatcher dispatcher = CommandDispatcher.create()) {
+            for (final WorkloadTrace.TraceEntry entry : trace) {
+                if (entry.isSetup()) {
+                    Main.execute(handler, entry.command());
+                }
+            }
+
+            final CountDownLatch completed = new CountDownLatch(timed);
+            final long start = System.nanoTime();
+            final Report report = new Report(start, intervalNanos);
+            for (final WorkloadTrace.TraceEntry entry : trace) {
+                if (entry.isSetup()) {
+                    continue;
+                }
+                final long intended = start + (long) (entry.offsetNanos() / speed);
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                report.issued(now - intended);
+
+                final String[] command = entry.command();
+                final String key = handler.inTransaction() ? null : Main.keyOf(command);
+                dispatcher.dispatch(key, () -> Main.execute(handler, command)).whenComplete((result, error) -> {
+                    report.completed(Command.valueOf(command[0]), intended, System.nanoTime(), error != null);
+                    completed.countDown();
+                });
+            }
+            completed.await();
+            report.finish(System.nanoTime());
+            return report;
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Runs threads updating keys with compare-and-set for the given time, closed-loop. Every update reads the
+     * version and members of a key picked from the Zipf distribution, drops its oldest member, appends a new one
+     * and replaces the members if the version is unchanged, starting over if another thread got there first.
+     * @param threads number of updating threads.
+     * @param keys number of keys, each holding the given number of members.
+     * @param skew Zipf exponent of the key popularity, higher values making the threads collide more often.
+     * @param members number of members of every key.
+     * @param durationNanos duration of the run.
+     * @return update throughput, retries per update and update latency, one line each.
+     * @throws InterruptedException if interrupted while waiting for the threads to finish.
+     */
+    static List<String> compareAndSet(final int threads, final int keys, final double skew, final int members,
+                                      final long durationNanos) throws InterruptedException {
+        if (threads <= 0 || durationNanos <= 0) {
+            throw new IllegalArgumentException("Invalid threads " + threads + " or duration " + durationNanos);
+        }
+
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(keys, null);
+        try {
+            for (int key = 0; key < keys; key++) {
+                final List<String> initial = new ArrayList<>(members);
+                for (int member = 0; member < members; member++) {
+                    initial.add(WorkloadGenerator.MEMBER_PREFIX + member);
+                }
+                dictionary.addIfAbsentKey(WorkloadGenerator.KEY_PREFIX + key, initial);
+            }
+        } catch (final DictionaryException de) {
+            throw new IllegalArgumentException(de.getMessage(), de);
+        }
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong retries = new AtomicLong();
+        final List<Thread> updaters = new ArrayList<>(threads);
+        final long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            // each thread draws its own keys, the generator is not thread-safe
+            final WorkloadGenerator generator = new WorkloadGenerator(keys, skew, members,
+                    WorkloadGenerator.MemberDistribution.FIXED, 0, t);
+            final String memberPrefix = WorkloadGenerator.MEMBER_PREFIX + t + "-";
+            updaters.add(new Thread(() -> {
+                long next = 0;
+                long now;
+                while ((now = System.nanoTime()) - start < durationNanos) {
+                    final String key = WorkloadGenerator.KEY_PREFIX + generator.key();
+                    final String member = memberPrefix + next++;
+                    while (true) {
+                        try {
+                            final long version = dictionary.version(key);
+                            final List<String> updated = new ArrayList<>(dictionary.members(key));
+                            updated.remove(0);
+                            updated.add(member);
+                            dictionary.replace(key, version, updated);
+                            break;
+                        } catch (final DictionaryException de) {
+                            retries.incrementAndGet();
+                        }
+                    }
+                    latency.record(System.nanoTime() - now);
+                }
+            }, "cas-" + t));
+        }
+        for (final Thread updater : updaters) {
+            updater.start();
+        }
+        for (final Thread updater : updaters) {
+            updater.join();
+        }
+
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        return Arrays.asList(
+                String.format(Locale.ROOT, "updates: %d in %.3f s, %.0f updates/s, %d threads",
+                        latency.count(), seconds, latency.count() / seconds, threads),
+                String.format(Locale.ROOT, "retries: %d, %.4f per update", retries.get(),
+                        latency.count() == 0 ? 0 : (double) retries.get() / latency.count()),
+                "latency " + format(latency));
+    }
+
+    /**
+     * Compares ways of running commands concurrently on the timed commands of a workload, issued all at once
+     * regardless of their times, each against a new dictionary loaded with the setup commands:
+     * - global lock: every command runs on a pool of platform threads under one lock shared by all of them.
+     * - mailboxes on platform threads: the CommandDispatcher on a pool of the same size.
+     * - mailboxes on the default executor: the CommandDispatcher of the console, on virtual threads when the
+     *   JVM has them.
+     * The global lock does not keep the order of the commands on a key, it is only the baseline the mailboxes are
+     * measured against. Every way runs the workload once unmeasured to warm up first.
+     * @param args options creating the dictionaries, those of Main.
+     * @param trace commands of the workload.
+     * @param threads number of platform threads.
+     * @return throughput and latency of every way, two lines each.
+     */
+    static List<String> compareDispatch(final String[] args, final List<WorkloadTrace.TraceEntry> trace,
+                                        final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid threads " + threads);
+        }
+
+        final List<String> lines = new ArrayList<>();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Object lock = new Object();
+        try {
+            lines.addAll(dispatchRun("global lock on " + threads + " platform threads", args, trace,
+                    (key, command) -> CompletableFuture.runAsync(() -> {
+                        synchronized (lock) {
+                            command.run();
+                        }
+                    }, pool)));
+        } finally {
+            pool.shutdown();
+        }
+        try (CommandDispatcher dispatcher = CommandDispatcher.platform(threads)) {
+            lines.addAll(dispatchRun("mailboxes on " + threads + " platform threads", args, trace,
+                    dispatcher::dispatch));
+        }
+        try (CommandDispatcher dispatcher = CommandDispatcher.create()) {
+            lines.addAll(dispatchRun("mailboxes on the default executor", args, trace, dispatcher::dispatch));
+        }
+        return lines;
+    }
+
+    /**
+     * Runs the timed commands of a workload twice through the given dispatch, each time against a new dictionary,
+     * and measures the second run. Latency is measured from when a command was issued, so it is mostly the time
+     * the command waited behind the others.
+     */
+    private static List<String> dispatchRun(final String name, final String[] args,
+                                            final List<WorkloadTrace.TraceEntry> trace,
+                                            final BiFunction<String, Runnable, CompletableFuture<Void>> dispatch) {
+        final PrintStream console = System.out;
+        System.setOut(new PrintStream(DISCARD));
+        try {
+            List<String> lines = null;
+            for (int run = 0; run < 2; run++) {
+                final DictionaryHandler<?, ?> handler = Main.createHandler(args);
+                for (final WorkloadTrace.TraceEntry entry : trace) {
+                    if (entry.isSetup()) {
+                        Main.execute(handler, entry.command());
+                    }
+                }
+
+                final LatencyHistogram latency = new LatencyHistogram();
+                final AtomicLong errors = new AtomicLong();
+                final List<CompletableFuture<Void>> futures = new ArrayList<>(trace.size());
+                final long start = System.nanoTime();
+                for (final WorkloadTrace.TraceEntry entry : trace) {
+                    if (entry.isSetup()) {
+                        continue;
+                    }
+                    final String[] command = entry.command();
+                    final long issued = System.nanoTime();
+                    futures.add(dispatch.apply(Main.keyOf(command), () -> Main.execute(handler, command))
+                            .whenComplete((result, error) -> {
+                                latency.record(System.nanoTime() - issued);
+                                if (error != null) {
+                                    errors.incrementAndGet();
+                                }
+                            }));
+                }
+                for (final CompletableFuture<Void> future : futures) {
+                    future.handle((result, error) -> null).join();
+                }
+
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                lines = Arrays.asList(
+                        String.format(Locale.ROOT, "%s: %d commands in %.3f s, %.0f commands/s, %d errors",
+                                name, latency.count(), seconds, latency.count() / seconds, errors.get()),
+                        name + " latency " + format(latency));
+                handler.close();
+            }
+            return lines;
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Measures the throughput of transactions by batch size: the same ADD and REMOVE commands are applied one by
+     * one, then queued in transactions of 1, 2, 4... up to maxSize commands, each executed under a single
+     * acquisition of the write lock. Every run starts from a new dictionary and is measured after one unmeasured
+     * run.
+     * @param maxSize largest batch size.
+     * @param commands number of commands of every run.
+     * @param keys number of keys the commands are spread over.
+     * @return commands per second without transactions, then for every batch size, one line each.
+     */
+    static List<String> batchSizes(final int maxSize, final int commands, final int keys) {
+        if (maxSize <= 0 || commands <= 0 || keys <= 0) {
+            throw new IllegalArgumentException("Invalid batch size " + maxSize + ", commands " + commands
+                    + " or keys " + keys);
+        }
+
+        final List<String> lines = new ArrayList<>();
+        lines.add(batchRun(0, commands, keys));
+        for (int size = 1; size <= maxSize; size *= 2) {
+            lines.add(batchRun(size, commands, keys));
+        }
+        return lines;
+    }
+
+    /**
+     * Adds and removes members in pairs, so that every REMOVE finds the member added before it, in transactions
+     * of the given size, or without transactions for size 0.
+     */
+    private static String batchRun(final int size, final int commands, final int keys) {
+        double seconds = 0;
+        try {
+            for (int run = 0; run < 2; run++) {
+                final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(keys, null);
+                Transaction<String, String> transaction = new Transaction<>();
+                final long start = System.nanoTime();
+                for (int i = 0; i < commands; i++) {
+                    final Command type = i % 2 == 0 ? Command.ADD : Command.REMOVE;
+                    final String key = WorkloadGenerator.KEY_PREFIX + (i / 2 % keys);
+                    final String member = WorkloadGenerator.MEMBER_PREFIX + i / 2;
+                    if (size == 0) {
+                        if (type == Command.ADD) {
+                            dictionary.add(key, member);
+                        } else {
+                            dictionary.remove(key, member);
+                        }
+                        continue;
+                    }
+                    transaction.queue(type, key, member);
+                    if (transaction.size() == size || i == commands - 1) {
+                        transaction.exec(dictionary);
+                        transaction = new Transaction<>();
+                    }
+                }
+                seconds = (System.nanoTime() - start) / 1e9;
+            }
+        } catch (final DictionaryException de) {
+            throw new IllegalStateException(de.getMessage(), de);
+        }
+        return String.format(Locale.ROOT, "%s: %d commands in %.3f s, %.0f commands/s",
+                size == 0 ? "no transaction" : "batch " + size, commands, seconds, commands / seconds);
+    }
+
+    /**
+     * Adds the given number of keys, one member each, to an empty dictionary without a capacity hint, so that
+     * its key table resizes all the way, and measures every add.
+     * @param keys number of keys to be added.
+     * @return add throughput and add latency, one line each.
+     */
+    static List<String> growth(final int keys) {
+        if (keys <= 0) {
+            throw new IllegalArgumentException("Invalid keys " + keys);
+        }
+
+        final MultiValueDictionary<Integer, Integer> dictionary = new MultiValueDictionary<>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final long start = System.nanoTime();
+        try {
+            for (int key = 0; key < keys; key++) {
+                final long before = System.nanoTime();
+                dictionary.add(key, key);
+                latency.record(System.nanoTime() - before);
+            }
+        } catch (final DictionaryException de) {
+            throw new IllegalStateException(de.getMessage(), de);
+        }
+
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        return Arrays.asList(
+                String.format(Locale.ROOT, "adds: %d in %.3f s, %.0f adds/s", keys, seconds, keys / seconds),
+                "latency " + format(latency));
+    }
+
+    /**
+     * Fills an empty dictionary of long keys and long members and measures its footprint: the heap it retains
+     * once built, and the bytes allocated by the thread building it and then reading every key with MEMBERS.
+     * Members are distinct and outside the range of the cached Longs, so each one would cost a boxed Long.
+     * @param keys number of keys to be added.
+     * @param members number of members of every key.
+     * @return retained heap, ADD allocation and MEMBERS allocation per key-member pair, one line each.
+     */
+    static List<String> footprint(final int keys, final int members) {
+        if (keys <= 0 || members <= 0) {
+            throw new IllegalArgumentException("Invalid keys " + keys + " or members " + members);
+        }
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final double pairs = (double) keys * members;
+        final long heapBefore = usedHeap();
+        final long addBefore = threads.getThreadAllocatedBytes(thread);
+        final MultiValueDictionary<Long, Long> dictionary = new MultiValueDictionary<>();
+        final long added;
+        final long retained;
+        final long read;
+        try {
+            for (long key = 0; key < keys; key++) {
+                for (long member = 0; member < members; member++) {
+                    dictionary.add(key, 1000 + key * members + member);
+                }
+            }
+            added = threads.getThreadAllocatedBytes(thread) - addBefore;
+            retained = usedHeap() - heapBefore;
+
+            final long readBefore = threads.getThreadAllocatedBytes(thread);
+            for (long key = 0; key < keys; key++) {
+                dictionary.members(key);
+            }
+            read = threads.getThreadAllocatedBytes(thread) - readBefore;
+        } catch (final DictionaryException de) {
+            throw new IllegalStateException(de.getMessage(), de);
+        }
+
+        return Arrays.asList(
+                String.format(Locale.ROOT, "pairs: %.0f, retained %.1f bytes/pair", pairs, retained / pairs),
+                String.format(Locale.ROOT, "ADD allocated %.1f bytes/pair", added / pairs),
+                String.format(Locale.ROOT, "MEMBERS allocated %.1f bytes/pair", read / pairs));
+    }
+
+    /**
+     * Returns the heap in use after collecting the garbage, as far as System.gc() collects it.
+     */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Launches the console in one-shot mode against a small saved dictionary, once to warm the file system
+     * cache and then the given number of times, each in a new JVM.
+     * @param runs number of measured launches.
+     * @param jvmOptions options of the launched JVMs.
+     * @return time to the output of the command and time to exit, one line each.
+     * @throws IOException if a JVM cannot be launched or fails.
+     * @throws InterruptedException if interrupted while waiting for a JVM to exit.
+     */
+    static List<String> startup(final int runs, final List<String> jvmOptions)
+            throws IOException, InterruptedException {
+        if (runs <= 0) {
+            throw new IllegalArgumentException("Invalid runs " + runs);
+        }
+
+        final Path data = Files.createTempFile("startup", ".mvd");
+        Files.delete(data);
+        final LatencyHistogram firstCommand = new LatencyHistogram();
+        final LatencyHistogram exit = new LatencyHistogram();
+        try {
+            launch(jvmOptions, data, "ADD startup member");
+            for (int i = 0; i < runs; i++) {
+                final long[] times = launch(jvmOptions, data, "MEMBERS startup");
+                firstCommand.record(times[0]);
+                exit.record(times[1]);
+            }
+        } finally {
+            Files.deleteIfExists(data);
+        }
+        return Arrays.asList("first command " + format(firstCommand), "exit " + format(exit));
+    }
+
+    /**
+     * Launches the console with one command and waits for it to exit.
+     * @return nanoseconds until the first line of output, and until the JVM exited.
+     */
+    private static long[] launch(final List<String> jvmOptions, final Path data, final String command)
+            throws IOException, InterruptedException {
+        final List<String> arguments = new ArrayList<>();
+        arguments.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        arguments.addAll(jvmOptions);
+        arguments.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                "--data", data.toString(), "-c", command));
+
+        final long start = System.nanoTime();
+        final Process process = new ProcessBuilder(arguments).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        final long firstLine;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            // JVM log lines, such as a warning about a stale archive, are not the command's output
+            while ((line = output.readLine()) != null && line.startsWith("[")) {
+                System.err.println(line);
+            }
+            if (line == null) {
+                throw new IOException("No output from " + arguments);
+            }
+            firstLine = System.nanoTime() - start;
+            while (output.readLine() != null) {
+                // drain the output so the JVM never blocks on it
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("Exit code " + process.exitValue() + " from " + arguments);
+        }
+        return new long[] {firstLine, System.nanoTime() - start};
+    }
+
+    private static List<WorkloadTrace.TraceEntry> generate(final String[] args) {
+        final WorkloadGenerator generator = new WorkloadGenerator(
+                (int) doubleOption(args, "--keys", DEFAULT_KEYS),
+                doubleOption(args, "--skew", DEFAULT_SKEW),
+                (int) doubleOption(args, "--members", DEFAULT_MEMBERS),
+                WorkloadGenerator.MemberDistribution.valueOf(
+                        stringOption(args, "--members", 2, WorkloadGenerator.MemberDistribution.GEOMETRIC.name())),
+                doubleOption(args, "--read-ratio", DEFAULT_READ_RATIO),
+                Long.parseLong(stringOption(args, "--seed", 1, "1")));
+        return generator.generate((int) doubleOption(args, "--commands", DEFAULT_COMMANDS),
+                doubleOption(args, "--rate", DEFAULT_RATE));
+    }
+
+    private static double doubleOption(final String[] args, final String option, final double defaultValue) {
+        return Double.parseDouble(stringOption(args, option, 1, Double.toString(defaultValue)));
+    }
+
+    /**
+     * Returns the value following an option, values being numbered from 1, or the default if it is missing.
+     */
+    private static String stringOption(final String[] args, final String option, final int value,
+                                       final String defaultValue) {
+        for (int i = 0; i + value < args.length; i++) {
+            if (option.equals(args[i])) {
+                for (int j = i + 1; j <= i + value; j++) {
+                    if (args[j].startsWith("--")) {
+                        return defaultValue;
+                    }
+                }
+                return args[i + value];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Latency percentiles of the timed commands, overall and by command, and their throughput over time.
+     */
+    static final class Report {
+
+        private final long start;
+        private final long intervalNanos;
+        private final LatencyHistogram all = new LatencyHistogram();
+        private final Map<Command, LatencyHistogram> byCommand = new EnumMap<>(Command.class);
+        private final List<Long> completions = new ArrayList<>();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong maxLag = new AtomicLong();
+        private long end;
+
+        Report(final long start, final long intervalNanos) {
+            this.start = start;
+            this.intervalNanos = intervalNanos;
+        }
+
+        /**
+         * Records how late a command was issued after its intended time.
+         */
+        void issued(final long lagNanos) {
+            maxLag.accumulateAndGet(lagNanos, Math::max);
+        }
+
+        /**
+         * Records a completed command, its latency measured from its intended time.
+         */
+        void completed(final Command command, final long intended, final long completed, final boolean failed) {
+            all.record(completed - intended);
+            histogram(command).record(completed - intended);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            final int interval = (int) ((completed - start) / intervalNanos);
+            synchronized (completions) {
+                while (completions.size() <= interval) {
+                    completions.add(0L);
+                }
+                completions.set(interval, completions.get(interval) + 1);
+            }
+        }
+
+        void finish(final long end) {
+            this.end = end;
+        }
+
+        LatencyHistogram latency() {
+            return all;
+        }
+
+        synchronized LatencyHistogram latency(final Command command) {
+            return byCommand.get(command);
+        }
+
+        long errors() {
+            return errors.get();
+        }
+
+        /**
+         * Returns the number of commands completed in every interval since the start, in order.
+         */
+        List<Long> completions() {
+            synchronized (completions) {
+                return new ArrayList<>(completions);
+            }
+        }
+
+        /**
+         * Returns the report, one line per result.
+         * @return lines describing the run.
+         */
+        synchronized List<String> lines() {
+            final List<String> lines = new ArrayList<>();
+            final double seconds = (end - start) / 1e9;
+            lines.add(String.format(Locale.ROOT, "commands: %d in %.3f s, %.0f commands/s, %d errors",
+                    all.count(), seconds, seconds == 0 ? 0 : all.count() / seconds, errors.get()));
+            lines.add("latency " + format(all));
+            for (final Map.Entry<Command, LatencyHistogram> entry : byCommand.entrySet()) {
+                lines.add("latency " + entry.getKey() + " " + format(entry.getValue()));
+            }
+            lines.add(String.format(Locale.ROOT, "max issue lag: %.3f ms", maxLag.get() / 1e6));
+
+            final List<Long> completed = completions();
+            for (int i = 0; i < completed.size(); i++) {
+                // the last interval ends with the run
+                final long length = Math.min(intervalNanos, end - start - i * intervalNanos);
+                lines.add(String.format(Locale.ROOT, "throughput %.3f s: %.0f commands/s",
+                        (i * intervalNanos + length) / 1e9, length <= 0 ? 0 : completed.get(i) * 1e9 / length));
+            }
+            return lines;
+        }
+
+        private synchronized LatencyHistogram histogram(final Command command) {
+            return byCommand.computeIfAbsent(command, c -> new LatencyHistogram());
+        }
+
+    }
+
+    private static String format(final LatencyHistogram histogram) {
+        final StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "mean %.3f ms",
+                histogram.mean() / 1e6));
+        for (final double percentile : PERCENTILES) {
+            line.append(String.format(Locale.ROOT, ", p%s %.3f ms",
+                    percentile == Math.rint(percentile) ? Integer.toString((int) percentile)
+                            : Double.toString(percentile),
+                    histogram.percentile(percentile) / 1e6));
+        }
+        return line.append(String.format(Locale.ROOT, ", max %.3f ms", histogram.max() / 1e6)).toString();
+    }
+}
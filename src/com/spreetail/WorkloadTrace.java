@@ -0,0 +1,164 @@
+package com.spreetail;
+
+import static com.spreetail.DictionaryHandler.PREFIX;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command traces replayed by the WorkloadTool, recorded by the console with --record or written by the
+ * WorkloadGenerator.
+ *
+ * A trace is a text file with one command per line: the time the command was read, in microseconds since
+ * the start of the trace, a space, then the command exactly as typed. Setup commands, run before the clock
+ * starts and never measured, have the time "-". Empty lines and lines starting with "#" are ignored.
+ */
+final class WorkloadTrace {
+
+    static final String ERROR_INVALID_TRACE = PREFIX + "ERROR, invalid trace line ";
+    static final String SETUP = "-";
+
+    private static final String DELIMITER = " ";
+    private static final String COMMENT = "#";
+
+    private WorkloadTrace() {
+    }
+
+    /**
+     * Reads every command of a trace, in file order.
+     * @param path trace file.
+     * @return commands of the trace.
+     * @throws IOException if the file cannot be read, or a line is not a valid trace line.
+     */
+    static List<TraceEntry> read(final Path path) throws IOException {
+        final List<TraceEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith(COMMENT)) {
+                    continue;
+                }
+                entries.add(parse(line, lineNumber));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes commands to a trace file, replacing it.
+     * @param path trace file.
+     * @param entries commands to be written.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(final Path path, final List<TraceEntry> entries) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (final TraceEntry entry : entries) {
+                writer.write(entry.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    private static TraceEntry parse(final String line, final int lineNumber) throws IOException {
+        final int separator = line.indexOf(DELIMITER);
+        if (separator <= 0 || separator == line.length() - 1) {
+            throw new IOException(ERROR_INVALID_TRACE + lineNumber);
+        }
+
+        final String time = line.substring(0, separator);
+        final String[] command = line.substring(separator + 1).split(DELIMITER);
+        try {
+            Command.valueOf(command[0]);
+            final long offsetNanos = SETUP.equals(time) ? -1 : Long.parseLong(time) * 1000;
+            if (!SETUP.equals(time) && offsetNanos < 0) {
+                throw new IOException(ERROR_INVALID_TRACE + lineNumber);
+            }
+            return new TraceEntry(offsetNanos, command);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException(ERROR_INVALID_TRACE + lineNumber, e);
+        }
+    }
+
+    /**
+     * One command of a trace.
+     */
+    static final class TraceEntry {
+
+        private final long offsetNanos;
+        private final String[] command;
+
+        /**
+         * @param offsetNanos time of the command since the start of the trace, negative for a setup command.
+         * @param command the command and its arguments, as split by the console.
+         */
+        TraceEntry(final long offsetNanos, final String[] command) {
+            this.offsetNanos = offsetNanos;
+            this.command = command;
+        }
+
+        long offsetNanos() {
+            return offsetNanos;
+        }
+
+        String[] command() {
+            return command;
+        }
+
+        boolean isSetup() {
+            return offsetNanos < 0;
+        }
+
+        @Override
+        public String toString() {
+            return (isSetup() ? SETUP : Long.toString(offsetNanos / 1000)) + DELIMITER
+                    + String.join(DELIMITER, command);
+        }
+    }
+
+    /**
+     * Appends the commands typed into the console to a trace, timed from the creation of the recorder.
+     */
+    static final class Recorder implements AutoCloseable {
+
+        private final PrintWriter writer;
+        private final long start = System.nanoTime();
+
+        /**
+         * Creates a recorder writing to the given file, replacing it.
+         * @param path trace file.
+         * @throws IOException if the file cannot be created.
+         */
+        Recorder(final Path path) throws IOException {
+            this.writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Records a command read by the console.
+         * @param command the command and its arguments, as split by the console.
+         */
+        synchronized void record(final String[] command) {
+            writer.println(new TraceEntry(System.nanoTime() - start, command));
+        }
+
+        /**
+         * Closes the trace file.
+         * @throws IOException if a command could not be written.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            writer.close();
+            if (writer.checkError()) {
+                throw new IOException("Trace could not be written");
+            }
+        }
+    }
+}
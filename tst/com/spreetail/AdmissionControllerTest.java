@@ -0,0 +1,168 @@
+package com.spreetail;
+
+import static com.spreetail.AdmissionController.Policy.*;
+import static com.spreetail.AdmissionController.Priority.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControllerTest {
+
+    @Test
+    void testSubmit_keepsClientOrder() throws Exception {
+        final Map<String, List<Integer>> applied = new ConcurrentHashMap<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        try (AdmissionController controller = new AdmissionController(64, BLOCK, 0, 0, 4)) {
+            for (int i = 0; i < 4000; i++) {
+                final String client = "client" + (i % 4);
+                final int sequence = i;
+                futures.add(controller.submit(client, i % 3 == 0 ? READ : WRITE,
+                        () -> applied.computeIfAbsent(client, c -> new CopyOnWriteArrayList<>()).add(sequence)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        }
+
+        for (final List<Integer> sequences : applied.values()) {
+            assertEquals(1000, sequences.size());
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i - 1) < sequences.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testShed_rejectsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try (AdmissionController controller = new AdmissionController(2, SHED, 0, 0, 1)) {
+            final CountDownLatch started = new CountDownLatch(1);
+            controller.submit("ingest", WRITE, () -> block(started, release));
+            started.await();
+            controller.submit("ingest", WRITE, () -> { });
+            controller.submit("query", READ, () -> { });
+
+            final DictionaryException exception = assertThrows(DictionaryException.class,
+                    () -> controller.submit("query", READ, () -> { }));
+            assertEquals(AdmissionController.ERROR_QUEUE_FULL, exception.getMessage());
+            assertEquals(2, controller.depth());
+            assertTrue(controller.stats().contains("admission shed: 1"));
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testBlock_waitsForRoom() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try (AdmissionController controller = new AdmissionController(1, BLOCK, 0, 0, 1)) {
+            final CountDownLatch started = new CountDownLatch(1);
+            controller.submit("ingest", WRITE, () -> block(started, release));
+            started.await();
+            controller.submit("ingest", WRITE, () -> { });
+
+            final CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+                try {
+                    controller.submit("ingest", WRITE, () -> { }).join();
+                } catch (final DictionaryException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testRateLimit_perClientTokenBucket() throws Exception {
+        final AtomicLong now = new AtomicLong();
+
+        try (AdmissionController controller = new AdmissionController(16, RATE_LIMIT, 1, 2, 1, now::get)) {
+            controller.submit("ingest", WRITE, () -> { });
+            controller.submit("ingest", WRITE, () -> { });
+            final DictionaryException exception = assertThrows(DictionaryException.class,
+                    () -> controller.submit("ingest", WRITE, () -> { }));
+            assertEquals(AdmissionController.ERROR_RATE_LIMITED, exception.getMessage());
+
+            controller.submit("query", READ, () -> { });
+
+            now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            controller.submit("ingest", WRITE, () -> { }).get(5, TimeUnit.SECONDS);
+            assertTrue(controller.stats().contains("admission rate limited: 1"));
+        }
+    }
+
+    @Test
+    void testPriority_readsBeforeOtherClientsWrites() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try (AdmissionController controller = new AdmissionController(64, BLOCK, 0, 0, 1)) {
+            final CountDownLatch started = new CountDownLatch(1);
+            controller.submit("blocker", WRITE, () -> block(started, release));
+            started.await();
+
+            controller.submit("ingest", WRITE, () -> order.add("write1"));
+            controller.submit("ingest", WRITE, () -> order.add("write2"));
+            controller.submit("query", READ, () -> order.add("read1"));
+            controller.submit("query", WRITE, () -> order.add("write3"));
+            release.countDown();
+        }
+
+        assertEquals(Arrays.asList("read1", "write1", "write3", "write2"), order);
+    }
+
+    @Test
+    void testPriority_writesNotStarved() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try (AdmissionController controller = new AdmissionController(64, BLOCK, 0, 0, 1)) {
+            final CountDownLatch started = new CountDownLatch(1);
+            controller.submit("blocker", WRITE, () -> block(started, release));
+            started.await();
+
+            controller.submit("ingest", WRITE, () -> order.add("write"));
+            for (int i = 0; i < AdmissionController.READ_BURST * 2; i++) {
+                final String read = "read" + i;
+                controller.submit("query" + i, READ, () -> order.add(read));
+            }
+            release.countDown();
+        }
+
+        assertEquals(AdmissionController.READ_BURST, order.indexOf("write"));
+        assertEquals(AdmissionController.READ_BURST * 2 + 1, order.size());
+    }
+
+    @Test
+    void testClose_runsQueuedCommands() throws Exception {
+        final AdmissionController controller = new AdmissionController(64, BLOCK, 0, 0, 2);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(controller.submit("client" + (i % 3), WRITE, () -> { }));
+        }
+
+        controller.close();
+
+        for (final CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+        }
+        assertThrows(DictionaryException.class, () -> controller.submit("client", READ, () -> { }));
+        assertTrue(controller.stats().contains("admission completed: 32"));
+    }
+
+    private static void block(final CountDownLatch started, final CountDownLatch release) {
+        started.countDown();
+        try {
+            release.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ColdStoreTest {
+
+    private Path directory;
+    private ColdStore<String, String> store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("cold-store");
+        store = new ColdStore<>(directory, Codec.STRING, Codec.STRING);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void testSpillAndGet() throws IOException {
+        final Map<String, MemberSet<String>> spilled = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            spilled.put("key" + i, members(i, "b" + i, "a" + i));
+        }
+        store.spill(spilled);
+
+        final ColdStore.Record<String> record = store.get("key42");
+        assertEquals(Arrays.asList("b42", "a42"), record.members());
+        assertEquals(42, record.version());
+        assertNull(store.get("key100"));
+        assertEquals(100, store.keyCount());
+        assertEquals(200, store.memberCount());
+        assertEquals(1, store.segmentCount());
+    }
+
+    @Test
+    void testPromote_writesTombstone() throws IOException {
+        store.spill(Collections.singletonMap("key1", members(1, "a")));
+
+        assertEquals(Collections.singletonList("a"), store.promote("key1").members());
+        assertNull(store.get("key1"));
+        assertNull(store.promote("key1"));
+        assertEquals(0, store.keyCount());
+
+        store.spill(Collections.singletonMap("key2", members(2, "b")));
+
+        assertNull(store.get("key1"));
+        final List<String> keys = new ArrayList<>();
+        store.forEachKey((key, members) -> keys.add(key));
+        assertEquals(Collections.singletonList("key2"), keys);
+    }
+
+    @Test
+    void testSpill_newestRecordWins() throws IOException {
+        store.spill(Collections.singletonMap("key1", members(1, "a")));
+        store.promote("key1");
+        store.spill(Collections.singletonMap("key1", members(2, "b", "c")));
+
+        final ColdStore.Record<String> record = store.get("key1");
+        assertEquals(Arrays.asList("b", "c"), record.members());
+        assertEquals(2, record.version());
+        assertEquals(1, store.keyCount());
+    }
+
+    @Test
+    void testCompaction_mergesSegments() throws Exception {
+        for (int segment = 0; segment < ColdStore.FANOUT; segment++) {
+            final Map<String, MemberSet<String>> spilled = new HashMap<>();
+            for (int i = 0; i < 50; i++) {
+                spilled.put("key" + segment + "-" + i, members(segment, "member" + i));
+            }
+            store.spill(spilled);
+            store.promote("key" + segment + "-0");
+        }
+        awaitSegments(1);
+
+        assertEquals(ColdStore.FANOUT * 49, store.keyCount());
+        assertNull(store.get("key0-0"));
+        assertEquals(Collections.singletonList("member7"), store.get("key2-7").members());
+        final List<String> keys = new ArrayList<>();
+        store.forEachKey((key, members) -> keys.add(key));
+        assertEquals(ColdStore.FANOUT * 49, keys.size());
+        assertEquals(1, segmentFiles());
+    }
+
+    @Test
+    void testForEach_sortedByKey() throws IOException {
+        store.spill(Collections.singletonMap("b", members(1, "1")));
+        store.spill(Collections.singletonMap("c", members(2, "2")));
+        store.spill(Collections.singletonMap("a", members(3, "3", "4")));
+
+        final Map<String, List<String>> items = new LinkedHashMap<>();
+        store.forEach(items::put);
+
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(items.keySet()));
+        assertEquals(Arrays.asList("3", "4"), items.get("a"));
+    }
+
+    @Test
+    void testClear_deletesSegments() throws IOException {
+        store.spill(Collections.singletonMap("key1", members(1, "a")));
+        store.spill(Collections.singletonMap("key2", members(2, "b")));
+
+        store.clear();
+
+        assertEquals(0, segmentFiles());
+        assertEquals(0, store.keyCount());
+        assertNull(store.get("key1"));
+    }
+
+    @Test
+    void testOpen_deletesStaleSegments() throws IOException {
+        store.spill(Collections.singletonMap("key1", members(1, "a")));
+
+        final ColdStore<String, String> reopened = new ColdStore<>(directory, Codec.STRING, Codec.STRING);
+
+        assertEquals(0, segmentFiles());
+        assertNull(reopened.get("key1"));
+    }
+
+    @Test
+    void testStats() throws IOException {
+        store.spill(Collections.singletonMap("key1", members(1, "a")));
+        store.get("key1");
+        store.get("absent");
+
+        final List<String> stats = store.stats(7);
+
+        assertEquals("tier hot keys: 7", stats.get(0));
+        assertEquals("tier cold keys: 1, members: 1", stats.get(1));
+        assertTrue(stats.get(2).startsWith("tier segments: 1, bytes: "));
+        assertTrue(stats.get(3).startsWith("tier spilled keys: 1, "));
+        assertTrue(stats.get(4).startsWith("tier promoted keys: 0, "));
+        assertTrue(stats.get(5).startsWith("tier lookups: 2, filter skips: "));
+        assertTrue(stats.get(6).contains("write amplification: 1.00"));
+        assertEquals("tier compactions: 0, errors: 0", stats.get(7));
+    }
+
+    private static MemberSet<String> members(final long version, final String... members) {
+        MemberSet<String> set = null;
+        for (final String member : members) {
+            set = set == null ? MemberSet.of(member) : set.add(member);
+        }
+        set.version = version;
+        return set;
+    }
+
+    private void awaitSegments(final int segments) throws InterruptedException {
+        for (int i = 0; i < 500 && store.segmentCount() != segments; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(segments, store.segmentCount());
+    }
+
+    private long segmentFiles() throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ColdStore.SEGMENT_SUFFIX)) {
+            for (final Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
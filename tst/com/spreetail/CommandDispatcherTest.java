@@ -0,0 +1,158 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class CommandDispatcherTest {
+
+    @Test
+    void testDispatch_keepsPerKeyOrder() {
+        final Map<String, List<Integer>> applied = new HashMap<>();
+        for (int key = 0; key < 8; key++) {
+            applied.put("key" + key, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        try (CommandDispatcher dispatcher = CommandDispatcher.platform(4)) {
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8000; i++) {
+                final String key = "key" + (i % 8);
+                final int sequence = i;
+                futures.add(dispatcher.dispatch(key, () -> applied.get(key).add(sequence)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        }
+
+        for (int key = 0; key < 8; key++) {
+            final List<Integer> sequences = applied.get("key" + key);
+            assertEquals(1000, sequences.size());
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i - 1) < sequences.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testDispatch_keylessWaitsForKeyedCommands() {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger seenByBarrier = new AtomicInteger();
+
+        try (CommandDispatcher dispatcher = CommandDispatcher.platform(4)) {
+            for (int i = 0; i < 1000; i++) {
+                dispatcher.dispatch("key" + (i % 16), completed::incrementAndGet);
+            }
+            dispatcher.dispatch(null, () -> seenByBarrier.set(completed.get())).join();
+        }
+
+        assertEquals(1000, seenByBarrier.get());
+    }
+
+    @Test
+    void testDispatch_keylessHoldsOffOtherCallers() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean barrierRunning = new AtomicBoolean();
+        final AtomicInteger overlapping = new AtomicInteger();
+        final AtomicInteger ran = new AtomicInteger();
+
+        try (CommandDispatcher dispatcher = CommandDispatcher.platform(4)) {
+            final Thread barrier = new Thread(() -> dispatcher.dispatch(null, () -> {
+                barrierRunning.set(true);
+                entered.countDown();
+                await(release);
+                barrierRunning.set(false);
+            }));
+            barrier.start();
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            final List<Thread> callers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                final String key = i % 2 == 0 ? "key" + i : null;
+                callers.add(new Thread(() -> dispatcher.dispatch(key, () -> {
+                    if (barrierRunning.get()) {
+                        overlapping.incrementAndGet();
+                    }
+                    ran.incrementAndGet();
+                }).join()));
+            }
+            callers.forEach(Thread::start);
+
+            Thread.sleep(100);
+            assertEquals(0, ran.get());
+            release.countDown();
+            barrier.join();
+            for (final Thread caller : callers) {
+                caller.join();
+            }
+        }
+
+        assertEquals(4, ran.get());
+        assertEquals(0, overlapping.get());
+    }
+
+    @Test
+    void testDispatch_errorCompletesFuture() {
+        final AtomicInteger completed = new AtomicInteger();
+
+        try (CommandDispatcher dispatcher = CommandDispatcher.platform(2)) {
+            final CompletableFuture<Void> failed = dispatcher.dispatch("key1", () -> {
+                throw new AssertionError("failed");
+            });
+            final CompletionException ce = assertThrows(CompletionException.class, failed::join);
+            assertTrue(ce.getCause() instanceof AssertionError);
+
+            dispatcher.dispatch("key1", completed::incrementAndGet).join();
+            assertThrows(CompletionException.class, () -> dispatcher.dispatch(null, () -> {
+                throw new StackOverflowError();
+            }).join());
+        }
+
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    void testDispatch_dictionaryCommands() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+
+        try (CommandDispatcher dispatcher = CommandDispatcher.create()) {
+            for (int i = 0; i < 1000; i++) {
+                final String key = "key" + (i % 10);
+                final String member = "value" + i;
+                dispatcher.dispatch(key, () -> {
+                    try {
+                        dictionary.add(key, member);
+                    } catch (final DictionaryException de) {
+                        throw new IllegalStateException(de);
+                    }
+                });
+            }
+        }
+
+        assertEquals(10, dictionary.keyCount());
+        assertEquals(1000, dictionary.memberCount());
+        assertEquals("value0", dictionary.members("key0").get(0));
+    }
+
+    @Test
+    void testKeyOf() {
+        assertEquals("key1", Main.keyOf(new String[] {Command.ADD.name(), "key1", "value1"}));
+        assertNull(Main.keyOf(new String[] {Command.KEYS.name()}));
+        assertNull(Main.keyOf(new String[] {Command.SUBSCRIBE.name(), "key"}));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
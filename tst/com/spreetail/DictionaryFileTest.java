@@ -0,0 +1,213 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DictionaryFileTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("dictionary", ".mvd");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void testExportImport() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    void testExportImport_deflate() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    void testImport_skipsExistingMembers() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", "value1");
+        dictionary.add("key1", "value2");
+        DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, false);
+
+        final MultiValueDictionary<String, String> restored = new MultiValueDictionary<>();
+        restored.add("key1", "value1");
+
+        assertEquals(1, DictionaryFile.importInto(restored, Codec.STRING, Codec.STRING, file));
+        assertEquals(dictionary.items(), restored.items());
+    }
+
+    @Test
+    void testImport_notADictionaryFile() throws IOException {
+        Files.write(file, "ADD key1 value1".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class,
+                () -> DictionaryFile.importInto(new MultiValueDictionary<>(), Codec.STRING, Codec.STRING, file));
+    }
+
+    @Test
+    void testImport_truncated() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", "value1");
+        DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, false);
+
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+
+        assertThrows(IOException.class,
+                () -> DictionaryFile.importInto(new MultiValueDictionary<>(), Codec.STRING, Codec.STRING, file));
+    }
+
+    @Test
+    void testImport_truncatedAppliesNothing() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        for (int i = 0; i < 200000; i++) {
+            dictionary.add("key" + i, "value" + i);
+        }
+        DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, false);
+
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 100));
+
+        final MultiValueDictionary<String, String> restored = new MultiValueDictionary<>();
+        final DictionaryException de = assertThrows(DictionaryException.class,
+                () -> DictionaryFile.importInto(restored, Codec.STRING, Codec.STRING, file));
+        assertEquals(DictionaryFile.ERROR_CORRUPT_FILE, de.getMessage());
+        assertEquals(0, restored.keyCount());
+    }
+
+    @Test
+    void testImport_corruptLengths() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", "value1");
+        DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, true);
+        final byte[] bytes = Files.readAllBytes(file);
+        // magic, flags and the two length-prefixed codec names come before the first block header
+        final int header = 4 + 1 + 1 + Codec.STRING.name().length() + 1 + Codec.STRING.name().length();
+
+        final int[][] corruptions = {{0, Integer.MAX_VALUE}, {0, -1}, {4, Integer.MAX_VALUE}, {4, 0},
+                {0, DictionaryFile.MAX_BLOCK_LENGTH + 1}};
+        for (final int[] corruption : corruptions) {
+            final ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+            corrupt.putInt(header + corruption[0], corruption[1]);
+            Files.write(file, corrupt.array());
+
+            final MultiValueDictionary<String, String> restored = new MultiValueDictionary<>();
+            final DictionaryException de = assertThrows(DictionaryException.class,
+                    () -> DictionaryFile.importInto(restored, Codec.STRING, Codec.STRING, file));
+            assertEquals(DictionaryFile.ERROR_CORRUPT_FILE, de.getMessage());
+            assertEquals(0, restored.keyCount());
+        }
+    }
+
+    @Test
+    void testExportImport_long() throws Exception {
+        final MultiValueDictionary<Long, Long> dictionary = new MultiValueDictionary<>();
+        for (long i = 0; i < 10000; i++) {
+            dictionary.add(i % 2500, -i);
+        }
+
+        assertEquals(10000, DictionaryFile.export(dictionary, Codec.LONG, Codec.LONG, file, false));
+
+        final MultiValueDictionary<Long, Long> restored = new MultiValueDictionary<>();
+        assertEquals(10000, DictionaryFile.importInto(restored, Codec.LONG, Codec.LONG, file));
+        assertEquals(dictionary.items(), restored.items());
+    }
+
+    @Test
+    void testExport_splitsLargeKey() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        for (int i = 0; i < 200000; i++) {
+            dictionary.add("key1", "value" + i);
+        }
+        dictionary.add("key2", "value1");
+
+        assertEquals(200001, DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, false));
+        final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        final int header = 4 + 1 + 1 + Codec.STRING.name().length() + 1 + Codec.STRING.name().length();
+        assertTrue(bytes.getInt(header) <= DictionaryFile.BLOCK_SIZE + 64);
+
+        final MultiValueDictionary<String, String> restored = new MultiValueDictionary<>();
+        assertEquals(200001, DictionaryFile.importInto(restored, Codec.STRING, Codec.STRING, file));
+        assertEquals(dictionary.members("key1"), restored.members("key1"));
+        assertEquals(dictionary.items(), restored.items());
+    }
+
+    @Test
+    void testExport_failureKeepsFile() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", "value1");
+        DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, false);
+        final byte[] previous = Files.readAllBytes(file);
+        final Codec<String> failing = new Codec<String>() {
+            @Override
+            public String name() {
+                return Codec.STRING.name();
+            }
+
+            @Override
+            public String parse(final String text) {
+                return text;
+            }
+
+            @Override
+            public byte[] encode(final String value) {
+                throw new IllegalStateException("cannot encode " + value);
+            }
+
+            @Override
+            public String decode(final byte[] bytes, final int offset, final int length) {
+                return null;
+            }
+        };
+        dictionary.add("key2", "value2");
+
+        assertThrows(IllegalStateException.class,
+                () -> DictionaryFile.export(dictionary, Codec.STRING, failing, file, false));
+
+        assertArrayEquals(previous, Files.readAllBytes(file));
+        try (Stream<Path> siblings = Files.list(file.getParent())) {
+            assertEquals(0, siblings.filter(sibling -> sibling.getFileName().toString()
+                    .startsWith(file.getFileName().toString())
+                    && sibling.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    void testImport_otherTypes() throws Exception {
+        final MultiValueDictionary<Long, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(1L, "value1");
+        DictionaryFile.export(dictionary, Codec.LONG, Codec.STRING, file, false);
+
+        assertThrows(IOException.class,
+                () -> DictionaryFile.importInto(new MultiValueDictionary<>(), Codec.STRING, Codec.STRING, file));
+    }
+
+    private void assertRoundTrip(final boolean deflate) throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        for (int i = 0; i < 200000; i++) {
+            dictionary.add("key" + i % 50000, "value" + i % 1000 + "-" + i / 50000);
+        }
+
+        assertEquals(200000, DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, file, deflate));
+
+        final MultiValueDictionary<String, String> restored = new MultiValueDictionary<>();
+        assertEquals(200000, DictionaryFile.importInto(restored, Codec.STRING, Codec.STRING, file));
+        assertEquals(dictionary.items(), restored.items());
+    }
+}
@@ -6,11 +6,15 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
 
 import static com.spreetail.Command.*;
 import static com.spreetail.DictionaryHandler.*;
 import static com.spreetail.MultiValueDictionary.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DictionaryHandlerTest {
 
@@ -24,12 +28,12 @@ class DictionaryHandlerTest {
     private final PrintStream standardOut = System.out;
     private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
 
-    private DictionaryHandler dictionaryHandler;
+    private DictionaryHandler<String, String> dictionaryHandler;
 
     @BeforeEach
     void setUp() {
         System.setOut(new PrintStream(outContent));
-        dictionaryHandler = new DictionaryHandler();
+        dictionaryHandler = new DictionaryHandler<>(Codec.STRING, Codec.STRING);
     }
 
     @AfterEach
@@ -213,6 +217,25 @@ class DictionaryHandlerTest {
         assertEquals(ERROR_INVALID_ARGUMENTS + MEMBEREXISTS.name(), outContent.toString().trim());
     }
 
+    @Test
+    void handleMembersExist() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleMembersExist(new String[] {MEMBERSEXIST.name(), KEY1, MEMBER2, MEMBER1});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                "1" + PREFIX + false + NEWLINE +
+                "2" + PREFIX + true;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleMembersExist_invalidArguments() {
+        dictionaryHandler.handleMembersExist(new String[] {MEMBERSEXIST.name(), KEY1});
+        assertEquals(ERROR_INVALID_ARGUMENTS + MEMBERSEXIST.name(), outContent.toString().trim());
+    }
+
     @Test
     void handleAllMembers() {
         dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
@@ -261,9 +284,463 @@ class DictionaryHandlerTest {
         assertEquals(expectedOutput, outContent.toString().trim());
     }
 
+    @Test
+    void handleItems_doesNotPromoteColdKeys() throws Exception {
+        final ColdStore<String, String> cold = new ColdStore<>(Files.createTempDirectory("tier"), Codec.STRING,
+                Codec.STRING);
+        dictionaryHandler = new DictionaryHandler<>(new MultiValueDictionary<>(0, null, 0, cold, 1),
+                Codec.STRING, Codec.STRING);
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER2});
+        outContent.reset();
+        dictionaryHandler.handleItems(new String[] {ITEMS.name()});
+        final List<String> stats = cold.stats(1);
+        dictionaryHandler.close();
+
+        final String output = outContent.toString();
+        assertTrue(output.contains(PREFIX + KEY1 + ": " + MEMBER1));
+        assertTrue(output.contains(PREFIX + KEY2 + ": " + MEMBER2));
+        assertTrue(stats.get(4).startsWith("tier promoted keys: 0, "));
+    }
+
     @Test
     void handleItems_invalidArguments() {
         dictionaryHandler.handleItems(new String[] {});
         assertEquals(ERROR_INVALID_ARGUMENTS + ITEMS.name(), outContent.toString().trim());
     }
-}
\ No newline at end of file
+
+    @Test
+    void handleStats_filter() {
+        dictionaryHandler = new DictionaryHandler<>(new MultiValueDictionary<>(new MembershipFilter<>(100, 0.01)),
+                Codec.STRING, Codec.STRING);
+        dictionaryHandler.handleKeyExists(new String[] {KEYEXISTS.name(), KEY1});
+        dictionaryHandler.handleStats(new String[] {STATS.name()});
+
+        final String expectedOutput =
+                PREFIX + false + NEWLINE +
+                "1) filter key negatives: 1" + NEWLINE +
+                "2) filter key positives: 0" + NEWLINE +
+                "3) filter member negatives: 0" + NEWLINE +
+                "4) filter member positives: 0" + NEWLINE +
+                "5) filter false positives: 0";
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleStats_admission() throws Exception {
+        try (AdmissionController controller = new AdmissionController(16, AdmissionController.Policy.SHED, 0, 0, 1)) {
+            dictionaryHandler.setAdmissionController(controller);
+            controller.submit("console", AdmissionController.Priority.WRITE,
+                    () -> dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1})).join();
+            dictionaryHandler.handleStats(new String[] {STATS.name()});
+        }
+
+        final String output = outContent.toString();
+        assertTrue(output.startsWith(ADDED + NEWLINE + "1) admission policy: SHED" + NEWLINE));
+        assertTrue(output.contains(PREFIX + "admission queue depth: 0" + NEWLINE));
+        assertTrue(output.contains(PREFIX + "admission completed: 1" + NEWLINE));
+    }
+
+    @Test
+    void handleStats_tier() throws Exception {
+        final ColdStore<String, String> cold = new ColdStore<>(Files.createTempDirectory("tier"), Codec.STRING,
+                Codec.STRING);
+        dictionaryHandler = new DictionaryHandler<>(new MultiValueDictionary<>(0, null, 0, cold, 1),
+                Codec.STRING, Codec.STRING);
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER1});
+        dictionaryHandler.handleMembers(new String[] {MEMBERS.name(), KEY1});
+        outContent.reset();
+        dictionaryHandler.handleStats(new String[] {STATS.name()});
+        dictionaryHandler.close();
+
+        final String output = outContent.toString();
+        assertTrue(output.startsWith("1) tier hot keys: 1" + NEWLINE + "2) tier cold keys: 1, members: 1" + NEWLINE));
+        assertTrue(output.contains(PREFIX + "tier spilled keys: 2, "));
+        assertTrue(output.contains(PREFIX + "tier promoted keys: 1, "));
+    }
+
+    @Test
+    void handleHotKeys() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER1});
+        for (int i = 0; i < 1000; i++) {
+            dictionaryHandler.handleMemberExists(new String[] {MEMBEREXISTS.name(), KEY1, MEMBER1});
+        }
+        outContent.reset();
+        dictionaryHandler.handleHotKeys(new String[] {HOTKEYS.name()});
+
+        assertTrue(outContent.toString().startsWith("1" + PREFIX + KEY1 + ": "));
+        assertFalse(outContent.toString().contains(KEY2));
+    }
+
+    @Test
+    void handleHotKeys_empty() {
+        dictionaryHandler.handleHotKeys(new String[] {HOTKEYS.name()});
+        assertEquals(EMPTY_SET, outContent.toString().trim());
+    }
+
+    @Test
+    void handleHotKeys_invalidArguments() {
+        dictionaryHandler.handleHotKeys(new String[] {HOTKEYS.name(), KEY1});
+        assertEquals(ERROR_INVALID_ARGUMENTS + HOTKEYS.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleStats_cache() {
+        dictionaryHandler = new DictionaryHandler<>(new MultiValueDictionary<>(0, null, 8),
+                Codec.STRING, Codec.STRING);
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        for (int i = 0; i < 1000; i++) {
+            dictionaryHandler.handleMembers(new String[] {MEMBERS.name(), KEY1});
+        }
+        outContent.reset();
+        dictionaryHandler.handleStats(new String[] {STATS.name()});
+
+        final String output = outContent.toString();
+        assertTrue(output.startsWith("1) cache keys: 1" + NEWLINE));
+        assertTrue(output.contains(PREFIX + "cache evictions: 0" + NEWLINE));
+    }
+
+    @Test
+    void handleStats_empty() {
+        dictionaryHandler.handleStats(new String[] {STATS.name()});
+        assertEquals(EMPTY_SET, outContent.toString().trim());
+    }
+
+    @Test
+    void handleStats_invalidArguments() {
+        dictionaryHandler.handleStats(new String[] {});
+        assertEquals(ERROR_INVALID_ARGUMENTS + STATS.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleCount() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER2});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER1});
+        dictionaryHandler.handleCount(new String[] {COUNT.name()});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                ADDED + NEWLINE +
+                ADDED + NEWLINE +
+                "1) keys: 2" + NEWLINE +
+                "2) members: 3" + NEWLINE +
+                "3) keys with 1 members: 1" + NEWLINE +
+                "4) keys with 2-3 members: 1";
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleCount_invalidArguments() {
+        dictionaryHandler.handleCount(new String[] {});
+        assertEquals(ERROR_INVALID_ARGUMENTS + COUNT.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleCard() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER2});
+        dictionaryHandler.handleCard(new String[] {CARD.name(), KEY1});
+        assertEquals(ADDED + NEWLINE + ADDED + NEWLINE + PREFIX + 2, outContent.toString().trim());
+    }
+
+    @Test
+    void handleCard_dictionaryException() {
+        dictionaryHandler.handleCard(new String[] {CARD.name(), KEY1});
+        assertEquals(ERROR_KEY_DOES_NOT_EXIST, outContent.toString().trim());
+    }
+
+    @Test
+    void handleCard_invalidArguments() {
+        dictionaryHandler.handleCard(new String[] {});
+        assertEquals(ERROR_INVALID_ARGUMENTS + CARD.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleVersion() {
+        dictionaryHandler.handleVersion(new String[] {VERSION.name(), KEY1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleVersion(new String[] {VERSION.name(), KEY1});
+        assertEquals(PREFIX + 0 + NEWLINE + ADDED + NEWLINE + PREFIX + 1, outContent.toString().trim());
+    }
+
+    @Test
+    void handleVersion_invalidArguments() {
+        dictionaryHandler.handleVersion(new String[] {VERSION.name()});
+        assertEquals(ERROR_INVALID_ARGUMENTS + VERSION.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleReplace() {
+        dictionaryHandler.handleAddIfAbsentKey(new String[] {ADDIFABSENTKEY.name(), KEY1, MEMBER1, MEMBER2});
+        dictionaryHandler.handleReplace(new String[] {REPLACE.name(), KEY1, "2", MEMBER2});
+        dictionaryHandler.handleMembers(new String[] {MEMBERS.name(), KEY1});
+        assertEquals(PREFIX + 2 + NEWLINE + PREFIX + 4 + NEWLINE + "1" + PREFIX + MEMBER2,
+                outContent.toString().trim());
+    }
+
+    @Test
+    void handleReplace_versionChanged() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleReplace(new String[] {REPLACE.name(), KEY1, "0", MEMBER2});
+        dictionaryHandler.handleReplace(new String[] {REPLACE.name(), KEY2, "1", MEMBER2});
+        assertEquals(ADDED + NEWLINE + ERROR_VERSION_MISMATCH + NEWLINE + ERROR_VERSION_MISMATCH,
+                outContent.toString().trim());
+    }
+
+    @Test
+    void handleReplace_invalidVersion() {
+        dictionaryHandler.handleReplace(new String[] {REPLACE.name(), KEY1, "first", MEMBER1});
+        dictionaryHandler.handleReplace(new String[] {REPLACE.name(), KEY1, "-1", MEMBER1});
+        assertEquals(ERROR_INVALID_VERSION + NEWLINE + ERROR_INVALID_VERSION, outContent.toString().trim());
+    }
+
+    @Test
+    void handleReplace_invalidArguments() {
+        dictionaryHandler.handleReplace(new String[] {REPLACE.name(), KEY1, "0"});
+        assertEquals(ERROR_INVALID_ARGUMENTS + REPLACE.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleAddIfAbsentKey_keyExists() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAddIfAbsentKey(new String[] {ADDIFABSENTKEY.name(), KEY1, MEMBER2});
+        assertEquals(ADDED + NEWLINE + ERROR_KEY_EXISTS, outContent.toString().trim());
+    }
+
+    @Test
+    void handleAddIfAbsentKey_invalidArguments() {
+        dictionaryHandler.handleAddIfAbsentKey(new String[] {ADDIFABSENTKEY.name(), KEY1});
+        assertEquals(ERROR_INVALID_ARGUMENTS + ADDIFABSENTKEY.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleDistinctMembers() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER2});
+        dictionaryHandler.handleDistinctMembers(new String[] {DISTINCTMEMBERS.name()});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                ADDED + NEWLINE +
+                ADDED + NEWLINE +
+                PREFIX + 2;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleDistinctMembers_invalidArguments() {
+        dictionaryHandler.handleDistinctMembers(new String[] {});
+        assertEquals(ERROR_INVALID_ARGUMENTS + DISTINCTMEMBERS.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleSubscribe() {
+        dictionaryHandler.handleSubscribe(new String[] {SUBSCRIBE.name(), KEY1});
+        dictionaryHandler.handleUnsubscribe(new String[] {UNSUBSCRIBE.name()});
+        assertEquals(SUBSCRIBED + NEWLINE + UNSUBSCRIBED, outContent.toString().trim());
+    }
+
+    @Test
+    void handleSubscribe_invalidArguments() {
+        dictionaryHandler.handleSubscribe(new String[] {SUBSCRIBE.name(), KEY1, KEY2});
+        assertEquals(ERROR_INVALID_ARGUMENTS + SUBSCRIBE.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleUnsubscribe_invalidArguments() {
+        dictionaryHandler.handleUnsubscribe(new String[] {});
+        assertEquals(ERROR_INVALID_ARGUMENTS + UNSUBSCRIBE.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleExec() {
+        dictionaryHandler.handleMulti(new String[] {MULTI.name()});
+        assertTrue(dictionaryHandler.queue(new String[] {ADD.name(), KEY1, MEMBER1}));
+        assertTrue(dictionaryHandler.queue(new String[] {REMOVE.name(), KEY1, MEMBER1}));
+        dictionaryHandler.handleExec(new String[] {EXEC.name()});
+
+        final String expectedOutput =
+                OK + NEWLINE +
+                QUEUED + NEWLINE +
+                QUEUED + NEWLINE +
+                "1" + ADDED + NEWLINE +
+                "2" + REMOVED;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+        assertFalse(dictionaryHandler.inTransaction());
+    }
+
+    @Test
+    void handleMulti_clientsInterleave() {
+        final DictionaryHandler<String, String> first = dictionaryHandler.client("a");
+        final DictionaryHandler<String, String> second = dictionaryHandler.client("b");
+
+        Main.execute(first, new String[] {MULTI.name()});
+        Main.execute(second, new String[] {ADD.name(), KEY1, MEMBER1});
+        Main.execute(first, new String[] {ADD.name(), KEY2, MEMBER1});
+        Main.execute(first, new String[] {DISCARD.name()});
+        Main.execute(second, new String[] {KEYEXISTS.name(), KEY1});
+        Main.execute(first, new String[] {KEYEXISTS.name(), KEY2});
+
+        final String expectedOutput =
+                OK + NEWLINE +
+                ADDED + NEWLINE +
+                QUEUED + NEWLINE +
+                DISCARDED + NEWLINE +
+                PREFIX + true + NEWLINE +
+                PREFIX + false;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+        assertTrue(first == dictionaryHandler.client("a"));
+        assertFalse(second.inTransaction());
+    }
+
+    @Test
+    void handleExec_watchedKeyChanged() {
+        dictionaryHandler.handleWatch(new String[] {WATCH.name(), KEY1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleMulti(new String[] {MULTI.name()});
+        dictionaryHandler.queue(new String[] {ADD.name(), KEY2, MEMBER1});
+        dictionaryHandler.handleExec(new String[] {EXEC.name()});
+
+        final String expectedOutput =
+                OK + NEWLINE +
+                ADDED + NEWLINE +
+                OK + NEWLINE +
+                QUEUED + NEWLINE +
+                Transaction.ERROR_WATCHED_KEY_CHANGED;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleExec_withoutMulti() {
+        dictionaryHandler.handleExec(new String[] {EXEC.name()});
+        assertEquals(ERROR_NOT_IN_MULTI, outContent.toString().trim());
+    }
+
+    @Test
+    void handleMulti_nested() {
+        dictionaryHandler.handleMulti(new String[] {MULTI.name()});
+        dictionaryHandler.handleMulti(new String[] {MULTI.name()});
+        assertEquals(OK + NEWLINE + ERROR_NESTED_MULTI, outContent.toString().trim());
+    }
+
+    @Test
+    void handleDiscard() {
+        dictionaryHandler.handleMulti(new String[] {MULTI.name()});
+        dictionaryHandler.queue(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleDiscard(new String[] {DISCARD.name()});
+        dictionaryHandler.handleKeyExists(new String[] {KEYEXISTS.name(), KEY1});
+
+        final String expectedOutput =
+                OK + NEWLINE +
+                QUEUED + NEWLINE +
+                DISCARDED + NEWLINE +
+                PREFIX + false;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void queue_notQueueable() {
+        assertFalse(dictionaryHandler.queue(new String[] {KEYS.name()}));
+        dictionaryHandler.handleMulti(new String[] {MULTI.name()});
+        assertTrue(dictionaryHandler.queue(new String[] {KEYS.name()}));
+        assertFalse(dictionaryHandler.queue(new String[] {EXEC.name()}));
+        assertEquals(OK + NEWLINE + Transaction.ERROR_COMMAND_NOT_QUEUEABLE, outContent.toString().trim());
+    }
+
+    @Test
+    void handleAdd_longTypes() {
+        final DictionaryHandler<Long, Long> longHandler = new DictionaryHandler<>(Codec.LONG, Codec.LONG);
+        longHandler.handleAdd(new String[] {ADD.name(), "42", "-7"});
+        longHandler.handleAdd(new String[] {ADD.name(), "42", MEMBER1});
+        longHandler.handleMembers(new String[] {MEMBERS.name(), "042"});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                Codec.ERROR_INVALID_VALUE + "long: " + MEMBER1 + NEWLINE +
+                1 + PREFIX + -7;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleFreeze() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleFreeze(new String[] {FREEZE.name()});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER2});
+        dictionaryHandler.handleThaw(new String[] {THAW.name()});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER2});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                FROZEN + NEWLINE +
+                MultiValueDictionary.ERROR_DICTIONARY_FROZEN + NEWLINE +
+                THAWED + NEWLINE +
+                ADDED;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleFreeze_invalidPolicy() {
+        dictionaryHandler.handleFreeze(new String[] {FREEZE.name(), "NEVER"});
+        assertEquals(ERROR_INVALID_ARGUMENTS + FREEZE.name(), outContent.toString().trim());
+    }
+
+    @Test
+    void handleSearch() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY2, MEMBER2});
+        dictionaryHandler.handleSearch(new String[] {SEARCH.name(), "ber1"});
+        dictionaryHandler.handleSearch(new String[] {SEARCH.name(), "none"});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                ADDED + NEWLINE +
+                1 + PREFIX + KEY1 + ": " + MEMBER1 + NEWLINE +
+                EMPTY_SET;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleTop() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1, SCORE, "3"});
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER2});
+        dictionaryHandler.handleIncrBy(new String[] {INCRBY.name(), KEY1, MEMBER2, "5"});
+        dictionaryHandler.handleTop(new String[] {TOP.name(), KEY1, "2"});
+        dictionaryHandler.handleRangeByScore(new String[] {RANGEBYSCORE.name(), KEY1, "0", "4"});
+
+        final String expectedOutput =
+                ADDED + NEWLINE +
+                ADDED + NEWLINE +
+                PREFIX + 5 + NEWLINE +
+                1 + PREFIX + MEMBER2 + ": 5" + NEWLINE +
+                2 + PREFIX + MEMBER1 + ": 3" + NEWLINE +
+                1 + PREFIX + MEMBER1 + ": 3";
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+
+    @Test
+    void handleTop_invalidCount() {
+        dictionaryHandler.handleAdd(new String[] {ADD.name(), KEY1, MEMBER1, SCORE, "x"});
+        dictionaryHandler.handleTop(new String[] {TOP.name(), KEY1, "0"});
+
+        final String expectedOutput =
+                ERROR_INVALID_SCORE + NEWLINE +
+                ERROR_INVALID_COUNT;
+
+        assertEquals(expectedOutput, outContent.toString().trim());
+    }
+}
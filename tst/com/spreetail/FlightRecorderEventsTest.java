@@ -0,0 +1,113 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class FlightRecorderEventsTest {
+
+    @Test
+    void testDisabledByDefault() {
+        assertTrue(FlightRecorderEvents.isAvailable());
+        assertNull(FlightRecorderEvents.beginCommand());
+        assertNull(FlightRecorderEvents.beginPersistence());
+    }
+
+    @Test
+    void testEvents_recorded() throws Exception {
+        final Path recordingFile = Files.createTempFile("dictionary", ".jfr");
+        final Path exportFile = Files.createTempFile("dictionary", ".mvd");
+        try (JfrRecording recording = new JfrRecording(FlightRecorderEvents.COMMAND, FlightRecorderEvents.RESIZE,
+                FlightRecorderEvents.PERSISTENCE)) {
+
+            final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+            final Object event = FlightRecorderEvents.beginCommand();
+            assertNotNull(event);
+            for (int i = 0; i < 100; i++) {
+                dictionary.add("key" + i, "member");
+            }
+            dictionary.members("key1");
+            FlightRecorderEvents.endCommand(event, Command.ADD, "key1");
+            DictionaryFile.export(dictionary, Codec.STRING, Codec.STRING, exportFile, false);
+
+            final List<?> events = recording.stop(recordingFile);
+            final Object command = only(events, FlightRecorderEvents.COMMAND);
+            assertEquals("ADD", JfrAnalyzer.call(command, "getString", "command"));
+            assertEquals("key1", JfrAnalyzer.call(command, "getString", "key"));
+            assertEquals(4, JfrAnalyzer.call(command, "getInt", "keyLength"));
+            assertEquals(101, JfrAnalyzer.call(command, "getInt", "members"));
+
+            assertFalse(named(events, FlightRecorderEvents.RESIZE).isEmpty());
+            final Object persistence = only(events, FlightRecorderEvents.PERSISTENCE);
+            assertEquals("EXPORT", JfrAnalyzer.call(persistence, "getString", "operation"));
+            assertEquals(100L, JfrAnalyzer.call(persistence, "getLong", "members"));
+            assertEquals(Files.size(exportFile), JfrAnalyzer.call(persistence, "getLong", "bytes"));
+        } finally {
+            Files.deleteIfExists(recordingFile);
+            Files.deleteIfExists(exportFile);
+        }
+    }
+
+    private static Object only(final List<?> events, final String name) throws IOException {
+        final List<Object> matching = named(events, name);
+        assertEquals(1, matching.size());
+        return matching.get(0);
+    }
+
+    private static List<Object> named(final List<?> events, final String name) throws IOException {
+        final List<Object> matching = new ArrayList<>();
+        for (final Object event : events) {
+            if (JfrAnalyzer.eventName(event).equals(name)) {
+                matching.add(event);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * A Flight Recorder recording driven reflectively, so that the tests compile against the Java 8 API
+     * like the sources, which has no jdk.jfr.
+     */
+    static final class JfrRecording implements AutoCloseable {
+
+        private final Class<?> type;
+        private final Object recording;
+
+        /**
+         * Starts recording the given events, with no duration threshold.
+         */
+        JfrRecording(final String... events) throws ReflectiveOperationException {
+            type = Class.forName("jdk.jfr.Recording");
+            recording = type.getConstructor().newInstance();
+            final Method withThreshold = Class.forName("jdk.jfr.EventSettings")
+                    .getMethod("withThreshold", Duration.class);
+            for (final String event : events) {
+                withThreshold.invoke(type.getMethod("enable", String.class).invoke(recording, event), Duration.ZERO);
+            }
+            type.getMethod("start").invoke(recording);
+        }
+
+        /**
+         * Stops the recording and dumps it to the given file.
+         * @return events of the recording.
+         */
+        List<?> stop(final Path file) throws ReflectiveOperationException, IOException {
+            type.getMethod("stop").invoke(recording);
+            type.getMethod("dump", Path.class).invoke(recording, file);
+            return JfrAnalyzer.readAllEvents(file);
+        }
+
+        @Override
+        public void close() throws ReflectiveOperationException {
+            type.getMethod("close").invoke(recording);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.spreetail;
+
+import static com.spreetail.MultiValueDictionary.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class FrozenDictionaryTest {
+
+    @Test
+    void testLookups_matchMutable() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        for (int i = 0; i < 100000; i++) {
+            dictionary.add("key" + i % 20000, "value" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            dictionary.add("large", "value" + i);
+        }
+        final Map<String, List<String>> items = dictionary.items();
+
+        final FrozenDictionary<String, String> frozen = FrozenDictionary.of(items, dictionary.memberCount());
+
+        assertEquals(items.size(), frozen.keyCount());
+        assertEquals(100100, frozen.memberCount());
+        assertEquals(new HashSet<>(items.keySet()), new HashSet<>(frozen.keys()));
+        for (final Map.Entry<String, List<String>> entry : items.entrySet()) {
+            assertEquals(entry.getValue(), frozen.members(entry.getKey()));
+            for (final String member : entry.getValue()) {
+                assertTrue(frozen.memberExists(entry.getKey(), member));
+            }
+            assertFalse(frozen.memberExists(entry.getKey(), "value-1"));
+        }
+        final List<String> candidates = new ArrayList<>(items.get("large"));
+        candidates.add(50, "value-1");
+        final BitSet exist = frozen.membersExist("large", candidates);
+        assertEquals(100, exist.cardinality());
+        assertFalse(exist.get(50));
+        assertTrue(frozen.membersExist("key20000", candidates).isEmpty());
+        assertFalse(frozen.keyExists("key20000"));
+        assertNull(frozen.members("key20000"));
+        assertEquals(-1, frozen.cardinality("key20000"));
+    }
+
+    @Test
+    void testEqualHashCodes() {
+        final Map<String, List<String>> items = new HashMap<>();
+        items.put("Aa", Collections.singletonList("value1"));
+        items.put("BB", Collections.singletonList("value2"));
+        items.put("AaAa", Collections.singletonList("value3"));
+        items.put("BBBB", Collections.singletonList("value4"));
+        items.put("AaBB", Collections.singletonList("value5"));
+
+        final FrozenDictionary<String, String> frozen = FrozenDictionary.of(items, 5);
+
+        for (final Map.Entry<String, List<String>> entry : items.entrySet()) {
+            assertEquals(entry.getValue(), frozen.members(entry.getKey()));
+        }
+        assertFalse(frozen.keyExists("BBAa"));
+    }
+
+    @Test
+    void testEmpty() {
+        final FrozenDictionary<String, String> frozen = FrozenDictionary.of(new HashMap<String, List<String>>(), 0);
+
+        assertEquals(0, frozen.keyCount());
+        assertFalse(frozen.keyExists("key1"));
+        assertTrue(frozen.keys().isEmpty());
+    }
+
+    @Test
+    void testFreeze_rejectsMutations() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", "value1");
+        dictionary.freeze(FreezePolicy.REJECT);
+
+        assertTrue(dictionary.isFrozen());
+        assertEquals(ERROR_DICTIONARY_FROZEN,
+                assertThrows(DictionaryException.class, () -> dictionary.add("key1", "value2")).getMessage());
+        assertEquals(ERROR_DICTIONARY_FROZEN,
+                assertThrows(DictionaryException.class, dictionary::clear).getMessage());
+        assertEquals(Collections.singletonList("value1"), dictionary.members("key1"));
+        assertTrue(dictionary.memberExists("key1", "value1"));
+        assertEquals(1, dictionary.memberCount());
+    }
+
+    @Test
+    void testFreeze_thawsOnMutation() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", "value1");
+        dictionary.add("key1", "value2");
+        dictionary.freeze(FreezePolicy.THAW);
+
+        dictionary.remove("key1", "value1");
+
+        assertFalse(dictionary.isFrozen());
+        assertEquals(Collections.singletonList("value2"), dictionary.members("key1"));
+        assertEquals(1, dictionary.memberCount());
+    }
+
+    @Test
+    void testThaw() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        for (int i = 0; i < 1000; i++) {
+            dictionary.add("key" + i % 10, "value" + i);
+        }
+        final Map<String, List<String>> items = dictionary.items();
+        dictionary.freeze(FreezePolicy.REJECT);
+        assertEquals(items, dictionary.items());
+
+        dictionary.thaw();
+        dictionary.add("key1", "value-1");
+
+        assertFalse(dictionary.isFrozen());
+        assertEquals(1001, dictionary.memberCount());
+        assertEquals(items.get("key2"), dictionary.members("key2"));
+    }
+}
@@ -0,0 +1,106 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class HotKeyTrackerTest {
+
+    @Test
+    void testHotKeys_skewedReads() {
+        final HotKeyTracker<String> tracker = new HotKeyTracker<>(1, 4);
+        final Random random = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            // roughly Zipfian: key n is read about 1 / n as often as key 1
+            final int n = (int) Math.floor(Math.pow(10000, random.nextDouble()));
+            tracker.record("key" + n);
+        }
+
+        final List<Map.Entry<String, Long>> hot = tracker.hotKeys();
+        assertEquals(4, hot.size());
+        assertEquals("key1", hot.get(0).getKey());
+        assertTrue(tracker.isHot("key1"));
+        assertTrue(tracker.isHot("key2"));
+        assertFalse(tracker.isHot("key9999"));
+        for (int i = 1; i < hot.size(); i++) {
+            assertTrue(hot.get(i - 1).getValue() >= hot.get(i).getValue());
+        }
+        assertEquals(50000, tracker.reads());
+        assertEquals(50000, tracker.samples());
+    }
+
+    @Test
+    void testHotKeys_neverUndercounts() {
+        final HotKeyTracker<Integer> tracker = new HotKeyTracker<>(1, 8);
+        for (int i = 0; i < 100; i++) {
+            tracker.record(7);
+        }
+        for (int i = 0; i < 10000; i++) {
+            tracker.record(1000 + i);
+        }
+
+        assertTrue(tracker.isHot(7));
+        assertTrue(tracker.hotKeys().get(0).getValue() >= 100);
+    }
+
+    @Test
+    void testHotKeys_scaledBySampleRate() {
+        final HotKeyTracker<String> tracker = new HotKeyTracker<>(16, 4);
+        for (int i = 0; i < 16000; i++) {
+            tracker.record("a");
+        }
+
+        final long estimate = tracker.hotKeys().get(0).getValue();
+        assertTrue(estimate > 12000 && estimate < 20000, "estimate " + estimate);
+        assertEquals(16000, tracker.reads());
+        assertTrue(tracker.samples() < 16000);
+    }
+
+    @Test
+    void testAging_coolKeysLeave() {
+        final HotKeyTracker<String> tracker = new HotKeyTracker<>(1, 2);
+        tracker.record("old");
+        for (int i = 0; i < HotKeyTracker.AGING_PERIOD; i++) {
+            tracker.record(i % 2 == 0 ? "a" : "b");
+        }
+
+        assertFalse(tracker.isHot("old"));
+        assertTrue(tracker.isHot("a"));
+        assertTrue(tracker.isHot("b"));
+        assertEquals(HotKeyTracker.AGING_PERIOD / 4, tracker.hotKeys().get(0).getValue(), 1);
+    }
+
+    @Test
+    void testIsHot_needsSamples() {
+        final HotKeyTracker<String> tracker = new HotKeyTracker<>(1, 4);
+        for (int i = 1; i < HotKeyTracker.HOT_SAMPLES; i++) {
+            tracker.record("a");
+        }
+        assertFalse(tracker.isHot("a"));
+        assertEquals(1, tracker.hotKeys().size());
+
+        tracker.record("a");
+        assertTrue(tracker.isHot("a"));
+    }
+
+    @Test
+    void testClear() {
+        final HotKeyTracker<String> tracker = new HotKeyTracker<>(1, 2);
+        for (int i = 0; i < HotKeyTracker.HOT_SAMPLES; i++) {
+            tracker.record("a");
+        }
+        tracker.clear();
+
+        assertFalse(tracker.isHot("a"));
+        assertTrue(tracker.hotKeys().isEmpty());
+        assertEquals(0, tracker.samples());
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new HotKeyTracker<String>(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new HotKeyTracker<String>(1, 0));
+    }
+}
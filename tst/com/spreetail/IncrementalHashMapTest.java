@@ -0,0 +1,172 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalHashMapTest {
+
+    @Test
+    void testPutGetRemove() {
+        final IncrementalHashMap<String, String> map = new IncrementalHashMap<>();
+
+        assertNull(map.put("key1", "value1"));
+        assertEquals("value1", map.put("key1", "value2"));
+        assertEquals("value2", map.get("key1"));
+        assertTrue(map.containsKey("key1"));
+        assertEquals("value2", map.remove("key1"));
+        assertNull(map.get("key1"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void testCapacityHint_noResize() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>(100000);
+        final int capacity = map.capacity();
+
+        for (int i = 0; i < 100000; i++) {
+            map.put(i, i);
+            assertFalse(map.isResizing());
+        }
+        assertEquals(capacity, map.capacity());
+    }
+
+    @Test
+    void testRandomOperations_matchHashMap() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>();
+        final Map<Integer, Integer> reference = new HashMap<>();
+        final Random random = new Random(42);
+        boolean checkedWhileResizing = false;
+
+        for (int i = 0; i < 500000; i++) {
+            final int key = random.nextInt(100000);
+            if (random.nextInt(3) > 0) {
+                assertEquals(reference.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(reference.remove(key), map.remove(key));
+            }
+            assertEquals(reference.size(), map.size());
+
+            if (map.isResizing() && i % 50 == 0) {
+                assertEquals(reference, map);
+                checkedWhileResizing = true;
+            }
+        }
+
+        assertTrue(checkedWhileResizing);
+        assertEquals(reference, map);
+    }
+
+    @Test
+    void testIteration_whileResizing() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>();
+        int i = 0;
+        while (!map.isResizing()) {
+            map.put(i, i);
+            i++;
+        }
+        map.put(i, i);
+
+        final Set<Integer> keys = new HashSet<>();
+        for (final Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            assertTrue(keys.add(entry.getKey()));
+            assertEquals(entry.getKey(), entry.getValue());
+        }
+        assertEquals(i + 1, keys.size());
+    }
+
+    @Test
+    void testSample_whileResizing() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>();
+        final Random random = new Random(1);
+        assertTrue(map.sample(random, 4).isEmpty());
+        int i = 0;
+        while (!map.isResizing()) {
+            map.put(i, i);
+            i++;
+        }
+
+        final Set<Integer> seen = new HashSet<>();
+        for (int draw = 0; draw < 1000; draw++) {
+            final List<Map.Entry<Integer, Integer>> sample = map.sample(random, 4);
+            assertEquals(4, sample.size());
+            for (final Map.Entry<Integer, Integer> entry : sample) {
+                assertEquals(entry.getKey(), entry.getValue());
+                seen.add(entry.getKey());
+            }
+            assertEquals(4, new HashSet<>(sample).size());
+        }
+        assertEquals(map.keySet(), seen);
+        assertEquals(map.size(), map.sample(random, map.size() + 1).size());
+    }
+
+    @Test
+    void testClear_whileResizing() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>();
+        for (int i = 0; !map.isResizing(); i++) {
+            map.put(i, i);
+        }
+
+        map.clear();
+
+        assertFalse(map.isResizing());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+
+    @Test
+    void testGrow_migratesAcrossOperations() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>();
+        int i = 0;
+        while (!map.isResizing()) {
+            map.put(i, i);
+            i++;
+        }
+
+        final int oldCapacity = map.capacity() / 2;
+        int operations = 0;
+        while (map.isResizing()) {
+            map.put(i, i);
+            i++;
+            operations++;
+        }
+
+        assertEquals(oldCapacity / IncrementalHashMap.MIGRATION_STEP, operations);
+        for (int key = 0; key < i; key++) {
+            assertEquals(Integer.valueOf(key), map.get(key));
+        }
+    }
+
+    /**
+     * Grows a map from empty to a million keys and checks that every resize is drained by exactly
+     * MIGRATION_STEP buckets per following add, so that no single add ever pays for more of it.
+     */
+    @Test
+    void testGrowth_boundedMigrationPerAdd() {
+        final IncrementalHashMap<Integer, Integer> map = new IncrementalHashMap<>();
+        int resizes = 0;
+        int key = 0;
+        while (key < 1000000) {
+            map.put(key, key);
+            key++;
+            if (!map.isResizing()) {
+                continue;
+            }
+
+            resizes++;
+            final int oldCapacity = map.capacity() / 2;
+            int adds = 0;
+            while (map.isResizing()) {
+                map.put(key, key);
+                key++;
+                adds++;
+            }
+            assertEquals(oldCapacity / IncrementalHashMap.MIGRATION_STEP, adds);
+        }
+
+        assertEquals(17, resizes);
+        assertEquals(key, map.size());
+    }
+}
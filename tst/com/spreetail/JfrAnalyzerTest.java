@@ -0,0 +1,69 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class JfrAnalyzerTest {
+
+    @Test
+    void testRank() {
+        final JfrAnalyzer.KeyReport fast = new JfrAnalyzer.KeyReport("fast");
+        fast.add("MEMBERS", 10);
+        fast.add("MEMBERS", 10);
+        final JfrAnalyzer.KeyReport slow = new JfrAnalyzer.KeyReport("slow");
+        slow.add("REMOVEALL", 500);
+        final JfrAnalyzer.KeyReport medium = new JfrAnalyzer.KeyReport("medium");
+        medium.add("ADD", 100);
+
+        final List<JfrAnalyzer.KeyReport> ranked = JfrAnalyzer.rank(Arrays.asList(fast, slow, medium), 2);
+
+        assertEquals(Arrays.asList(slow, medium), ranked);
+        assertEquals("slow: 1 commands, total 0.001 ms, max 0.001 ms (REMOVEALL)", ranked.get(0).toString());
+    }
+
+    @Test
+    void testSlowKeys_fromRecording() throws Exception {
+        final Path recordingFile = Files.createTempFile("dictionary", ".jfr");
+        try (FlightRecorderEventsTest.JfrRecording recording =
+                     new FlightRecorderEventsTest.JfrRecording(FlightRecorderEvents.COMMAND)) {
+
+            for (int i = 0; i < 20; i++) {
+                record(Command.MEMBERS, "fast", 0);
+            }
+            record(Command.REMOVEALL, "slow", 60);
+            record(Command.KEYS, null, 30);
+
+            recording.stop(recordingFile);
+
+            final List<JfrAnalyzer.KeyReport> reports = JfrAnalyzer.slowKeys(recordingFile, 10);
+
+            assertEquals(3, reports.size());
+            assertEquals("slow", reports.get(0).key());
+            assertTrue(reports.get(0).totalNanos() >= 60_000_000L);
+            final Map<String, JfrAnalyzer.KeyReport> byKey = new HashMap<>();
+            for (final JfrAnalyzer.KeyReport report : reports) {
+                byKey.put(report.key(), report);
+            }
+            assertEquals(20, byKey.get("fast").commands());
+            assertEquals(1, byKey.get(JfrAnalyzer.NO_KEY).commands());
+            assertTrue(byKey.get(JfrAnalyzer.NO_KEY).totalNanos() >= 30_000_000L);
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+    }
+
+    private static void record(final Command command, final String key, final long sleepMillis)
+            throws InterruptedException {
+        final Object event = FlightRecorderEvents.beginCommand();
+        Thread.sleep(sleepMillis);
+        FlightRecorderEvents.endCommand(event, command, key);
+    }
+}
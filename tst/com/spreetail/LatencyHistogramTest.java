@@ -0,0 +1,83 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testIndexOf_boundedError() {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            final long highest = LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(value));
+            assertTrue(highest >= value, "value " + value);
+            assertTrue(highest - value <= value / 64, "value " + value);
+        }
+        assertEquals(LatencyHistogram.SUB_BUCKETS - 1,
+                LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(LatencyHistogram.SUB_BUCKETS - 1)));
+        assertTrue(LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(Long.MAX_VALUE)) > 0);
+    }
+
+    @Test
+    void testPercentile() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        assertEquals(10000, histogram.count());
+        assertEquals(5000000, histogram.percentile(50), 5000000 / 64.0);
+        assertEquals(9900000, histogram.percentile(99), 9900000 / 64.0);
+        assertEquals(10000000, histogram.percentile(100));
+        assertEquals(10000000, histogram.max());
+        assertEquals(5000500, histogram.mean(), 1);
+    }
+
+    @Test
+    void testPercentile_outlierCounted() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(1000, histogram.percentile(99), 1000 / 64.0);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), histogram.percentile(99.9), TimeUnit.SECONDS.toNanos(1) / 64.0);
+    }
+
+    @Test
+    void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, new LatencyHistogram().percentile(99));
+        assertEquals(0.0, new LatencyHistogram().mean());
+    }
+
+    @Test
+    void testRecord_concurrent() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long value = (t + 1) * 1000;
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(value);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.count());
+        assertEquals(4000, histogram.max());
+        assertEquals(2500, histogram.mean(), 0.001);
+    }
+}
@@ -0,0 +1,116 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MainTest {
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    private final PrintStream originalOut = System.out;
+    private Path data;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        System.setOut(new PrintStream(outContent));
+        data = Files.createTempFile("dictionary", ".mvd");
+        Files.delete(data);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        System.setOut(originalOut);
+        Files.deleteIfExists(data);
+    }
+
+    @Test
+    void testCommands_persisted() throws IOException {
+        Main.main(new String[] {"--data", data.toString(), "-c", "ADD key member", "-c", "ADD key other"});
+        Main.main(new String[] {"--data", data.toString(), "-c", "MEMBERS key"});
+
+        assertEquals(DictionaryHandler.ADDED + NEWLINE + DictionaryHandler.ADDED + NEWLINE
+                + "1) member" + NEWLINE + "2) other", outContent.toString().trim());
+        assertFalse(Files.exists(data.resolveSibling(data.getFileName() + ".tmp")));
+    }
+
+    @Test
+    void testCommands_savedOnlyWhenChanged() throws IOException {
+        Main.main(new String[] {"--data", data.toString(), "-c", "KEYS"});
+        assertFalse(Files.exists(data));
+
+        Main.main(new String[] {"--data", data.toString(), "-c", "ADD key member"});
+        final long saved = Files.getLastModifiedTime(data).toMillis();
+        Files.setLastModifiedTime(data, FileTime.fromMillis(saved - 10000));
+        Main.main(new String[] {"--data", data.toString(), "-c", "MEMBERS key", "-c", "ADD key member"});
+
+        assertEquals(saved - 10000, Files.getLastModifiedTime(data).toMillis());
+    }
+
+    @Test
+    void testCommands_withoutData() throws IOException {
+        Main.main(new String[] {"-c", "ADD key member", "-c", "GET key", "-c", "KEYS"});
+
+        assertEquals(DictionaryHandler.ADDED + NEWLINE + "ERROR, Invalid command." + NEWLINE + "1) key",
+                outContent.toString().trim());
+    }
+
+    @Test
+    void testCommands_corruptData() throws IOException {
+        Files.write(data, new byte[] {1, 2, 3, 4, 5});
+        Main.main(new String[] {"--data", data.toString(), "-c", "ADD key member"});
+
+        assertTrue(outContent.toString().startsWith(DictionaryHandler.ERROR_IO));
+        assertFalse(outContent.toString().contains(DictionaryHandler.ADDED));
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, Files.readAllBytes(data));
+    }
+
+    @Test
+    void testConsole_clientsHaveTheirOwnTransactions() throws IOException {
+        final InputStream originalIn = System.in;
+        System.setIn(new ByteArrayInputStream(("@a MULTI" + NEWLINE + "@b ADD key member" + NEWLINE + "@a DISCARD"
+                + NEWLINE + "@b KEYEXISTS key" + NEWLINE).getBytes(StandardCharsets.UTF_8)));
+        try {
+            Main.main(new String[] {"--admission", "BLOCK"});
+        } finally {
+            System.setIn(originalIn);
+        }
+
+        final String output = outContent.toString();
+        assertTrue(output.contains(DictionaryHandler.ADDED + NEWLINE));
+        assertTrue(output.contains(DictionaryHandler.PREFIX + true + NEWLINE));
+        assertFalse(output.contains(DictionaryHandler.QUEUED));
+    }
+
+    @Test
+    void testCommandsOf() {
+        assertEquals(Arrays.asList("KEYS", "MEMBERS key"),
+                Main.commandsOf(new String[] {"--cache", "8", "-c", "KEYS", "-c", "MEMBERS key"}));
+        assertTrue(Main.commandsOf(new String[] {"--cache", "8"}).isEmpty());
+    }
+
+    @Test
+    void testClientOf() {
+        assertEquals("ingest", Main.clientOf("@ingest ADD key member"));
+        assertEquals("ADD key member", Main.commandOf("@ingest ADD key member"));
+        assertEquals("console", Main.clientOf("ADD key member"));
+        assertEquals("ADD key member", Main.commandOf("ADD key member"));
+        assertEquals("console", Main.clientOf("@ KEYS"));
+        assertEquals("KEYS", Main.commandOf("@ KEYS"));
+        assertEquals("", Main.commandOf("@ingest"));
+    }
+}
@@ -0,0 +1,148 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class MemberSetTest {
+
+    @Test
+    void testOf_single() {
+        final MemberSet<String> members = MemberSet.of("value1");
+
+        assertTrue(members instanceof MemberSet.Single);
+        assertEquals(1, members.size());
+        assertTrue(members.contains("value1"));
+        assertFalse(members.contains("value2"));
+    }
+
+    @Test
+    void testAdd_promotesToPacked() {
+        final MemberSet<Integer> members = MemberSet.of(0).add(1);
+
+        assertTrue(members instanceof MemberSet.Packed);
+        assertEquals(Arrays.asList(0, 1), members.toList());
+    }
+
+    @Test
+    void testAdd_promotesToHashed() {
+        final MemberSet<Integer> members = fill(MemberSet.PACKED_CAPACITY + 1);
+
+        assertTrue(members instanceof MemberSet.Hashed);
+        assertEquals(MemberSet.PACKED_CAPACITY + 1, members.size());
+        assertEquals(range(0, MemberSet.PACKED_CAPACITY + 1), members.toList());
+    }
+
+    @Test
+    void testRemove_demotesToPacked() {
+        MemberSet<Integer> members = fill(MemberSet.PACKED_CAPACITY + 1);
+
+        for (int i = 0; i <= MemberSet.PACKED_CAPACITY - MemberSet.DEMOTE_THRESHOLD; i++) {
+            members = members.remove(i);
+        }
+
+        assertTrue(members instanceof MemberSet.Packed);
+        assertEquals(range(MemberSet.PACKED_CAPACITY - MemberSet.DEMOTE_THRESHOLD + 1,
+                MemberSet.PACKED_CAPACITY + 1), members.toList());
+    }
+
+    @Test
+    void testRemove_demotesToSingle() {
+        final MemberSet<Integer> members = MemberSet.of(0).add(1).remove(0);
+
+        assertTrue(members instanceof MemberSet.Single);
+        assertEquals(Collections.singletonList(1), members.toList());
+    }
+
+    @Test
+    void testRemove_lastMember() {
+        assertNull(MemberSet.of(0).remove(0));
+    }
+
+    @Test
+    void testHashed_addAfterRemoves() {
+        MemberSet<Integer> members = fill(1000);
+
+        for (int i = 0; i < 1000; i += 2) {
+            members = members.remove(i);
+        }
+        for (int i = 1000; i < 1500; i++) {
+            members = members.add(i);
+        }
+
+        assertEquals(1000, members.size());
+        assertFalse(members.contains(0));
+        assertTrue(members.contains(1));
+        assertTrue(members.contains(1499));
+        assertEquals(Integer.valueOf(1), members.toList().get(0));
+    }
+
+    @Test
+    void testLongs_unboxed() {
+        final MemberSet<Long> members = MemberSet.of(5L).add(-7L);
+
+        assertTrue(members instanceof MemberSet.Longs);
+        assertEquals(Arrays.asList(5L, -7L), members.toList());
+        assertTrue(members.contains(-7L));
+        assertFalse(members.contains(7L));
+
+        final MemberSet<Long> single = members.remove(5L);
+        assertTrue(single instanceof MemberSet.Single);
+        assertEquals(Collections.singletonList(-7L), single.toList());
+    }
+
+    @Test
+    void testLongs_matchesInsertionOrderedSet() {
+        final Random random = new Random(42);
+        final Set<Long> expected = new LinkedHashSet<>();
+        MemberSet<Long> members = null;
+
+        for (int i = 0; i < 20000; i++) {
+            final long member = random.nextInt(2000) - 1000L;
+            if (members != null && members.contains(member)) {
+                assertTrue(expected.remove(member));
+                members = members.remove(member);
+            } else {
+                assertTrue(expected.add(member));
+                members = members == null ? MemberSet.of(member) : members.add(member);
+            }
+            assertEquals(expected.size(), members == null ? 0 : members.size());
+        }
+
+        assertTrue(members instanceof MemberSet.Longs);
+        assertEquals(new ArrayList<>(expected), members.toList());
+    }
+
+    @Test
+    void testLongs_otherMemberBoxes() {
+        MemberSet<Object> members = MemberSet.of((Object) 0L);
+        for (long i = 1; i < 20; i++) {
+            members = members.add(i);
+        }
+        members = members.add("value");
+
+        assertTrue(members instanceof MemberSet.Hashed);
+        assertEquals(21, members.size());
+        assertTrue(members.contains(19L));
+        assertTrue(members.contains("value"));
+        assertEquals("value", members.toList().get(20));
+    }
+
+    private static MemberSet<Integer> fill(final int size) {
+        MemberSet<Integer> members = MemberSet.of(0);
+        for (int i = 1; i < size; i++) {
+            members = members.add(i);
+        }
+        return members;
+    }
+
+    private static List<Integer> range(final int from, final int to) {
+        final List<Integer> list = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,88 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class MembershipFilterTest {
+
+    private static final String KEY1 = "key1";
+    private static final String KEY2 = "key2";
+    private static final String MEMBER1 = "value1";
+    private static final String MEMBER2 = "value2";
+
+    @Test
+    void testKeyExists_filteredNegative() throws DictionaryException {
+        final MembershipFilter<String, String> filter = new MembershipFilter<>(1000, 0.01);
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(filter);
+
+        dictionary.add(KEY1, MEMBER1);
+
+        assertTrue(dictionary.keyExists(KEY1));
+        assertFalse(dictionary.keyExists(KEY2));
+        assertEquals(1, filter.keyPositives());
+        assertEquals(1, filter.keyNegatives());
+    }
+
+    @Test
+    void testMemberExists_filteredNegative() throws DictionaryException {
+        final MembershipFilter<String, String> filter = new MembershipFilter<>(1000, 0.01);
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(filter);
+
+        dictionary.add(KEY1, MEMBER1);
+
+        assertTrue(dictionary.memberExists(KEY1, MEMBER1));
+        assertFalse(dictionary.memberExists(KEY1, MEMBER2));
+        assertEquals(1, filter.memberPositives());
+        assertEquals(1, filter.memberNegatives());
+    }
+
+    @Test
+    void testRemove_clearsFilter() throws DictionaryException {
+        final MembershipFilter<String, String> filter = new MembershipFilter<>(1000, 0.01);
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(filter);
+
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY1, MEMBER2);
+        dictionary.remove(KEY1, MEMBER1);
+
+        assertFalse(filter.mightContainMember(KEY1, MEMBER1));
+        assertTrue(filter.mightContainMember(KEY1, MEMBER2));
+
+        dictionary.removeAll(KEY1);
+
+        assertFalse(filter.mightContainKey(KEY1));
+        assertFalse(filter.mightContainMember(KEY1, MEMBER2));
+    }
+
+    @Test
+    void testClear_clearsFilter() throws DictionaryException {
+        final MembershipFilter<String, String> filter = new MembershipFilter<>(1000, 0.01);
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(filter);
+
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.clear();
+
+        assertFalse(filter.mightContainKey(KEY1));
+        assertFalse(filter.mightContainMember(KEY1, MEMBER1));
+    }
+
+    @Test
+    void testNoFalseNegatives() throws DictionaryException {
+        final MultiValueDictionary<Integer, Integer> dictionary = new MultiValueDictionary<>(new MembershipFilter<>(100, 0.01));
+
+        for (int i = 0; i < 1000; i++) {
+            dictionary.add(i % 50, i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(dictionary.keyExists(i % 50));
+            assertTrue(dictionary.memberExists(i % 50, i));
+        }
+    }
+
+    @Test
+    void testConstructor_invalidRate() {
+        assertThrows(IllegalArgumentException.class, () -> new MembershipFilter<String, String>(100, 1.5));
+    }
+}
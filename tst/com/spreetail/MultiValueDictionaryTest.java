@@ -2,6 +2,8 @@ package com.spreetail;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -187,7 +189,7 @@ class MultiValueDictionaryTest<K, V> {
     }
 
     @Test
-    void testClear_empty() {
+    void testClear_empty() throws DictionaryException {
         final MultiValueDictionary<K, V> dictionary = new MultiValueDictionary<>();
         dictionary.clear();
         assertTrue(dictionary.keys().isEmpty());
@@ -307,6 +309,512 @@ class MultiValueDictionaryTest<K, V> {
         assertEquals(expectedDictionary.members(KEY1), intersection.members(KEY1));
     }
 
+    @ParameterizedTest
+    @MethodSource("doubleKeyDoubleMemberParameters")
+    void testCounts(final K k1, final K k2, final V v1, final V v2) throws DictionaryException {
+        final MultiValueDictionary<K, V> dictionary = new MultiValueDictionary<>();
+
+        dictionary.add(k1, v1);
+        dictionary.add(k1, v2);
+        dictionary.add(k2, v1);
+        assertEquals(2, dictionary.keyCount());
+        assertEquals(3, dictionary.memberCount());
+        assertEquals(2, dictionary.cardinality(k1));
+        assertEquals(2, dictionary.distinctMembers());
+
+        dictionary.remove(k1, v1);
+        assertEquals(2, dictionary.memberCount());
+        assertEquals(1, dictionary.cardinality(k1));
+        assertEquals(2, dictionary.keySizeHistogram()[0]);
+
+        dictionary.removeAll(k2);
+        assertEquals(1, dictionary.memberCount());
+        assertEquals(1, dictionary.keySizeHistogram()[0]);
+
+        dictionary.clear();
+        assertEquals(0, dictionary.memberCount());
+        assertEquals(0, dictionary.distinctMembers());
+    }
+
+    @Test
+    void testDistinctMembers_estimate() throws DictionaryException {
+        final MultiValueDictionary<Integer, Integer> dictionary = new MultiValueDictionary<>();
+
+        for (int i = 0; i < 100000; i++) {
+            dictionary.add(i % 1000, i / 5);
+        }
+
+        assertEquals(20000, dictionary.distinctMembers(), 20000 * 0.05);
+    }
+
+    @Test
+    void testScores() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+
+        dictionary.add(KEY1, "low");
+        dictionary.add(KEY1, "high", 10);
+        dictionary.add(KEY1, "mid", 5);
+        assertEquals(7, dictionary.incrementScore(KEY1, "mid", 2));
+        assertEquals(3, dictionary.incrementScore(KEY1, "new", 3));
+
+        assertEquals(Arrays.asList("high", "mid"), membersOf(dictionary.top(KEY1, 2)));
+        assertEquals(Arrays.asList("mid", "new"), membersOf(dictionary.rangeByScore(KEY1, 1, 9)));
+        assertEquals(0, dictionary.score(KEY1, "low"));
+        assertEquals(4, dictionary.cardinality(KEY1));
+
+        dictionary.remove(KEY1, "high");
+        assertEquals(Arrays.asList("mid", "new", "low"), membersOf(dictionary.top(KEY1, 10)));
+
+        dictionary.removeAll(KEY1);
+        dictionary.add(KEY1, "low");
+        assertNull(dictionary.scores(KEY1));
+        assertEquals(0, dictionary.score(KEY1, "low"));
+    }
+
+    @Test
+    void testScores_unscoredKey() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY1, MEMBER2);
+
+        assertEquals(Collections.singletonList(MEMBER1), membersOf(dictionary.top(KEY1, 1)));
+        assertEquals(Arrays.asList(MEMBER1, MEMBER2), membersOf(dictionary.rangeByScore(KEY1, 0, 0)));
+        assertTrue(dictionary.rangeByScore(KEY1, 1, 2).isEmpty());
+
+        final DictionaryException de = assertThrows(DictionaryException.class, () -> dictionary.top(KEY2, 1));
+        assertEquals(MultiValueDictionary.ERROR_KEY_DOES_NOT_EXIST, de.getMessage());
+    }
+
+    @Test
+    void testIncrementScore_overflow() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1, Long.MAX_VALUE);
+
+        final DictionaryException de = assertThrows(DictionaryException.class,
+                () -> dictionary.incrementScore(KEY1, MEMBER1, 1));
+
+        assertEquals(MultiValueDictionary.ERROR_INVALID_SCORE, de.getMessage());
+        assertEquals(Long.MAX_VALUE, dictionary.score(KEY1, MEMBER1));
+    }
+
+    @Test
+    void testCardinality_keyDoesNotExist() {
+        final DictionaryException de = assertThrows(DictionaryException.class,
+                () -> new MultiValueDictionary<String, String>().cardinality(KEY1));
+
+        assertEquals(MultiValueDictionary.ERROR_KEY_DOES_NOT_EXIST, de.getMessage());
+    }
+
+    @Test
+    void testCache_invalidatedByMutations() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(0, null, 4);
+        dictionary.add(KEY1, MEMBER1);
+        readOften(dictionary, KEY1);
+        assertTrue(dictionary.hotKeys().isHot(KEY1));
+        assertEquals(1, dictionary.cache().size());
+
+        dictionary.add(KEY1, MEMBER2);
+        assertEquals(Arrays.asList(MEMBER1, MEMBER2), dictionary.members(KEY1));
+        assertTrue(dictionary.memberExists(KEY1, MEMBER2));
+
+        dictionary.remove(KEY1, MEMBER1);
+        assertEquals(Collections.singletonList(MEMBER2), dictionary.members(KEY1));
+        assertFalse(dictionary.memberExists(KEY1, MEMBER1));
+
+        dictionary.removeAll(KEY1);
+        assertThrows(DictionaryException.class, () -> dictionary.members(KEY1));
+        assertEquals(0, dictionary.cache().size());
+
+        dictionary.add(KEY1, MEMBER1);
+        readOften(dictionary, KEY1);
+        dictionary.clear();
+        assertEquals(0, dictionary.cache().size());
+        assertThrows(DictionaryException.class, () -> dictionary.members(KEY1));
+    }
+
+    @Test
+    void testCache_onlyHotKeys() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(0, null, 4);
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY2, MEMBER1);
+        readOften(dictionary, KEY1);
+
+        assertFalse(dictionary.hotKeys().isHot(KEY2));
+        dictionary.members(KEY2);
+        assertEquals(1, dictionary.cache().size());
+        assertThrows(UnsupportedOperationException.class, () -> dictionary.members(KEY1).add(MEMBER2));
+    }
+
+    @Test
+    void testCache_disabledByDefault() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1);
+        readOften(dictionary, KEY1);
+
+        assertNull(dictionary.cache());
+        assertTrue(dictionary.hotKeys().isHot(KEY1));
+    }
+
+    @Test
+    void testHotKeys_onlyClientReadsRecorded() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY2, MEMBER1);
+        final MultiValueDictionary<String, String> other = new MultiValueDictionary<>();
+        other.add(KEY2, MEMBER1);
+        for (int i = 0; i < 1000; i++) {
+            dictionary.remove(KEY2, MEMBER1);
+            dictionary.add(KEY2, MEMBER1);
+            dictionary.top(KEY2, 1);
+            dictionary.rangeByScore(KEY2, 0, 0);
+            dictionary.intersection(other);
+        }
+        readOften(dictionary, KEY1);
+
+        assertFalse(dictionary.hotKeys().isHot(KEY2));
+        assertTrue(dictionary.hotKeys().isHot(KEY1));
+    }
+
+    @Test
+    void testVersion() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        assertEquals(0, dictionary.version(KEY1));
+
+        dictionary.add(KEY1, MEMBER1);
+        final long added = dictionary.version(KEY1);
+        dictionary.add(KEY2, MEMBER1);
+        dictionary.incrementScore(KEY1, MEMBER1, 5);
+        assertTrue(added > 0);
+        assertEquals(added, dictionary.version(KEY1));
+
+        dictionary.add(KEY1, MEMBER2);
+        final long grown = dictionary.version(KEY1);
+        dictionary.remove(KEY1, MEMBER2);
+        final long shrunk = dictionary.version(KEY1);
+        assertTrue(grown > added);
+        assertTrue(shrunk > grown);
+
+        dictionary.removeAll(KEY1);
+        assertEquals(0, dictionary.version(KEY1));
+        dictionary.add(KEY1, MEMBER1);
+        assertTrue(dictionary.version(KEY1) > shrunk);
+
+        dictionary.clear();
+        assertEquals(0, dictionary.version(KEY2));
+    }
+
+    @Test
+    void testVersion_frozen() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY2, MEMBER1);
+
+        dictionary.freeze(MultiValueDictionary.FreezePolicy.THAW);
+        final long frozen = dictionary.version(KEY1);
+        assertEquals(frozen, dictionary.version(KEY2));
+        assertEquals(0, dictionary.version("key3"));
+
+        dictionary.replace(KEY2, frozen, Collections.singletonList(MEMBER2));
+        assertFalse(dictionary.isFrozen());
+        assertEquals(frozen, dictionary.version(KEY1));
+        assertTrue(dictionary.version(KEY2) > frozen);
+    }
+
+    @Test
+    void testReplace() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1, 7);
+        final long version = dictionary.version(KEY1);
+
+        final long replaced = dictionary.replace(KEY1, version, Arrays.asList(MEMBER2, MEMBER1));
+
+        assertEquals(replaced, dictionary.version(KEY1));
+        assertEquals(Arrays.asList(MEMBER2, MEMBER1), dictionary.members(KEY1));
+        assertEquals(0, dictionary.score(KEY1, MEMBER1));
+        assertEquals(2, dictionary.memberCount());
+
+        final DictionaryException de = assertThrows(DictionaryException.class,
+                () -> dictionary.replace(KEY1, version, Collections.singletonList(MEMBER1)));
+        assertEquals(MultiValueDictionary.ERROR_VERSION_MISMATCH, de.getMessage());
+        assertEquals(Arrays.asList(MEMBER2, MEMBER1), dictionary.members(KEY1));
+        assertEquals(replaced, dictionary.version(KEY1));
+    }
+
+    @Test
+    void testReplace_invalidMembers() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        dictionary.add(KEY1, MEMBER1);
+        final long version = dictionary.version(KEY1);
+
+        assertEquals(MultiValueDictionary.ERROR_MEMBER_EXISTS, assertThrows(DictionaryException.class,
+                () -> dictionary.replace(KEY1, version, Arrays.asList(MEMBER2, MEMBER2))).getMessage());
+        assertEquals(MultiValueDictionary.ERROR_NULL_MEMBER, assertThrows(DictionaryException.class,
+                () -> dictionary.replace(KEY1, version, Collections.emptyList())).getMessage());
+        assertEquals(MultiValueDictionary.ERROR_NULL_MEMBER, assertThrows(DictionaryException.class,
+                () -> dictionary.replace(KEY1, version, Arrays.asList(MEMBER2, null))).getMessage());
+        assertEquals(Collections.singletonList(MEMBER1), dictionary.members(KEY1));
+        assertEquals(version, dictionary.version(KEY1));
+    }
+
+    @Test
+    void testReplace_concurrentWriters() throws Exception {
+        final MultiValueDictionary<String, Integer> dictionary = new MultiValueDictionary<>();
+        final int threads = 4;
+        final int updates = 500;
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * updates;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < updates; i++) {
+                    while (true) {
+                        try {
+                            final long version = dictionary.version(KEY1);
+                            final List<Integer> members = version == 0
+                                    ? new ArrayList<>() : new ArrayList<>(dictionary.members(KEY1));
+                            members.add(offset + i);
+                            dictionary.replace(KEY1, version, members);
+                            break;
+                        } catch (final DictionaryException de) {
+                            // another writer changed the key first, read it again
+                        }
+                    }
+                }
+            }));
+        }
+        for (final Thread writer : writers) {
+            writer.start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(threads * updates, dictionary.cardinality(KEY1));
+    }
+
+    @Test
+    void testAddIfAbsentKey() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+
+        final long version = dictionary.addIfAbsentKey(KEY1, Arrays.asList(MEMBER1, MEMBER2));
+
+        assertEquals(version, dictionary.version(KEY1));
+        assertEquals(Arrays.asList(MEMBER1, MEMBER2), dictionary.members(KEY1));
+        final DictionaryException de = assertThrows(DictionaryException.class,
+                () -> dictionary.addIfAbsentKey(KEY1, Collections.singletonList(MEMBER1)));
+        assertEquals(MultiValueDictionary.ERROR_KEY_EXISTS, de.getMessage());
+        assertEquals(version, dictionary.version(KEY1));
+    }
+
+    @Test
+    void testMembersExist() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final List<String> candidates = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 == 0) {
+                dictionary.add(KEY1, "member" + i);
+            }
+            candidates.add("member" + i);
+        }
+
+        final BitSet exist = dictionary.membersExist(KEY1, candidates);
+
+        for (int i = 0; i < candidates.size(); i++) {
+            assertEquals(dictionary.memberExists(KEY1, candidates.get(i)), exist.get(i));
+        }
+        assertEquals(334, exist.cardinality());
+        assertTrue(dictionary.membersExist(KEY2, candidates).isEmpty());
+
+        dictionary.freeze(MultiValueDictionary.FreezePolicy.REJECT);
+
+        assertEquals(exist, dictionary.membersExist(KEY1, candidates));
+        assertTrue(dictionary.membersExist(KEY2, candidates).isEmpty());
+    }
+
+    @Test
+    void testMembersExist_invalidArguments() {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+
+        assertEquals(MultiValueDictionary.ERROR_NULL_KEY, assertThrows(DictionaryException.class,
+                () -> dictionary.membersExist(null, Collections.singletonList(MEMBER1))).getMessage());
+        assertEquals(MultiValueDictionary.ERROR_NULL_MEMBER, assertThrows(DictionaryException.class,
+                () -> dictionary.membersExist(KEY1, Collections.emptyList())).getMessage());
+        assertEquals(MultiValueDictionary.ERROR_NULL_MEMBER, assertThrows(DictionaryException.class,
+                () -> dictionary.membersExist(KEY1, Arrays.asList(MEMBER1, null))).getMessage());
+    }
+
+    @Test
+    void testTiered_spillsAndPromotes() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = tiered(16);
+        final Map<String, List<String>> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            dictionary.add("key" + i, MEMBER1);
+            dictionary.add("key" + i, "member" + i);
+            expected.put("key" + i, Arrays.asList(MEMBER1, "member" + i));
+        }
+        final ColdStore<String, String> cold = dictionary.coldStore();
+
+        assertTrue(cold.keyCount() >= 84);
+        assertEquals(100, dictionary.keyCount());
+        assertEquals(200, dictionary.memberCount());
+        assertEquals(expected.keySet(), new HashSet<>(dictionary.keys()));
+        assertEquals(expected, dictionary.items());
+        assertEquals(200, dictionary.allMembers().size());
+
+        final String key = coldKeys(dictionary, 100).get(0);
+        assertEquals(2, dictionary.cardinality(key));
+        assertNotNull(cold.get(key));
+        assertEquals(expected.get(key), dictionary.members(key));
+        assertNull(cold.get(key));
+        assertTrue(dictionary.memberExists(coldKeys(dictionary, 100).get(0), MEMBER1));
+        final String other = coldKeys(dictionary, 100).get(0);
+        assertEquals(BitSet.valueOf(new long[] {0b101}),
+                dictionary.membersExist(other, Arrays.asList(MEMBER1, MEMBER2, expected.get(other).get(1))));
+        assertNull(cold.get(other));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(expected.get("key" + i), dictionary.members("key" + i));
+        }
+        dictionary.close();
+    }
+
+    @Test
+    void testTiered_mutationsOfColdKeys() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = tiered(16);
+        dictionary.add("scored", MEMBER1, 5);
+        for (int i = 0; i < 100; i++) {
+            dictionary.add("key" + i, MEMBER1);
+        }
+        final List<String> coldKeys = coldKeys(dictionary, 100);
+        final String removed = coldKeys.get(0);
+        final String emptied = coldKeys.get(1);
+        final String watched = coldKeys.get(2);
+        final long version = dictionary.version(watched);
+
+        assertNull(dictionary.coldStore().get("scored"));
+        assertEquals(5, dictionary.score("scored", MEMBER1));
+        dictionary.removeAll(removed);
+        dictionary.remove(emptied, MEMBER1);
+        for (int i = 100; i < 200; i++) {
+            dictionary.add("key" + i, MEMBER1);
+        }
+
+        assertFalse(dictionary.keyExists(removed));
+        assertFalse(dictionary.keyExists(emptied));
+        assertEquals(199, dictionary.keyCount());
+        assertEquals(199, dictionary.memberCount());
+        assertEquals(5, dictionary.score("scored", MEMBER1));
+        assertEquals(version, dictionary.version(watched));
+        final long replaced = dictionary.replace(watched, version, Arrays.asList(MEMBER1, MEMBER2));
+        assertTrue(replaced > version);
+        assertEquals(replaced, dictionary.version(watched));
+        assertEquals(Arrays.asList(MEMBER1, MEMBER2), dictionary.members(watched));
+        dictionary.close();
+    }
+
+    @Test
+    void testTiered_keepsRecentlyUsedKeys() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = tiered(256);
+        for (int i = 0; i < 256; i++) {
+            dictionary.add("key" + i, MEMBER1);
+        }
+        for (int i = 0; i < 32; i++) {
+            dictionary.members("key" + i);
+        }
+        for (int i = 256; i < 320; i++) {
+            dictionary.add("key" + i, MEMBER1);
+        }
+
+        // every spill samples about twice as many unread keys as it spills, so read keys are almost never picked
+        int hot = 0;
+        for (int i = 0; i < 32; i++) {
+            if (dictionary.coldStore().get("key" + i) == null) {
+                hot++;
+            }
+        }
+        assertTrue(hot >= 30, "hot " + hot);
+        dictionary.close();
+    }
+
+    @Test
+    void testTiered_freezeAndClear() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = tiered(4);
+        for (int i = 0; i < 20; i++) {
+            dictionary.add("key" + i, MEMBER1);
+        }
+
+        dictionary.freeze(MultiValueDictionary.FreezePolicy.THAW);
+
+        assertEquals(0, dictionary.coldStore().keyCount());
+        assertEquals(20, dictionary.keyCount());
+        assertEquals(Collections.singletonList(MEMBER1), dictionary.members("key7"));
+
+        dictionary.add("key20", MEMBER1);
+        dictionary.clear();
+
+        assertEquals(0, dictionary.keyCount());
+        assertEquals(0, dictionary.coldStore().keyCount());
+        assertFalse(dictionary.keyExists("key7"));
+        dictionary.close();
+    }
+
+    private static void readOften(final MultiValueDictionary<String, String> dictionary, final String key)
+            throws DictionaryException {
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(dictionary.members(key).isEmpty());
+        }
+    }
+
+    @Test
+    void testTiered_filterCountsEachLookupOnce() throws Exception {
+        final MembershipFilter<String, String> filter = new MembershipFilter<>(1000, 0.01);
+        final ColdStore<String, String> cold = new ColdStore<>(Files.createTempDirectory("tier"), Codec.STRING,
+                Codec.STRING);
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>(0, filter, 0, cold, 16);
+        try {
+            for (int i = 0; i < 100; i++) {
+                dictionary.add("key" + i, MEMBER1);
+            }
+            final String coldKey = coldKeys(dictionary, 100).get(0);
+            final long positives = filter.keyPositives();
+            final long negatives = filter.keyNegatives();
+
+            assertEquals(Collections.singletonList(MEMBER1), dictionary.members(coldKey));
+            assertEquals(positives + 1, filter.keyPositives());
+            assertTrue(dictionary.keyExists(coldKeys(dictionary, 100).get(0)));
+            assertEquals(positives + 2, filter.keyPositives());
+            assertTrue(dictionary.memberExists(coldKeys(dictionary, 100).get(0), MEMBER1));
+            assertEquals(positives + 2, filter.keyPositives());
+            assertFalse(dictionary.keyExists("absent"));
+            assertEquals(negatives + 1, filter.keyNegatives());
+        } finally {
+            dictionary.close();
+        }
+    }
+
+    private static MultiValueDictionary<String, String> tiered(final int maxHotKeys) throws IOException {
+        final ColdStore<String, String> cold = new ColdStore<>(Files.createTempDirectory("tier"), Codec.STRING,
+                Codec.STRING);
+        return new MultiValueDictionary<>(0, null, 0, cold, maxHotKeys);
+    }
+
+    private static List<String> coldKeys(final MultiValueDictionary<String, String> dictionary, final int keys)
+            throws IOException {
+        final List<String> coldKeys = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            if (dictionary.coldStore().get("key" + i) != null) {
+                coldKeys.add("key" + i);
+            }
+        }
+        return coldKeys;
+    }
+
+    private static <V> List<V> membersOf(final List<Map.Entry<V, Long>> scored) {
+        final List<V> members = new ArrayList<>();
+        for (final Map.Entry<V, Long> entry : scored) {
+            members.add(entry.getKey());
+        }
+        return members;
+    }
+
     private static Stream<Arguments> singleKeyParameters() {
         return Stream.of(
                 Arguments.of(KEY1),
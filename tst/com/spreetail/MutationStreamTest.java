@@ -0,0 +1,242 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class MutationStreamTest {
+
+    private static final String KEY1 = "key1";
+    private static final String KEY2 = "key2";
+    private static final String MEMBER1 = "value1";
+    private static final String MEMBER2 = "value2";
+
+    @Test
+    void testSubscribe_receivesMutationsInOrder() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final BlockingQueue<DictionaryEvent<String, String>> events = new LinkedBlockingQueue<>();
+
+        try (MutationStream<String, String>.Subscription subscription = dictionary.mutations()
+                .subscribe(key -> true, events::add, MutationStream.OverflowPolicy.DROP)) {
+            dictionary.add(KEY1, MEMBER1);
+            dictionary.add(KEY1, MEMBER2);
+            dictionary.remove(KEY1, MEMBER1);
+            dictionary.removeAll(KEY1);
+            dictionary.clear();
+
+            assertEquals("ADD key1: value1", poll(events).toString());
+            assertEquals("ADD key1: value2", poll(events).toString());
+            assertEquals("REMOVE key1: value1", poll(events).toString());
+            assertEquals("REMOVEALL key1", poll(events).toString());
+            assertEquals("CLEAR", poll(events).toString());
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    @Test
+    void testSubscribe_keyFilter() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final BlockingQueue<DictionaryEvent<String, String>> events = new LinkedBlockingQueue<>();
+
+        try (MutationStream<String, String>.Subscription subscription = dictionary.mutations()
+                .subscribe(KEY2::equals, events::add, MutationStream.OverflowPolicy.DROP)) {
+            dictionary.add(KEY1, MEMBER1);
+            dictionary.add(KEY2, MEMBER2);
+
+            assertEquals("ADD key2: value2", poll(events).toString());
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    @Test
+    void testSubscribe_replacePublishedOnceApplied() throws Exception {
+        final CountDownLatch adding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object member = new Object() {
+            @Override
+            public String toString() {
+                adding.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return MEMBER2;
+            }
+        };
+        final MultiValueDictionary<String, Object> dictionary = new MultiValueDictionary<>();
+        final BlockingQueue<DictionaryEvent<String, Object>> events = new LinkedBlockingQueue<>();
+        dictionary.add(KEY1, MEMBER1);
+        final long version = dictionary.version(KEY1);
+        dictionary.buildSearchIndex().get(5, TimeUnit.SECONDS);
+
+        try (MutationStream<String, Object>.Subscription subscription = dictionary.mutations()
+                .subscribe(key -> true, events::add, MutationStream.OverflowPolicy.DROP)) {
+            final Thread replacing = new Thread(() -> {
+                try {
+                    dictionary.replace(KEY1, version, Arrays.asList(KEY2, member));
+                } catch (final DictionaryException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            replacing.start();
+
+            assertTrue(adding.await(5, TimeUnit.SECONDS));
+            assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+            release.countDown();
+            replacing.join();
+
+            assertEquals("REMOVEALL key1", poll(events).toString());
+            assertEquals("ADD key1: key2", poll(events).toString());
+            assertEquals("ADD key1: value2", poll(events).toString());
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    @Test
+    void testOverflow_drop() throws Exception {
+        final MutationStream<Integer, Integer> stream = new MutationStream<>(4, 0);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong dropped = new AtomicLong();
+        final BlockingQueue<DictionaryEvent<Integer, Integer>> events = new LinkedBlockingQueue<>();
+
+        try (MutationStream<Integer, Integer>.Subscription subscription = stream.subscribe(key -> true,
+                new DictionaryListener<Integer, Integer>() {
+                    @Override
+                    public void onEvent(final DictionaryEvent<Integer, Integer> event) {
+                        blocked.countDown();
+                        await(release);
+                        events.add(event);
+                    }
+
+                    @Override
+                    public void onDropped(final long count) {
+                        dropped.addAndGet(count);
+                    }
+                }, MutationStream.OverflowPolicy.DROP)) {
+
+            stream.publish(Command.ADD, 0, 0);
+            await(blocked);
+            for (int i = 1; i < 20; i++) {
+                stream.publish(Command.ADD, i, i);
+            }
+            release.countDown();
+
+            assertEquals(Integer.valueOf(0), poll(events).key);
+            final DictionaryEvent<Integer, Integer> next = poll(events);
+            assertTrue(next.sequence > 1);
+            assertEquals(next.sequence - 1, dropped.get());
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    @Test
+    void testOverflow_disconnect() throws Exception {
+        final MutationStream<Integer, Integer> stream = new MutationStream<>(2, 0);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        final MutationStream<Integer, Integer>.Subscription subscription = stream.subscribe(key -> true,
+                new DictionaryListener<Integer, Integer>() {
+                    @Override
+                    public void onEvent(final DictionaryEvent<Integer, Integer> event) {
+                        blocked.countDown();
+                        await(release);
+                    }
+
+                    @Override
+                    public void onClosed() {
+                        closed.countDown();
+                    }
+                }, MutationStream.OverflowPolicy.DISCONNECT);
+
+        stream.publish(Command.ADD, 0, 0);
+        await(blocked);
+        for (int i = 1; i < 4; i++) {
+            stream.publish(Command.ADD, i, i);
+        }
+        release.countDown();
+
+        assertTrue(subscription.isClosed());
+        assertFalse(stream.hasSubscribers());
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testOverflow_blockTimesOut() throws Exception {
+        final MutationStream<Integer, Integer> stream = new MutationStream<>(2, 10);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final MutationStream<Integer, Integer>.Subscription subscription = stream.subscribe(key -> true,
+                event -> {
+                    blocked.countDown();
+                    await(release);
+                }, MutationStream.OverflowPolicy.BLOCK);
+
+        stream.publish(Command.ADD, 0, 0);
+        await(blocked);
+        for (int i = 1; i < 4; i++) {
+            stream.publish(Command.ADD, i, i);
+        }
+        release.countDown();
+
+        assertTrue(subscription.isClosed());
+    }
+
+    @Test
+    void testOverflow_blockWaitsForSubscriber() throws Exception {
+        final MutationStream<Integer, Integer> stream = new MutationStream<>(2, 5000);
+        final BlockingQueue<DictionaryEvent<Integer, Integer>> events = new LinkedBlockingQueue<>();
+
+        try (MutationStream<Integer, Integer>.Subscription subscription = stream.subscribe(key -> true,
+                events::add, MutationStream.OverflowPolicy.BLOCK)) {
+            for (int i = 0; i < 100; i++) {
+                stream.publish(Command.ADD, i, i);
+            }
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals(Integer.valueOf(i), poll(events).key);
+            }
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    @Test
+    void testSubscribe_idleSubscriberWokenByPublish() throws Exception {
+        final MutationStream<Integer, Integer> stream = new MutationStream<>();
+        final BlockingQueue<DictionaryEvent<Integer, Integer>> events = new LinkedBlockingQueue<>();
+
+        try (MutationStream<Integer, Integer>.Subscription subscription = stream.subscribe(key -> true,
+                events::add, MutationStream.OverflowPolicy.DROP)) {
+            assertNull(events.poll(50, TimeUnit.MILLISECONDS));
+            stream.publish(Command.ADD, 1, 1);
+
+            assertEquals(Integer.valueOf(1), poll(events).key);
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    private static <T> T poll(final BlockingQueue<T> queue) throws InterruptedException {
+        final T value = queue.poll(5, TimeUnit.SECONDS);
+        assertNotNull(value);
+        return value;
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class ReadCacheTest {
+
+    @Test
+    void testGet_countsHitsAndMisses() {
+        final ReadCache<String, String> cache = new ReadCache<>(4);
+        assertNull(cache.get("a"));
+        cache.put("a", Arrays.asList("x", "y"));
+
+        assertEquals(Arrays.asList("x", "y"), cache.get("a"));
+        assertEquals(Arrays.asList(
+                "cache keys: 1",
+                "cache hits: 1",
+                "cache misses: 1",
+                "cache hit rate: 50.0%",
+                "cache evictions: 0",
+                "cache invalidations: 0"), cache.stats());
+    }
+
+    @Test
+    void testPut_evictsLeastRecentlyRead() {
+        final ReadCache<String, String> cache = new ReadCache<>(2);
+        cache.put("a", Collections.singletonList("x"));
+        cache.put("b", Collections.singletonList("x"));
+        cache.get("a");
+        cache.put("c", Collections.singletonList("x"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(cache.stats().contains("cache evictions: 1"));
+    }
+
+    @Test
+    void testInvalidate() {
+        final ReadCache<String, String> cache = new ReadCache<>(4);
+        cache.put("a", Collections.singletonList("x"));
+        cache.put("b", Collections.singletonList("x"));
+        cache.invalidate("a");
+        cache.invalidate("missing");
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(cache.stats().contains("cache invalidations: 2"));
+    }
+
+    @Test
+    void testPut_unmodifiable() {
+        final ReadCache<String, String> cache = new ReadCache<>(4);
+        final List<String> cached = cache.put("a", new ArrayList<>(Arrays.asList("x", "y")));
+
+        assertSame(cached, cache.get("a"));
+        assertThrows(UnsupportedOperationException.class, () -> cached.add("z"));
+    }
+
+    @Test
+    void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new ReadCache<String, String>(0));
+    }
+}
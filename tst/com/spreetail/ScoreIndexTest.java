@@ -0,0 +1,98 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class ScoreIndexTest {
+
+    @Test
+    void testTop() {
+        final ScoreIndex<String> index = new ScoreIndex<>(Arrays.asList("a", "b"));
+        index.add("c", 5);
+        index.add("d", -1);
+        index.add("e", 5);
+
+        assertEquals(Arrays.asList(entry("c", 5), entry("e", 5), entry("a", 0)), index.top(3));
+        assertEquals(5, index.top(10).size());
+    }
+
+    @Test
+    void testIncrement_reorders() {
+        final ScoreIndex<String> index = new ScoreIndex<>(Arrays.asList("a", "b", "c"));
+
+        assertEquals(2, index.increment("c", 2));
+        assertEquals(-1, index.increment("a", -1));
+
+        assertEquals(Arrays.asList(entry("c", 2), entry("b", 0), entry("a", -1)), index.top(3));
+        assertThrows(ArithmeticException.class, () -> index.increment("c", Long.MAX_VALUE));
+    }
+
+    @Test
+    void testRange() {
+        final ScoreIndex<String> index = new ScoreIndex<>(Collections.emptyList());
+        for (int i = 0; i < 10; i++) {
+            index.add("m" + i, i);
+        }
+
+        assertEquals(Arrays.asList(entry("m7", 7), entry("m6", 6), entry("m5", 5)), index.range(5, 7));
+        assertEquals(Collections.singletonList(entry("m9", 9)), index.range(9, Long.MAX_VALUE));
+        assertTrue(index.range(7, 5).isEmpty());
+        assertTrue(index.range(20, 30).isEmpty());
+    }
+
+    @Test
+    void testRemove() {
+        final ScoreIndex<String> index = new ScoreIndex<>(Collections.emptyList());
+        index.add("a", 1);
+        index.add("b", 2);
+        index.remove("b");
+        index.remove("missing");
+
+        assertEquals(1, index.size());
+        assertEquals(0, index.score("b"));
+        assertEquals(Collections.singletonMap("a", 1L), index.scores());
+    }
+
+    @Test
+    void testRandomOperations_matchSort() {
+        final ScoreIndex<Integer> index = new ScoreIndex<>(Collections.emptyList());
+        final Map<Integer, Long> reference = new HashMap<>();
+        final Random random = new Random(3);
+
+        for (int i = 0; i < 20000; i++) {
+            final int member = random.nextInt(500);
+            final int operation = random.nextInt(3);
+            if (operation == 0) {
+                index.remove(member);
+                reference.remove(member);
+            } else if (operation == 1 && reference.containsKey(member)) {
+                reference.put(member, index.increment(member, random.nextInt(21) - 10));
+            } else {
+                final long score = random.nextInt(100);
+                index.add(member, score);
+                reference.put(member, score);
+            }
+        }
+
+        assertEquals(reference, index.scores());
+        final List<Long> expected = new ArrayList<>(reference.values());
+        expected.sort(Comparator.reverseOrder());
+        final List<Long> actual = new ArrayList<>();
+        for (final Map.Entry<Integer, Long> entry : index.top(reference.size())) {
+            actual.add(entry.getValue());
+        }
+        assertEquals(expected, actual);
+        for (final Map.Entry<Integer, Long> entry : index.range(10, 20)) {
+            assertTrue(entry.getValue() >= 10 && entry.getValue() <= 20);
+        }
+        assertEquals(reference.values().stream().filter(score -> score >= 10 && score <= 20).count(),
+                index.range(10, 20).size());
+    }
+
+    private static Map.Entry<String, Long> entry(final String member, final long score) {
+        return new AbstractMap.SimpleImmutableEntry<>(member, score);
+    }
+}
@@ -0,0 +1,186 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TransactionTest {
+
+    private static final String KEY1 = "key1";
+    private static final String KEY2 = "key2";
+    private static final String MEMBER1 = "value1";
+    private static final String MEMBER2 = "value2";
+
+    @Test
+    void testExec_appliesAll() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+
+        dictionary.add(KEY1, MEMBER1);
+        transaction.queue(Command.REMOVE, KEY1, MEMBER1);
+        transaction.queue(Command.ADD, KEY2, MEMBER1);
+
+        assertEquals(Arrays.asList(Command.REMOVE, Command.ADD), transaction.exec(dictionary));
+        assertFalse(dictionary.keyExists(KEY1));
+        assertEquals(Collections.singletonList(MEMBER1), dictionary.members(KEY2));
+    }
+
+    @Test
+    void testExec_rollsBackOnFailure() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY1, MEMBER2);
+        dictionary.add(KEY2, MEMBER1);
+        transaction.queue(Command.REMOVE, KEY1, MEMBER1);
+        transaction.queue(Command.REMOVEALL, KEY2, null);
+        transaction.queue(Command.CLEAR, null, null);
+        transaction.queue(Command.REMOVE, KEY1, MEMBER1);
+
+        final DictionaryException de = assertThrows(DictionaryException.class, () -> transaction.exec(dictionary));
+
+        assertEquals(MultiValueDictionary.ERROR_KEY_DOES_NOT_EXIST, de.getMessage());
+        assertEquals(Arrays.asList(MEMBER2, MEMBER1), dictionary.members(KEY1));
+        assertEquals(Collections.singletonList(MEMBER1), dictionary.members(KEY2));
+        assertEquals(3, dictionary.memberCount());
+    }
+
+    @Test
+    void testExec_rollbackRestoresScores() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+
+        dictionary.add(KEY1, MEMBER1, 5);
+        dictionary.add(KEY1, MEMBER2, 9);
+        dictionary.add(KEY2, MEMBER1, 3);
+        transaction.queue(Command.REMOVE, KEY1, MEMBER2);
+        transaction.queue(Command.CLEAR, null, null);
+        transaction.queue(Command.REMOVE, KEY1, MEMBER1);
+
+        assertThrows(DictionaryException.class, () -> transaction.exec(dictionary));
+
+        assertEquals(9, dictionary.score(KEY1, MEMBER2));
+        assertEquals(5, dictionary.score(KEY1, MEMBER1));
+        assertEquals(3, dictionary.score(KEY2, MEMBER1));
+        assertEquals(MEMBER2, dictionary.top(KEY1, 1).get(0).getKey());
+    }
+
+    @Test
+    void testExec_rollbackKeepsVersions() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+        final Transaction<String, String> watching = new Transaction<>();
+
+        dictionary.add(KEY1, MEMBER1);
+        dictionary.add(KEY2, MEMBER1);
+        final long modifications = dictionary.modifications();
+        final long version1 = dictionary.version(KEY1);
+        final long version2 = dictionary.version(KEY2);
+        watching.watch(dictionary, KEY1);
+        watching.queue(Command.ADD, KEY1, MEMBER2);
+        transaction.queue(Command.ADD, KEY1, MEMBER2);
+        transaction.queue(Command.REMOVEALL, KEY2, null);
+        transaction.queue(Command.CLEAR, null, null);
+        transaction.queue(Command.ADD, "key3", MEMBER1);
+        transaction.queue(Command.REMOVE, KEY1, MEMBER1);
+
+        assertThrows(DictionaryException.class, () -> transaction.exec(dictionary));
+
+        assertEquals(modifications, dictionary.modifications());
+        assertEquals(version1, dictionary.version(KEY1));
+        assertEquals(version2, dictionary.version(KEY2));
+        assertEquals(0, dictionary.version("key3"));
+        assertEquals(Collections.singletonList(Command.ADD), watching.exec(dictionary));
+        assertEquals(modifications + 1, dictionary.version(KEY1));
+    }
+
+    @Test
+    void testExec_watchedKeyChanged() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+
+        transaction.watch(dictionary, KEY1);
+        transaction.queue(Command.ADD, KEY2, MEMBER1);
+        dictionary.add(KEY1, MEMBER1);
+
+        final DictionaryException de = assertThrows(DictionaryException.class, () -> transaction.exec(dictionary));
+
+        assertEquals(Transaction.ERROR_WATCHED_KEY_CHANGED, de.getMessage());
+        assertFalse(dictionary.keyExists(KEY2));
+    }
+
+    @Test
+    void testExec_watchedKeyRestored() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+
+        dictionary.add(KEY1, MEMBER1);
+        transaction.watch(dictionary, KEY1);
+        transaction.queue(Command.ADD, KEY2, MEMBER1);
+        dictionary.remove(KEY1, MEMBER1);
+        dictionary.add(KEY1, MEMBER1);
+
+        assertThrows(DictionaryException.class, () -> transaction.exec(dictionary));
+        assertFalse(dictionary.keyExists(KEY2));
+    }
+
+    @Test
+    void testExec_watchedKeyScored() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Transaction<String, String> transaction = new Transaction<>();
+
+        dictionary.add(KEY1, MEMBER1);
+        transaction.watch(dictionary, KEY1);
+        transaction.queue(Command.ADD, KEY2, MEMBER1);
+        dictionary.incrementScore(KEY1, MEMBER1, 3);
+
+        assertEquals(Collections.singletonList(Command.ADD), transaction.exec(dictionary));
+    }
+
+    @Test
+    void testExec_publishesOnlyAppliedBatches() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final BlockingQueue<DictionaryEvent<String, String>> events = new LinkedBlockingQueue<>();
+        dictionary.add(KEY1, MEMBER1);
+
+        try (MutationStream<String, String>.Subscription subscription = dictionary.mutations()
+                .subscribe(key -> true, events::add, MutationStream.OverflowPolicy.DROP)) {
+            final Transaction<String, String> failing = new Transaction<>();
+            failing.queue(Command.REMOVE, KEY1, MEMBER1);
+            failing.queue(Command.ADD, KEY2, MEMBER1);
+            failing.queue(Command.REMOVE, KEY1, MEMBER2);
+            assertThrows(DictionaryException.class, () -> failing.exec(dictionary));
+
+            final Transaction<String, String> transaction = new Transaction<>();
+            transaction.queue(Command.REMOVE, KEY1, MEMBER1);
+            transaction.queue(Command.ADD, KEY2, MEMBER1);
+            transaction.exec(dictionary);
+
+            assertEquals("REMOVE key1: value1", poll(events).toString());
+            assertEquals("ADD key2: value1", poll(events).toString());
+            assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+            assertFalse(subscription.isClosed());
+        }
+    }
+
+    @Test
+    void testQueue_notQueueable() {
+        final DictionaryException de = assertThrows(DictionaryException.class,
+                () -> new Transaction<String, String>().queue(Command.KEYS, null, null));
+
+        assertEquals(Transaction.ERROR_COMMAND_NOT_QUEUEABLE, de.getMessage());
+    }
+
+    private static <T> T poll(final BlockingQueue<T> queue) throws InterruptedException {
+        final T value = queue.poll(5, TimeUnit.SECONDS);
+        assertNotNull(value);
+        return value;
+    }
+}
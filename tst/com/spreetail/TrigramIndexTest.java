@@ -0,0 +1,126 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class TrigramIndexTest {
+
+    @Test
+    void testSearch() {
+        final TrigramIndex<String, String> index = new TrigramIndex<>(Collections.<String>emptyList());
+        index.add("key1", "apple pie");
+        index.add("key2", "apple pie");
+        index.add("key2", "pineapple");
+        index.add("key3", "banana");
+
+        assertEquals(pairs("key1", "apple pie", "key2", "apple pie", "key2", "pineapple"), set(index.search("apple")));
+        assertEquals(pairs("key2", "pineapple"), set(index.search("pinea")));
+        assertEquals(pairs("key3", "banana"), set(index.search("na")));
+        assertTrue(index.search("cherry").isEmpty());
+        assertEquals(3, index.search("e").size());
+    }
+
+    @Test
+    void testSearch_verifiesCandidates() {
+        final TrigramIndex<String, String> index = new TrigramIndex<>(Collections.<String>emptyList());
+        index.add("key1", "abcXbcd");
+
+        assertTrue(index.search("abcd").isEmpty());
+        assertEquals(1, index.search("bcd").size());
+    }
+
+    @Test
+    void testRemove() {
+        final TrigramIndex<String, String> index = new TrigramIndex<>(Collections.<String>emptyList());
+        index.add("key1", "apple");
+        index.add("key2", "apple");
+        index.remove("key1", "apple");
+
+        assertEquals(pairs("key2", "apple"), set(index.search("apple")));
+
+        index.removeAll("key2", Collections.singletonList("apple"));
+        assertTrue(index.search("apple").isEmpty());
+        assertEquals(0, index.trigramCount());
+        assertEquals(0, index.memberCount());
+    }
+
+    @Test
+    void testPendingKeys() {
+        final TrigramIndex<String, String> index = new TrigramIndex<>(Collections.singletonList("key1"));
+        index.add("key1", "ignored");
+        assertFalse(index.isReady());
+
+        index.indexKey("key1", Collections.singletonList("current"));
+
+        assertTrue(index.isReady());
+        assertTrue(index.search("ignored").isEmpty());
+        assertEquals(pairs("key1", "current"), set(index.search("current")));
+    }
+
+    @Test
+    void testDictionary_matchesScan() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            dictionary.add("key" + i % 3000, "member" + random.nextInt(5000) + "-" + i);
+        }
+        final Set<Map.Entry<String, String>> scanned = set(dictionary.search("12"));
+
+        dictionary.buildSearchIndex().get(10, TimeUnit.SECONDS);
+        assertTrue(dictionary.searchIndex().isReady());
+        assertEquals(scanned, set(dictionary.search("12")));
+
+        dictionary.removeAll("key1");
+        dictionary.add("key1", "member12345");
+        final Set<Map.Entry<String, String>> indexed = set(dictionary.search("12"));
+        assertTrue(indexed.contains(new AbstractMap.SimpleImmutableEntry<>("key1", "member12345")));
+        for (final Map.Entry<String, String> entry : indexed) {
+            assertTrue(dictionary.memberExists(entry.getKey(), entry.getValue()));
+        }
+        assertTrue(dictionary.searchIndex().memoryEstimate() > 0);
+    }
+
+    @Test
+    void testDictionary_failedBuildCanBeRetried() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final Object member = new Object() {
+            @Override
+            public String toString() {
+                if (failing.get()) {
+                    throw new IllegalStateException("unprintable");
+                }
+                return "member1";
+            }
+        };
+        final MultiValueDictionary<String, Object> dictionary = new MultiValueDictionary<>();
+        dictionary.add("key1", member);
+
+        final ExecutionException ee = assertThrows(ExecutionException.class,
+                () -> dictionary.buildSearchIndex().get(10, TimeUnit.SECONDS));
+        assertTrue(ee.getCause() instanceof IllegalStateException);
+        assertNull(dictionary.searchIndex());
+
+        failing.set(false);
+        dictionary.buildSearchIndex().get(10, TimeUnit.SECONDS);
+        assertTrue(dictionary.searchIndex().isReady());
+        assertEquals(1, dictionary.search("member").size());
+    }
+
+    private static Set<Map.Entry<String, String>> set(final List<Map.Entry<String, String>> entries) {
+        return new HashSet<>(entries);
+    }
+
+    private static Set<Map.Entry<String, String>> pairs(final String... keysAndMembers) {
+        final Set<Map.Entry<String, String>> pairs = new HashSet<>();
+        for (int i = 0; i < keysAndMembers.length; i += 2) {
+            pairs.add(new AbstractMap.SimpleImmutableEntry<>(keysAndMembers[i], keysAndMembers[i + 1]));
+        }
+        return pairs;
+    }
+}
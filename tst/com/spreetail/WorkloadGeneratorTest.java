@@ -0,0 +1,99 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class WorkloadGeneratorTest {
+
+    @Test
+    void testGenerate_mix() {
+        final List<WorkloadTrace.TraceEntry> trace = new WorkloadGenerator(100, 0, 5,
+                WorkloadGenerator.MemberDistribution.FIXED, 0.8, 1).generate(10000, 1000);
+
+        final Map<Command, Integer> counts = new EnumMap<>(Command.class);
+        int setup = 0;
+        long previous = 0;
+        for (final WorkloadTrace.TraceEntry entry : trace) {
+            if (entry.isSetup()) {
+                setup++;
+                continue;
+            }
+            assertTrue(entry.offsetNanos() >= previous);
+            previous = entry.offsetNanos();
+            counts.merge(Command.valueOf(entry.command()[0]), 1, Integer::sum);
+        }
+
+        assertEquals(500, setup);
+        assertEquals(8000, counts.get(Command.MEMBERS) + counts.get(Command.MEMBEREXISTS), 200);
+        assertEquals(2000, counts.get(Command.ADD) + counts.get(Command.REMOVE), 200);
+        // 10000 commands at 1000 per second last about 10 seconds
+        assertEquals(10e9, previous, 1e9);
+    }
+
+    @Test
+    void testGenerate_sameSeedSameTrace() {
+        final List<WorkloadTrace.TraceEntry> first = new WorkloadGenerator(10, 1, 3,
+                WorkloadGenerator.MemberDistribution.GEOMETRIC, 0.5, 7).generate(100, 100);
+        final List<WorkloadTrace.TraceEntry> second = new WorkloadGenerator(10, 1, 3,
+                WorkloadGenerator.MemberDistribution.GEOMETRIC, 0.5, 7).generate(100, 100);
+
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    void testKey_skew() {
+        final WorkloadGenerator generator = new WorkloadGenerator(1000, 1, 1,
+                WorkloadGenerator.MemberDistribution.FIXED, 1, 1);
+        final int[] counts = new int[1000];
+        for (int i = 0; i < 100000; i++) {
+            counts[generator.key()]++;
+        }
+
+        // the hottest of 1000 Zipf keys gets 1 / H(1000), about 13% of the load
+        assertEquals(13350, counts[0], 1000);
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[9] && counts[9] > counts[999]);
+    }
+
+    @Test
+    void testMembers_distributions() {
+        for (final WorkloadGenerator.MemberDistribution distribution : WorkloadGenerator.MemberDistribution.values()) {
+            final WorkloadGenerator generator = new WorkloadGenerator(1, 0, 20, distribution, 1, 1);
+            long total = 0;
+            for (int i = 0; i < 10000; i++) {
+                final int members = generator.members();
+                assertTrue(members >= 1);
+                total += members;
+            }
+            assertEquals(20, total / 10000.0, 1);
+        }
+    }
+
+    @Test
+    void testGenerate_appliesWithoutErrors() throws DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        for (final WorkloadTrace.TraceEntry entry : new WorkloadGenerator(20, 1.2, 4,
+                WorkloadGenerator.MemberDistribution.UNIFORM, 0, 3).generate(5000, 1000)) {
+            final String[] command = entry.command();
+            if (Command.ADD.name().equals(command[0])) {
+                dictionary.add(command[1], command[2]);
+            } else {
+                dictionary.remove(command[1], command[2]);
+            }
+        }
+
+        assertEquals(20, dictionary.keys().size());
+    }
+
+    @Test
+    void testInvalidWorkload() {
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadGenerator(0, 0, 1,
+                WorkloadGenerator.MemberDistribution.FIXED, 0.5, 1));
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadGenerator(1, 0, 1,
+                WorkloadGenerator.MemberDistribution.FIXED, 1.5, 1));
+        assertThrows(IllegalArgumentException.class, () -> new WorkloadGenerator(1, 0, 1,
+                WorkloadGenerator.MemberDistribution.FIXED, 0.5, 1).generate(1, 0));
+    }
+}
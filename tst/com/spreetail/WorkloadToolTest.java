@@ -0,0 +1,158 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class WorkloadToolTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void testRun_appliesWorkload() throws InterruptedException, DictionaryException {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final DictionaryHandler<String, String> handler = new DictionaryHandler<>(dictionary, Codec.STRING,
+                Codec.STRING);
+        final List<WorkloadTrace.TraceEntry> trace = new WorkloadGenerator(50, 1, 3,
+                WorkloadGenerator.MemberDistribution.FIXED, 0.5, 1).generate(2000, 20000);
+
+        final WorkloadTool.Report report = WorkloadTool.run(handler, trace, 1, 10 * MILLIS);
+
+        assertEquals(2000, report.latency().count());
+        assertEquals(0, report.errors());
+        assertNotNull(report.latency(Command.MEMBERS));
+        assertNull(report.latency(Command.CLEAR));
+        assertEquals(2000, report.completions().stream().mapToLong(Long::longValue).sum());
+        assertEquals(50, dictionary.keys().size());
+    }
+
+    @Test
+    void testRun_chargesStallToDelayedCommands() throws Exception {
+        final MultiValueDictionary<String, String> dictionary = new MultiValueDictionary<>();
+        final DictionaryHandler<String, String> handler = new DictionaryHandler<>(dictionary, Codec.STRING,
+                Codec.STRING);
+        final List<WorkloadTrace.TraceEntry> trace = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            trace.add(new WorkloadTrace.TraceEntry(i * 5 * MILLIS, new String[] {"ADD", "key" + i, "member"}));
+        }
+
+        // every command issued in the first 100ms waits for the write lock held here
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread stall = new Thread(() -> {
+            try {
+                dictionary.atomically(() -> {
+                    locked.countDown();
+                    try {
+                        Thread.sleep(100);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (final DictionaryException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        stall.start();
+        locked.await();
+        final WorkloadTool.Report report = WorkloadTool.run(handler, trace, 1, 10 * MILLIS);
+        stall.join();
+
+        // measured from when the commands were issued, only the first one would have waited the full stall
+        assertTrue(report.latency().max() >= 90 * MILLIS);
+        assertTrue(report.latency().percentile(50) >= 40 * MILLIS);
+        assertEquals(20, dictionary.keys().size());
+    }
+
+    @Test
+    void testRun_speed() throws InterruptedException {
+        final DictionaryHandler<String, String> handler = new DictionaryHandler<>(Codec.STRING, Codec.STRING);
+        final List<WorkloadTrace.TraceEntry> trace = Arrays.asList(
+                new WorkloadTrace.TraceEntry(0, new String[] {"ADD", "key", "member"}),
+                new WorkloadTrace.TraceEntry(400 * MILLIS, new String[] {"MEMBERS", "key"}));
+
+        final long start = System.nanoTime();
+        final WorkloadTool.Report report = WorkloadTool.run(handler, trace, 4, 1000 * MILLIS);
+        final long elapsed = System.nanoTime() - start;
+
+        assertEquals(2, report.latency().count());
+        assertTrue(elapsed >= 100 * MILLIS && elapsed < 300 * MILLIS, "elapsed " + elapsed);
+    }
+
+    @Test
+    void testStartup() throws Exception {
+        final List<String> lines = WorkloadTool.startup(2, Collections.singletonList("-Xshare:auto"));
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("first command mean "));
+        assertTrue(lines.get(1).startsWith("exit mean "));
+    }
+
+    @Test
+    void testCompareAndSet() throws InterruptedException {
+        final List<String> lines = WorkloadTool.compareAndSet(2, 4, 1, 3, 100 * MILLIS);
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("updates: "), lines.get(0));
+        assertTrue(lines.get(0).endsWith(" 2 threads"), lines.get(0));
+        assertTrue(lines.get(1).startsWith("retries: "), lines.get(1));
+        assertTrue(lines.get(2).startsWith("latency mean "), lines.get(2));
+    }
+
+    @Test
+    void testCompareDispatch() {
+        final List<WorkloadTrace.TraceEntry> trace = new WorkloadGenerator(10, 0.99, 2,
+                WorkloadGenerator.MemberDistribution.FIXED, 0.5, 1).generate(1000, 10000);
+
+        final List<String> lines = WorkloadTool.compareDispatch(new String[] {"dispatch"}, trace, 2);
+
+        assertEquals(6, lines.size());
+        assertTrue(lines.get(0).startsWith("global lock on 2 platform threads: 1000 commands in "), lines.get(0));
+        assertTrue(lines.get(2).startsWith("mailboxes on 2 platform threads: 1000 commands in "), lines.get(2));
+        assertTrue(lines.get(4).startsWith("mailboxes on the default executor: 1000 commands in "), lines.get(4));
+        assertTrue(lines.get(4).endsWith(" 0 errors"), lines.get(4));
+        assertTrue(lines.get(5).startsWith("mailboxes on the default executor latency mean "), lines.get(5));
+    }
+
+    @Test
+    void testBatchSizes() {
+        final List<String> lines = WorkloadTool.batchSizes(4, 1001, 10);
+
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).startsWith("no transaction: 1001 commands in "), lines.get(0));
+        assertTrue(lines.get(1).startsWith("batch 1: 1001 commands in "), lines.get(1));
+        assertTrue(lines.get(3).startsWith("batch 4: 1001 commands in "), lines.get(3));
+    }
+
+    @Test
+    void testGrowth() {
+        final List<String> lines = WorkloadTool.growth(10000);
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("adds: 10000 in "));
+        assertTrue(lines.get(1).startsWith("latency mean "));
+    }
+
+    @Test
+    void testReport_lines() {
+        final WorkloadTool.Report report = new WorkloadTool.Report(0, 1000 * MILLIS);
+        report.completed(Command.ADD, 0, 2 * MILLIS, false);
+        report.completed(Command.MEMBERS, 1500 * MILLIS, 1501 * MILLIS, true);
+        report.finish(2000 * MILLIS);
+
+        final List<String> lines = report.lines();
+
+        assertEquals("commands: 2 in 2.000 s, 1 commands/s, 1 errors", lines.get(0));
+        assertTrue(lines.get(1).startsWith("latency mean 1.500 ms, p50 "));
+        assertTrue(lines.get(2).startsWith("latency ADD mean 2.000 ms"));
+        assertTrue(lines.get(3).startsWith("latency MEMBERS mean 1.000 ms"));
+        assertTrue(lines.get(3).endsWith(", max 1.000 ms"));
+        assertEquals("max issue lag: 0.000 ms", lines.get(4));
+        assertEquals("throughput 1.000 s: 1 commands/s", lines.get(5));
+        assertEquals("throughput 2.000 s: 1 commands/s", lines.get(6));
+    }
+}
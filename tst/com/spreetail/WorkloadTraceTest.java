@@ -0,0 +1,82 @@
+package com.spreetail;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class WorkloadTraceTest {
+
+    private Path path;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        path = Files.createTempFile("workload", ".trace");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    void testWriteRead() throws IOException {
+        WorkloadTrace.write(path, Arrays.asList(
+                new WorkloadTrace.TraceEntry(-1, new String[] {"ADD", "key", "member"}),
+                new WorkloadTrace.TraceEntry(1500000, new String[] {"MEMBERS", "key"})));
+
+        final List<WorkloadTrace.TraceEntry> entries = WorkloadTrace.read(path);
+
+        assertEquals(2, entries.size());
+        assertTrue(entries.get(0).isSetup());
+        assertFalse(entries.get(1).isSetup());
+        assertEquals(1500000, entries.get(1).offsetNanos());
+        assertArrayEquals(new String[] {"MEMBERS", "key"}, entries.get(1).command());
+        assertEquals(Arrays.asList("- ADD key member", "1500 MEMBERS key"),
+                Files.readAllLines(path, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRead_skipsCommentsAndEmptyLines() throws IOException {
+        Files.write(path, Arrays.asList("# recorded trace", "", "10 KEYS"), StandardCharsets.UTF_8);
+
+        final List<WorkloadTrace.TraceEntry> entries = WorkloadTrace.read(path);
+
+        assertEquals(1, entries.size());
+        assertEquals(10000, entries.get(0).offsetNanos());
+    }
+
+    @Test
+    void testRead_invalidLines() throws IOException {
+        for (final String line : Arrays.asList("10 GET key", "KEYS", "x KEYS", "-5 KEYS", "10 ")) {
+                Files.write(path, Arrays.asList("1 KEYS", line), StandardCharsets.UTF_8);
+
+            final IOException e = assertThrows(IOException.class, () -> WorkloadTrace.read(path));
+            assertEquals(WorkloadTrace.ERROR_INVALID_TRACE + 2, e.getMessage());
+        }
+    }
+
+    @Test
+    void testRecorder() throws IOException, InterruptedException {
+        try (WorkloadTrace.Recorder recorder = new WorkloadTrace.Recorder(path)) {
+            recorder.record(new String[] {"ADD", "key", "member"});
+            Thread.sleep(20);
+            recorder.record(new String[] {"MEMBERS", "key"});
+        }
+
+        final List<WorkloadTrace.TraceEntry> entries = WorkloadTrace.read(path);
+
+        assertEquals(2, entries.size());
+        assertFalse(entries.get(0).isSetup());
+        assertTrue(entries.get(1).offsetNanos() - entries.get(0).offsetNanos() >= 20000000);
+        assertArrayEquals(new String[] {"MEMBERS", "key"}, entries.get(1).command());
+    }
+}